@@ -53,14 +53,18 @@ export const doctorApi = {
   },
 
   /**
-   * 获取对话记录详情
+   * 获取对话记录详情，默认只返回最新一页消息
    * @param {number|string} conversationId 对话ID
+   * @param {Object} params 分页参数
+   * @param {string} params.before 加载该消息之前的消息
+   * @param {number} params.limit 每页消息数
    * @returns {Promise<Object>}
    */
-  getConversationDetail(conversationId) {
+  getConversationDetail(conversationId, params) {
     return request({
       url: `/api/doctor/conversations/${conversationId}`,
-      method: 'get'
+      method: 'get',
+      params
     })
   },
 
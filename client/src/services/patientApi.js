@@ -1,5 +1,9 @@
 import { API_BASE_URL, commonHeaders } from './api'
 
+// 每次发送生成一个幂等键，重试时复用，服务端据此去重
+const newIdempotencyKey = () =>
+  globalThis.crypto?.randomUUID?.() ?? `${Date.now()}-${Math.random().toString(36).slice(2)}`
+
 // 病人相关API
 export const patientApi = {
   // 获取所有智能体
@@ -32,10 +36,11 @@ export const patientApi = {
     }
   },
   
-  // 获取对话详情
-  getConversation: async (conversationId) => {
+  // 获取对话详情，默认只返回最新一页消息，传入before加载该消息之前的消息
+  getConversation: async (conversationId, before) => {
     try {
-      const response = await fetch(`${API_BASE_URL}/patient/conversations/${conversationId}`, {
+      const query = before ? `?before=${encodeURIComponent(before)}` : ''
+      const response = await fetch(`${API_BASE_URL}/patient/conversations/${conversationId}${query}`, {
         method: 'GET',
         headers: commonHeaders,
         credentials: 'include'
@@ -67,15 +72,22 @@ export const patientApi = {
     }
   },
   
-  // 创建新对话或发送消息
-  sendMessage: async (data) => {
+  // 创建新对话或发送消息，连接失败时携带同一个幂等键重试一次，服务端不会重复处理同一轮消息
+  sendMessage: async (data, idempotencyKey = newIdempotencyKey()) => {
+    const send = () => fetch(`${API_BASE_URL}/patient/conversations/message`, {
+      method: 'POST',
+      headers: { ...commonHeaders, 'Idempotency-Key': idempotencyKey },
+      body: JSON.stringify(data),
+      credentials: 'include'
+    })
     try {
-      const response = await fetch(`${API_BASE_URL}/patient/conversations/message`, {
-        method: 'POST',
-        headers: commonHeaders,
-        body: JSON.stringify(data),
-        credentials: 'include'
-      })
+      let response
+      try {
+        response = await send()
+      } catch (error) {
+        console.warn('发送消息连接失败，重试一次:', error)
+        response = await send()
+      }
       return await response.json()
     } catch (error) {
       console.error('发送消息失败:', error)
@@ -137,7 +149,7 @@ export const patientApi = {
       // 发送POST请求，因为EventSource只支持GET
       fetch(urlString, {
         method: 'POST',
-        headers: commonHeaders,
+        headers: { ...commonHeaders, 'Idempotency-Key': newIdempotencyKey() },
         body: JSON.stringify(data),
         credentials: 'include'
       }).catch(error => {
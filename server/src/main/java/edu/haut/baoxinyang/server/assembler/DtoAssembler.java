@@ -0,0 +1,187 @@
+package edu.haut.baoxinyang.server.assembler;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import edu.haut.baoxinyang.server.dto.AgentDTO;
+import edu.haut.baoxinyang.server.dto.ConversationDTO;
+import edu.haut.baoxinyang.server.dto.PrescriptionDTO;
+import edu.haut.baoxinyang.server.entity.Agent;
+import edu.haut.baoxinyang.server.entity.BaseEntity;
+import edu.haut.baoxinyang.server.entity.Conversation;
+import edu.haut.baoxinyang.server.entity.MedicalDirection;
+import edu.haut.baoxinyang.server.entity.User;
+import edu.haut.baoxinyang.server.service.AgentService;
+import edu.haut.baoxinyang.server.service.ConversationService;
+import edu.haut.baoxinyang.server.service.MedicalDirectionService;
+import edu.haut.baoxinyang.server.service.UserService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * DTO批量组装器
+ * 先收集列表中引用到的所有ID，每种实体只用一次IN查询解析，再在内存中填充DTO，避免逐行查询
+ */
+@Component
+@RequiredArgsConstructor
+public class DtoAssembler {
+
+    private static final String UNKNOWN_AGENT = "未知助手";
+    private static final String UNKNOWN_DIRECTION = "未知科室";
+
+    private final AgentService agentService;
+    private final MedicalDirectionService medicalDirectionService;
+    private final UserService userService;
+    private final ConversationService conversationService;
+
+    /**
+     * 填充对话列表的智能体名称和医疗方向名称
+     * @param dtos 对话DTO列表
+     */
+    public void fillConversations(List<ConversationDTO> dtos) {
+        Map<Long, Agent> agents = loadAgents(collect(dtos, ConversationDTO::getAgentId));
+        Map<Long, MedicalDirection> directions = loadDirections(collect(agents.values(), Agent::getDirectionId));
+
+        for (ConversationDTO dto : dtos) {
+            Agent agent = dto.getAgentId() != null ? agents.get(dto.getAgentId()) : null;
+            if (agent == null) {
+                dto.setAgentName(UNKNOWN_AGENT);
+                dto.setDirectionName(UNKNOWN_DIRECTION);
+                continue;
+            }
+            dto.setAgentName(agent.getName());
+            MedicalDirection direction = agent.getDirectionId() != null ? directions.get(agent.getDirectionId()) : null;
+            dto.setDirectionName(direction != null ? direction.getName() : UNKNOWN_DIRECTION);
+        }
+    }
+
+    /**
+     * 填充处方列表的病人、智能体、医疗方向、审核医生名称和关联的对话ID
+     * @param dtos 处方DTO列表
+     */
+    public void fillPrescriptions(List<PrescriptionDTO> dtos) {
+        if (dtos.isEmpty()) {
+            return;
+        }
+        Set<Long> userIds = collect(dtos, PrescriptionDTO::getUserId);
+        userIds.addAll(collect(dtos, PrescriptionDTO::getReviewerId));
+        Map<Long, User> users = loadUsers(userIds);
+        Map<Long, Agent> agents = loadAgents(collect(dtos, PrescriptionDTO::getAgentId));
+        Map<Long, MedicalDirection> directions = loadDirections(collect(dtos, PrescriptionDTO::getDirectionId));
+        Map<Long, Long> conversationIds = loadConversationIdsByPrescription(collect(dtos, PrescriptionDTO::getId));
+
+        for (PrescriptionDTO dto : dtos) {
+            User user = users.get(dto.getUserId());
+            if (user != null) {
+                dto.setUserName(user.getRealName());
+            }
+            Agent agent = agents.get(dto.getAgentId());
+            if (agent != null) {
+                dto.setAgentName(agent.getName());
+            }
+            MedicalDirection direction = directions.get(dto.getDirectionId());
+            if (direction != null) {
+                dto.setDirectionName(direction.getName());
+            }
+            if (dto.getReviewerId() != null) {
+                User reviewer = users.get(dto.getReviewerId());
+                if (reviewer != null) {
+                    dto.setReviewerName(reviewer.getRealName());
+                }
+            }
+            Long conversationId = conversationIds.get(dto.getId());
+            if (conversationId != null) {
+                dto.setConversationId(conversationId);
+            }
+        }
+    }
+
+    /**
+     * 填充智能体DTO列表的医疗方向信息
+     * @param dtos 智能体DTO列表
+     */
+    public void fillAgents(List<AgentDTO> dtos) {
+        Map<Long, MedicalDirection> directions = loadDirections(collect(dtos, AgentDTO::getDirectionId));
+        for (AgentDTO dto : dtos) {
+            MedicalDirection direction = dto.getDirectionId() != null ? directions.get(dto.getDirectionId()) : null;
+            if (direction != null) {
+                dto.setDirectionName(direction.getName());
+                dto.setDirectionDescription(direction.getDescription());
+            }
+        }
+    }
+
+    /**
+     * 为智能体实体列表关联医疗方向
+     * @param agents 智能体列表
+     */
+    public void attachAgentDirections(List<Agent> agents) {
+        Map<Long, MedicalDirection> directions = loadDirections(collect(agents, Agent::getDirectionId));
+        for (Agent agent : agents) {
+            if (agent.getDirectionId() != null) {
+                agent.setDirection(directions.get(agent.getDirectionId()));
+            }
+        }
+    }
+
+    /**
+     * 为用户实体列表关联医疗方向
+     * @param users 用户列表
+     */
+    public void attachUserDirections(List<User> users) {
+        Map<Long, MedicalDirection> directions = loadDirections(collect(users, User::getDirectionId));
+        for (User user : users) {
+            if (user.getDirectionId() != null) {
+                user.setDirection(directions.get(user.getDirectionId()));
+            }
+        }
+    }
+
+    private Map<Long, Agent> loadAgents(Set<Long> ids) {
+        return ids.isEmpty() ? new HashMap<>() : toMap(agentService.listByIds(ids));
+    }
+
+    private Map<Long, MedicalDirection> loadDirections(Set<Long> ids) {
+        return ids.isEmpty() ? new HashMap<>() : toMap(medicalDirectionService.listByIds(ids));
+    }
+
+    private Map<Long, User> loadUsers(Set<Long> ids) {
+        return ids.isEmpty() ? new HashMap<>() : toMap(userService.listByIds(ids));
+    }
+
+    /**
+     * 按处方ID批量查询关联的对话ID
+     */
+    private Map<Long, Long> loadConversationIdsByPrescription(Set<Long> prescriptionIds) {
+        Map<Long, Long> result = new HashMap<>();
+        if (prescriptionIds.isEmpty()) {
+            return result;
+        }
+        LambdaQueryWrapper<Conversation> wrapper = new LambdaQueryWrapper<>();
+        wrapper.select(Conversation::getId, Conversation::getPrescriptionId)
+                .in(Conversation::getPrescriptionId, prescriptionIds);
+        for (Conversation conversation : conversationService.list(wrapper)) {
+            result.putIfAbsent(conversation.getPrescriptionId(), conversation.getId());
+        }
+        return result;
+    }
+
+    private static <T> Set<Long> collect(Collection<T> items, Function<T, Long> idGetter) {
+        return items.stream()
+                .map(idGetter)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+    private static <T extends BaseEntity> Map<Long, T> toMap(Collection<T> entities) {
+        return entities.stream().collect(Collectors.toMap(BaseEntity::getId, Function.identity(), (a, b) -> a));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,316 @@
+package edu.haut.baoxinyang.server.cache;
+
+import cn.hutool.core.util.IdUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import edu.haut.baoxinyang.server.common.StatsProvider;
+import edu.haut.baoxinyang.server.config.CacheConfig;
+import edu.haut.baoxinyang.server.dto.MessageDTO;
+import edu.haut.baoxinyang.server.entity.Conversation;
+import edu.haut.baoxinyang.server.service.ConversationMessageService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * 活跃对话的消息缓存
+ * 缓存最近活跃对话的完整消息列表，新消息先写入内存并立即对后续轮次可见，
+ * 再由定时任务批量写入消息表；对话空闲或被淘汰、生成处方以及应用关闭时也会写入
+ */
+@Slf4j
+@Component
+public class ConversationCache implements StatsProvider {
+
+    private final CacheConfig.Conversation config;
+    private final ConversationMessageService conversationMessageService;
+    private final Cache<Long, Entry> cache;
+
+    /**
+     * 写入消息使用独立事务，不受调用方事务回滚的影响
+     */
+    private final TransactionTemplate flushTransaction;
+
+    /**
+     * 有待写入消息的对话，被缓存淘汰后仍保留到写入完成
+     */
+    private final Map<Long, Entry> dirty = new ConcurrentHashMap<>();
+
+    /**
+     * 对话锁，按对话ID分段，追加本轮消息与结束对话互斥
+     */
+    private final ReentrantLock[] conversationLocks = new ReentrantLock[64];
+
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder writeThrough = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder flushedMessages = new LongAdder();
+    private final LongAdder flushFailures = new LongAdder();
+    private final LongAdder reloads = new LongAdder();
+
+    public ConversationCache(CacheConfig cacheConfig, ConversationMessageService conversationMessageService,
+                             PlatformTransactionManager transactionManager) {
+        this.config = cacheConfig.getConversation();
+        this.conversationMessageService = conversationMessageService;
+        this.flushTransaction = new TransactionTemplate(transactionManager);
+        this.flushTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        for (int i = 0; i < conversationLocks.length; i++) {
+            conversationLocks[i] = new ReentrantLock();
+        }
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(config.getMaxSize())
+                .expireAfterAccess(Duration.ofMillis(config.getExpireAfterAccess()))
+                .expireAfterWrite(Duration.ofMillis(config.getExpireAfterWrite()))
+                .removalListener((Long conversationId, Entry entry, RemovalCause cause) -> {
+                    if (entry != null && cause.wasEvicted()) {
+                        flush(entry);
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * 获取对话的全部消息，包括尚未写入数据库的消息
+     * @param conversation 对话，需要包含消息数，用于发现其他节点追加的消息
+     * @return 消息列表副本，可以放心修改
+     */
+    public List<MessageDTO> getMessages(Conversation conversation) {
+        if (!config.isEnabled()) {
+            return conversationMessageService.listMessages(conversation);
+        }
+
+        Long conversationId = conversation.getId();
+        Entry entry = cache.get(conversationId, key -> load(conversation));
+        if (conversation.getMessageCount() != null && entry.flushedCount() != conversation.getMessageCount()
+                && flush(entry)) {
+            // 数据库中的消息数与缓存不一致，说明有其他节点追加过消息，写入本地消息后重新加载
+            cache.asMap().remove(conversationId, entry);
+            entry = cache.get(conversationId, key -> load(conversation));
+            reloads.increment();
+        }
+        return entry.snapshot();
+    }
+
+    /**
+     * 追加消息，缓存中有该对话时延迟写入，否则直接写入数据库
+     * @param conversationId 对话ID
+     * @param messages 按顺序排列的新消息
+     */
+    public void append(Long conversationId, List<MessageDTO> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        Entry entry = config.isEnabled() ? dirty.get(conversationId) : null;
+        if (entry == null && config.isEnabled()) {
+            entry = cache.getIfPresent(conversationId);
+        }
+        if (entry == null) {
+            conversationMessageService.appendMessages(conversationId, messages);
+            writeThrough.increment();
+            return;
+        }
+
+        for (MessageDTO message : messages) {
+            // 重试写入时按message_uid判断消息是否已经存在
+            if (message.getId() == null) {
+                message.setId(IdUtil.fastSimpleUUID());
+            }
+        }
+        synchronized (entry) {
+            entry.messages.addAll(messages);
+            entry.pending.addAll(messages);
+            dirty.put(conversationId, entry);
+        }
+        appended.add(messages.size());
+    }
+
+    /**
+     * 持有对话锁执行操作
+     * 消息延迟写入后，"确认对话未结束再追加消息"和"写入全部消息后结束对话"不再处于同一个数据库事务，
+     * 两者都需要在对话锁内进行，避免对话结束后才写入本轮消息
+     * @param conversationId 对话ID
+     * @param action 操作
+     * @param <T> 结果类型
+     * @return 操作结果
+     */
+    public <T> T withConversationLock(Long conversationId, Supplier<T> action) {
+        ReentrantLock lock = conversationLocks[Math.floorMod(conversationId.hashCode(), conversationLocks.length)];
+        lock.lock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 立即写入对话的待写入消息
+     * @param conversationId 对话ID
+     * @return 是否写入成功，没有待写入消息时返回true
+     */
+    public boolean flush(Long conversationId) {
+        Entry entry = dirty.get(conversationId);
+        return entry == null || flush(entry);
+    }
+
+    /**
+     * 定时写入所有待写入消息，同时清理过期的缓存项
+     */
+    @Scheduled(fixedDelayString = "${cache.conversation.flush-interval:1000}")
+    public void flushAll() {
+        for (Entry entry : dirty.values()) {
+            flush(entry);
+        }
+        cache.cleanUp();
+    }
+
+    /**
+     * 应用关闭前写入所有已确认的消息
+     */
+    @PreDestroy
+    public void shutdown() {
+        int pending = dirty.size();
+        flushAll();
+        if (!dirty.isEmpty()) {
+            log.error("关闭时仍有对话消息未能写入: conversations={}", dirty.keySet());
+        } else if (pending > 0) {
+            log.info("关闭前已写入{}个对话的缓存消息", pending);
+        }
+    }
+
+    private Entry load(Conversation conversation) {
+        // 被淘汰但尚未写入的对话继续使用原缓存项，避免丢失待写入消息
+        Entry pending = dirty.get(conversation.getId());
+        if (pending != null) {
+            return pending;
+        }
+        return new Entry(conversation.getId(), conversationMessageService.listMessages(conversation));
+    }
+
+    private boolean flush(Entry entry) {
+        entry.flushLock.lock();
+        try {
+            List<MessageDTO> batch;
+            synchronized (entry) {
+                if (entry.pending.isEmpty()) {
+                    dirty.remove(entry.conversationId, entry);
+                    return true;
+                }
+                batch = new ArrayList<>(entry.pending);
+            }
+
+            int written = batch.size();
+            try {
+                flushTransaction.executeWithoutResult(status ->
+                        conversationMessageService.appendMessages(entry.conversationId, batch));
+            } catch (DuplicateKeyException e) {
+                // 上次写入已提交但未收到确认，整批已回滚，只补写数据库中还没有的消息
+                Integer missing = flushTransaction.execute(status ->
+                        conversationMessageService.appendMissingMessages(entry.conversationId, batch));
+                written = missing != null ? missing : 0;
+                log.warn("部分缓存消息已写入过: conversationId={}, batch={}, written={}",
+                        entry.conversationId, batch.size(), written);
+            }
+
+            synchronized (entry) {
+                entry.pending.subList(0, batch.size()).clear();
+                entry.flushedCount += batch.size();
+                if (entry.pending.isEmpty()) {
+                    dirty.remove(entry.conversationId, entry);
+                }
+            }
+            flushes.increment();
+            flushedMessages.add(written);
+            return true;
+        } catch (RuntimeException e) {
+            flushFailures.increment();
+            log.error("写入缓存消息失败，稍后重试: conversationId={}", entry.conversationId, e);
+            return false;
+        } finally {
+            entry.flushLock.unlock();
+        }
+    }
+
+    @Override
+    public String getStatsName() {
+        return "conversationCache";
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        CacheStats stats = cache.stats();
+        int pendingMessages = 0;
+        for (Entry entry : dirty.values()) {
+            synchronized (entry) {
+                pendingMessages += entry.pending.size();
+            }
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("enabled", config.isEnabled());
+        result.put("size", cache.estimatedSize());
+        result.put("hitCount", stats.hitCount());
+        result.put("missCount", stats.missCount());
+        result.put("hitRate", stats.hitRate());
+        result.put("evictionCount", stats.evictionCount());
+        result.put("reloads", reloads.sum());
+        result.put("appended", appended.sum());
+        result.put("writeThrough", writeThrough.sum());
+        result.put("dirtyConversations", dirty.size());
+        result.put("pendingMessages", pendingMessages);
+        result.put("flushes", flushes.sum());
+        result.put("flushedMessages", flushedMessages.sum());
+        result.put("flushFailures", flushFailures.sum());
+        return result;
+    }
+
+    /**
+     * 单个对话的缓存项，消息列表和待写入列表由对象锁保护
+     */
+    private static final class Entry {
+
+        private final Long conversationId;
+        private final List<MessageDTO> messages;
+        private final List<MessageDTO> pending = new ArrayList<>();
+
+        /**
+         * 保证同一对话的消息按顺序写入
+         */
+        private final ReentrantLock flushLock = new ReentrantLock();
+
+        /**
+         * 已在数据库中的消息数
+         */
+        private int flushedCount;
+
+        private Entry(Long conversationId, List<MessageDTO> messages) {
+            this.conversationId = conversationId;
+            this.messages = new ArrayList<>(messages);
+            this.flushedCount = messages.size();
+        }
+
+        private synchronized int flushedCount() {
+            return flushedCount;
+        }
+
+        private synchronized List<MessageDTO> snapshot() {
+            return new ArrayList<>(messages);
+        }
+    }
+}
\ No newline at end of file
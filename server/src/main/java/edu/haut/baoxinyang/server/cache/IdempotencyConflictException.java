@@ -0,0 +1,11 @@
+package edu.haut.baoxinyang.server.cache;
+
+/**
+ * 幂等键冲突异常，同一幂等键被用于不同的请求
+ */
+public class IdempotencyConflictException extends RuntimeException {
+
+    public IdempotencyConflictException(String message) {
+        super(message);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,170 @@
+package edu.haut.baoxinyang.server.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import edu.haut.baoxinyang.server.common.StatsProvider;
+import edu.haut.baoxinyang.server.config.CacheConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * 幂等键存储
+ * 记录一段时间内客户端通过Idempotency-Key请求头提交的请求及其结果，
+ * 重试的请求直接返回首次的结果；首次请求仍在处理时，重试请求等待其完成
+ */
+@Slf4j
+@Component
+public class IdempotencyStore implements StatsProvider {
+
+    /**
+     * 请求头名称
+     */
+    public static final String HEADER = "Idempotency-Key";
+
+    /**
+     * 幂等键的最大长度
+     */
+    private static final int MAX_KEY_LENGTH = 64;
+
+    private final Cache<String, Entry> cache;
+
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder replayed = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+
+    public IdempotencyStore(CacheConfig cacheConfig) {
+        CacheConfig.Idempotency config = cacheConfig.getIdempotency();
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(config.getMaxSize())
+                .expireAfterWrite(Duration.ofMillis(config.getWindow()))
+                .build();
+    }
+
+    /**
+     * 以幂等方式执行操作
+     * @param scope 操作类型，不同接口的幂等键互不影响
+     * @param userId 当前用户ID
+     * @param key 客户端提供的幂等键，为空时直接执行
+     * @param request 请求内容，同一幂等键只能用于相同的请求
+     * @param action 实际操作
+     * @param keep 结果是否保留，不保留的结果（如失败）允许客户端用同一幂等键重试；
+     *             重放前会再次检查，结果之后才失败的（如流式回复中断）同样重新执行
+     * @param <T> 结果类型
+     * @return 本次或首次执行的结果
+     * @throws IdempotencyConflictException 幂等键已用于不同的请求
+     */
+    public <T> T execute(String scope, Long userId, String key, Object request,
+                         Supplier<T> action, Predicate<T> keep) {
+        try {
+            return executeAsync(scope, userId, key, request,
+                    () -> CompletableFuture.completedFuture(action.get()), keep).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 以幂等方式执行异步操作，首次请求仍在处理时，重试请求的Future在首次请求完成后完成
+     * @param scope 操作类型，不同接口的幂等键互不影响
+     * @param userId 当前用户ID
+     * @param key 客户端提供的幂等键，为空时直接执行
+     * @param request 请求内容，同一幂等键只能用于相同的请求
+     * @param action 实际操作
+     * @param keep 结果是否保留，不保留的结果（如失败）允许客户端用同一幂等键重试；
+     *             重放前会再次检查，结果之后才失败的（如流式回复中断）同样重新执行
+     * @param <T> 结果类型
+     * @return 本次或首次执行的结果
+     * @throws IdempotencyConflictException 幂等键已用于不同的请求
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> executeAsync(String scope, Long userId, String key, Object request,
+                                                 Supplier<CompletableFuture<T>> action, Predicate<T> keep) {
+        if (key == null || key.isBlank()) {
+            return action.get();
+        }
+        if (key.length() > MAX_KEY_LENGTH) {
+            throw new IdempotencyConflictException("Idempotency-Key长度不能超过" + MAX_KEY_LENGTH);
+        }
+
+        String cacheKey = scope + ":" + userId + ":" + key;
+        int fingerprint = Objects.hashCode(request);
+        Entry mine = new Entry(fingerprint);
+        Entry existing = cache.asMap().putIfAbsent(cacheKey, mine);
+        if (existing != null) {
+            if (existing.fingerprint != fingerprint) {
+                conflicts.increment();
+                throw new IdempotencyConflictException("Idempotency-Key已用于其他请求");
+            }
+            replayed.increment();
+            log.debug("重放幂等请求结果: {}", cacheKey);
+            return existing.result.handle((value, error) -> {
+                if (error == null && keep.test((T) value)) {
+                    return CompletableFuture.completedFuture((T) value);
+                }
+                // 首次请求失败，本次重新执行
+                cache.asMap().remove(cacheKey, existing);
+                return executeAsync(scope, userId, key, request, action, keep);
+            }).thenCompose(future -> future);
+        }
+
+        executed.increment();
+        CompletableFuture<T> result;
+        try {
+            result = action.get();
+        } catch (RuntimeException e) {
+            cache.asMap().remove(cacheKey, mine);
+            mine.result.completeExceptionally(e);
+            throw e;
+        }
+        return result.whenComplete((value, error) -> {
+            if (error != null || !keep.test(value)) {
+                cache.asMap().remove(cacheKey, mine);
+            }
+            if (error != null) {
+                mine.result.completeExceptionally(error);
+            } else {
+                mine.result.complete(value);
+            }
+        });
+    }
+
+    @Override
+    public String getStatsName() {
+        return "idempotency";
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", cache.estimatedSize());
+        stats.put("executed", executed.sum());
+        stats.put("replayed", replayed.sum());
+        stats.put("conflicts", conflicts.sum());
+        return stats;
+    }
+
+    /**
+     * 幂等键记录，保存请求摘要和执行结果
+     */
+    private static final class Entry {
+        private final int fingerprint;
+        private final CompletableFuture<Object> result = new CompletableFuture<>();
+
+        Entry(int fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+    }
+}
\ No newline at end of file
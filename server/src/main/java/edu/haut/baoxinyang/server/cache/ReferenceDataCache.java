@@ -0,0 +1,173 @@
+package edu.haut.baoxinyang.server.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import edu.haut.baoxinyang.server.config.CacheConfig;
+import edu.haut.baoxinyang.server.entity.BaseEntity;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeanUtils;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * 基础数据本地缓存
+ * 按ID缓存数据量小、修改少的实体，本节点写入时立即失效，
+ * 其他节点的修改通过轮询update_time发现
+ *
+ * @param <T> 实体类型
+ */
+@Slf4j
+public class ReferenceDataCache<T extends BaseEntity> {
+
+    private final String name;
+    private final Cache<Long, T> cache;
+    private final Function<Collection<Long>, List<T>> loader;
+    private final Supplier<T> factory;
+
+    /**
+     * 已同步到的最大update_time
+     */
+    private volatile LocalDateTime watermark;
+
+    /**
+     * 上次同步时的总行数，用于发现删除
+     */
+    private volatile long lastCount = -1;
+
+    public ReferenceDataCache(String name, CacheConfig.Reference config,
+                              Function<Collection<Long>, List<T>> loader, Supplier<T> factory) {
+        this.name = name;
+        this.loader = loader;
+        this.factory = factory;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(config.getMaxSize())
+                .expireAfterWrite(Duration.ofMillis(config.getExpireAfterWrite()))
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * 按ID获取，未命中时从数据库加载
+     * @param id 实体ID
+     * @return 实体副本，不存在时返回null
+     */
+    public T get(Long id) {
+        if (id == null) {
+            return null;
+        }
+        T cached = cache.get(id, key -> {
+            List<T> loaded = loader.apply(List.of(key));
+            return loaded.isEmpty() ? null : loaded.get(0);
+        });
+        return copy(cached);
+    }
+
+    /**
+     * 批量获取，未命中的ID合并为一次查询加载
+     * @param ids 实体ID集合
+     * @return 实体副本列表
+     */
+    public List<T> getAll(Collection<Long> ids) {
+        Map<Long, T> loaded = cache.getAll(ids, missing -> {
+            Set<Long> missingIds = missing.stream().map(Long.class::cast).collect(Collectors.toSet());
+            return loader.apply(missingIds).stream()
+                    .collect(Collectors.toMap(BaseEntity::getId, Function.identity(), (a, b) -> a));
+        });
+        List<T> result = new ArrayList<>(loaded.size());
+        for (T entity : loaded.values()) {
+            result.add(copy(entity));
+        }
+        return result;
+    }
+
+    /**
+     * 失效单条缓存
+     * @param id 实体ID
+     */
+    public void invalidate(Long id) {
+        if (id != null) {
+            cache.invalidate(id);
+        }
+    }
+
+    /**
+     * 失效全部缓存
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * 根据轮询结果同步缓存
+     * @param changed update_time不早于上次水位的行，只需包含id和updateTime
+     * @param currentCount 当前总行数
+     */
+    public void sync(List<T> changed, long currentCount) {
+        if (watermark != null) {
+            for (T entity : changed) {
+                cache.invalidate(entity.getId());
+            }
+            if (lastCount >= 0 && currentCount != lastCount) {
+                // 行数变化说明有删除或新增，直接清空
+                cache.invalidateAll();
+            }
+            if (!changed.isEmpty()) {
+                log.debug("基础数据缓存[{}]已同步, 失效{}条", name, changed.size());
+            }
+        }
+
+        LocalDateTime latest = watermark;
+        for (T entity : changed) {
+            if (entity.getUpdateTime() != null && (latest == null || entity.getUpdateTime().isAfter(latest))) {
+                latest = entity.getUpdateTime();
+            }
+        }
+        watermark = latest;
+        lastCount = currentCount;
+    }
+
+    /**
+     * 当前同步水位
+     */
+    public LocalDateTime getWatermark() {
+        return watermark;
+    }
+
+    /**
+     * 缓存统计数据
+     */
+    public Map<String, Object> stats() {
+        CacheStats stats = cache.stats();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("size", cache.estimatedSize());
+        result.put("hitCount", stats.hitCount());
+        result.put("missCount", stats.missCount());
+        result.put("hitRate", stats.hitRate());
+        result.put("evictionCount", stats.evictionCount());
+        result.put("watermark", watermark);
+        return result;
+    }
+
+    /**
+     * 返回副本，避免调用方修改缓存中的对象
+     */
+    private T copy(T source) {
+        if (source == null) {
+            return null;
+        }
+        T target = factory.get();
+        BeanUtils.copyProperties(source, target);
+        return target;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,122 @@
+package edu.haut.baoxinyang.server.common;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import edu.haut.baoxinyang.server.dto.MessageDTO;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * 旧版对话内容的压缩编码
+ * 消息列表以Smile二进制格式序列化后再做DEFLATE压缩，由conversation.content_format标记，
+ * 重复的字段名在Smile中只写一次，中文内容则主要依靠DEFLATE压缩
+ */
+@Component
+public class ConversationContentCodec implements StatsProvider {
+
+    /**
+     * 内容以JSON文本存储在content列
+     */
+    public static final int FORMAT_JSON = 0;
+
+    /**
+     * 内容以Smile+DEFLATE存储在content_blob列
+     */
+    public static final int FORMAT_SMILE_DEFLATE = 1;
+
+    private final ObjectMapper smileMapper;
+    private final JavaType messageListType;
+
+    private final LongAdder encoded = new LongAdder();
+    private final LongAdder encodeNanos = new LongAdder();
+    private final LongAdder jsonBytes = new LongAdder();
+    private final LongAdder encodedBytes = new LongAdder();
+    private final LongAdder decoded = new LongAdder();
+    private final LongAdder decodeNanos = new LongAdder();
+
+    public ConversationContentCodec(ObjectMapper objectMapper) {
+        // 沿用全局的日期格式和模块配置，保证与JSON格式读出的消息一致
+        this.smileMapper = objectMapper.copyWith(new SmileFactory());
+        this.messageListType = smileMapper.getTypeFactory().constructCollectionType(List.class, MessageDTO.class);
+    }
+
+    /**
+     * 编码消息列表
+     * @param messages 消息列表
+     * @param originalBytes 原JSON内容的字节数，仅用于统计压缩率
+     * @return 压缩后的字节
+     */
+    public byte[] encode(List<MessageDTO> messages, long originalBytes) {
+        long start = System.nanoTime();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        // 传入自建Deflater时DeflaterOutputStream关闭时不会释放它，需要手动end释放本地内存
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try (OutputStream out = new DeflaterOutputStream(buffer, deflater)) {
+            smileMapper.writeValue(out, messages);
+        } catch (IOException e) {
+            throw new UncheckedIOException("编码对话内容失败", e);
+        } finally {
+            deflater.end();
+        }
+        byte[] bytes = buffer.toByteArray();
+        encodeNanos.add(System.nanoTime() - start);
+        encoded.increment();
+        jsonBytes.add(originalBytes);
+        encodedBytes.add(bytes.length);
+        return bytes;
+    }
+
+    /**
+     * 解码消息列表
+     * @param bytes 压缩后的字节
+     * @return 消息列表
+     */
+    public List<MessageDTO> decode(byte[] bytes) {
+        long start = System.nanoTime();
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(bytes))) {
+            return smileMapper.readValue(in, messageListType);
+        } catch (IOException e) {
+            throw new UncheckedIOException("解码对话内容失败", e);
+        } finally {
+            decodeNanos.add(System.nanoTime() - start);
+            decoded.increment();
+        }
+    }
+
+    @Override
+    public String getStatsName() {
+        return "conversationContentCodec";
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        long encodedCount = encoded.sum();
+        long decodedCount = decoded.sum();
+        long before = jsonBytes.sum();
+        long after = encodedBytes.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("encoded", encodedCount);
+        stats.put("jsonBytes", before);
+        stats.put("encodedBytes", after);
+        stats.put("savedBytes", before - after);
+        stats.put("compressionRatio", before > 0 ? (double) after / before : 0);
+        stats.put("avgEncodeMicros", encodedCount > 0 ? encodeNanos.sum() / encodedCount / 1000 : 0);
+        stats.put("decoded", decodedCount);
+        stats.put("avgDecodeMicros", decodedCount > 0 ? decodeNanos.sum() / decodedCount / 1000 : 0);
+        return stats;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,22 @@
+package edu.haut.baoxinyang.server.common;
+
+import java.util.Map;
+
+/**
+ * 运行时统计数据提供者
+ * 实现该接口的组件会被监控接口统一收集并展示
+ */
+public interface StatsProvider {
+
+    /**
+     * 统计项名称
+     * @return 名称
+     */
+    String getStatsName();
+
+    /**
+     * 当前统计数据
+     * @return 统计数据
+     */
+    Map<String, Object> getStats();
+}
\ No newline at end of file
@@ -0,0 +1,100 @@
+package edu.haut.baoxinyang.server.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 本地缓存配置
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "cache")
+public class CacheConfig {
+    
+    /**
+     * 智能体、医疗方向等基础数据缓存配置
+     */
+    private Reference reference = new Reference();
+    
+    /**
+     * 幂等键存储配置
+     */
+    private Idempotency idempotency = new Idempotency();
+    
+    /**
+     * 活跃对话消息缓存配置
+     */
+    private Conversation conversation = new Conversation();
+    
+    /**
+     * 基础数据缓存配置
+     */
+    @Data
+    public static class Reference {
+        
+        /**
+         * 每类数据的最大缓存条数
+         */
+        private long maxSize = 1000;
+        
+        /**
+         * 写入后过期时间（毫秒）
+         */
+        private long expireAfterWrite = 600000;
+        
+        /**
+         * 轮询update_time检测其他节点修改的间隔（毫秒）
+         */
+        private long pollInterval = 30000;
+    }
+    
+    /**
+     * 幂等键存储配置
+     */
+    @Data
+    public static class Idempotency {
+        
+        /**
+         * 最多保留的幂等键数量
+         */
+        private long maxSize = 10000;
+        
+        /**
+         * 幂等键保留时间（毫秒），超过后同一幂等键会被当作新请求
+         */
+        private long window = 600000;
+    }
+    
+    /**
+     * 活跃对话消息缓存配置，新消息延迟批量写入数据库
+     */
+    @Data
+    public static class Conversation {
+        
+        /**
+         * 是否启用，关闭时每次都从数据库读取并直接写入
+         */
+        private boolean enabled = true;
+        
+        /**
+         * 最多缓存的对话数
+         */
+        private long maxSize = 1000;
+        
+        /**
+         * 对话空闲多久后写入并移出缓存（毫秒）
+         */
+        private long expireAfterAccess = 300000;
+        
+        /**
+         * 缓存项从加载起的最长保留时间（毫秒），到期后重新从数据库加载
+         */
+        private long expireAfterWrite = 1800000;
+        
+        /**
+         * 定时写入待写入消息的间隔（毫秒）
+         */
+        private long flushInterval = 1000;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,127 @@
+package edu.haut.baoxinyang.server.config;
+
+import com.alibaba.druid.filter.FilterChain;
+import com.alibaba.druid.filter.FilterEventAdapter;
+import com.alibaba.druid.pool.DruidDataSource;
+import com.alibaba.druid.pool.DruidPooledConnection;
+import edu.haut.baoxinyang.server.common.StatsProvider;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 数据库连接占用时长统计
+ * 记录每个接口从连接池借出连接到归还连接的时长，用于发现长时间占用连接的接口
+ */
+public class ConnectionHoldTimeFilter extends FilterEventAdapter implements StatsProvider {
+
+    /**
+     * 非HTTP请求线程（定时任务、流式回调等）借出的连接归入此分类
+     */
+    private static final String BACKGROUND = "background";
+
+    private final Map<DruidPooledConnection, Hold> holding = new ConcurrentHashMap<>();
+    private final Map<String, EndpointStats> endpoints = new ConcurrentHashMap<>();
+    private final LongAdder discarded = new LongAdder();
+
+    @Override
+    public DruidPooledConnection dataSource_getConnection(FilterChain chain, DruidDataSource dataSource,
+                                                          long maxWaitMillis) throws SQLException {
+        DruidPooledConnection connection = super.dataSource_getConnection(chain, dataSource, maxWaitMillis);
+        if (connection != null) {
+            holding.put(connection, new Hold(currentEndpoint(), System.nanoTime()));
+            if (holding.size() > dataSource.getMaxActive()) {
+                // 借出的连接不会超过最大连接数，超出说明有连接被丢弃或回收时没有归还事件
+                purgeDetached();
+            }
+        }
+        return connection;
+    }
+
+    @Override
+    public void dataSource_releaseConnection(FilterChain chain, DruidPooledConnection connection) throws SQLException {
+        Hold hold = holding.remove(connection);
+        if (hold != null) {
+            long elapsedMillis = (System.nanoTime() - hold.startNanos) / 1_000_000;
+            endpoints.computeIfAbsent(hold.endpoint, key -> new EndpointStats()).record(elapsedMillis);
+        }
+        super.dataSource_releaseConnection(chain, connection);
+    }
+
+    /**
+     * 移除已被连接池丢弃、回收或已关闭的连接
+     */
+    private void purgeDetached() {
+        holding.keySet().removeIf(connection -> {
+            boolean detached = connection.getConnectionHolder() == null
+                    || connection.isDisable() || connection.isAbandonded();
+            if (detached) {
+                discarded.increment();
+            }
+            return detached;
+        });
+    }
+
+    @Override
+    public String getStatsName() {
+        return "connectionHoldTime";
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("currentlyHeld", holding.size());
+        stats.put("discarded", discarded.sum());
+        Map<String, Object> byEndpoint = new TreeMap<>();
+        endpoints.forEach((endpoint, endpointStats) -> byEndpoint.put(endpoint, endpointStats.snapshot()));
+        stats.put("endpoints", byEndpoint);
+        return stats;
+    }
+
+    /**
+     * 当前线程所处理的接口，格式为"方法 路径模板"
+     */
+    private String currentEndpoint() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (!(attributes instanceof ServletRequestAttributes)) {
+            return BACKGROUND;
+        }
+        HttpServletRequest request = ((ServletRequestAttributes) attributes).getRequest();
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        return request.getMethod() + " " + (pattern != null ? pattern : request.getRequestURI());
+    }
+
+    private record Hold(String endpoint, long startNanos) {
+    }
+
+    private static class EndpointStats {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalMillis = new LongAdder();
+        private final AtomicLong maxMillis = new AtomicLong();
+
+        void record(long elapsedMillis) {
+            count.increment();
+            totalMillis.add(elapsedMillis);
+            maxMillis.accumulateAndGet(elapsedMillis, Math::max);
+        }
+
+        Map<String, Object> snapshot() {
+            long total = count.sum();
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            snapshot.put("count", total);
+            snapshot.put("avgMillis", total == 0 ? 0 : totalMillis.sum() / total);
+            snapshot.put("maxMillis", maxMillis.get());
+            return snapshot;
+        }
+    }
+}
\ No newline at end of file
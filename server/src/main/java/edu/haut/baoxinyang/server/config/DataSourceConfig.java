@@ -0,0 +1,39 @@
+package edu.haut.baoxinyang.server.config;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 数据源配置类
+ */
+@Configuration
+public class DataSourceConfig {
+
+    /**
+     * 连接占用时长统计过滤器
+     */
+    @Bean
+    public ConnectionHoldTimeFilter connectionHoldTimeFilter() {
+        return new ConnectionHoldTimeFilter();
+    }
+
+    /**
+     * 在Druid数据源初始化前挂载连接占用时长统计过滤器
+     * 过滤器延迟到处理数据源时才获取，避免它在注册BeanPostProcessor阶段被提前创建
+     */
+    @Bean
+    public static BeanPostProcessor druidFilterPostProcessor(ObjectProvider<ConnectionHoldTimeFilter> connectionHoldTimeFilter) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof DruidDataSource dataSource) {
+                    dataSource.getProxyFilters().add(connectionHoldTimeFilter.getObject());
+                }
+                return bean;
+            }
+        };
+    }
+}
\ No newline at end of file
@@ -4,6 +4,9 @@ import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * LLM API配置，包含聊天和管理功能的配置
  */
@@ -17,6 +20,16 @@ public class LlmApiConfig {
      */
     private String baseUrl = "http://localhost:8000";
     
+    /**
+     * 多个后端实例的基础URL，配置后替代baseUrl
+     */
+    private List<String> baseUrls = new ArrayList<>();
+    
+    /**
+     * 后端实例健康检查配置
+     */
+    private HealthCheck healthCheck = new HealthCheck();
+    
     /**
      * API版本路径
      */
@@ -62,12 +75,89 @@ public class LlmApiConfig {
      */
     private int writeTimeout = 30000;
     
+    /**
+     * 流式聊天请求的连接池配置
+     */
+    private ClientPool streamPool = new ClientPool(64, 64, 20);
+    
+    /**
+     * 非流式聊天请求的连接池配置
+     */
+    private ClientPool askPool = new ClientPool(64, 64, 20);
+    
+    /**
+     * 后台管理请求的连接池配置
+     */
+    private ClientPool managePool = new ClientPool(16, 8, 5);
+    
+    /**
+     * 流式输出合并配置
+     */
+    private StreamCoalesce streamCoalesce = new StreamCoalesce();
+    
+    /**
+     * 流式输出断线续传配置
+     */
+    private StreamResume streamResume = new StreamResume();
+    
+    /**
+     * LLM调用准入控制配置
+     */
+    private Admission admission = new Admission();
+    
+    /**
+     * LLM后端熔断配置
+     */
+    private CircuitBreaker circuitBreaker = new CircuitBreaker();
+    
+    /**
+     * 非流式调用的对冲请求配置
+     */
+    private Hedging hedging = new Hedging();
+    
+    /**
+     * 非流式回答缓存配置
+     */
+    private AnswerCache answerCache = new AnswerCache();
+    
+    /**
+     * 并发相同请求合并配置
+     */
+    private SingleFlight singleFlight = new SingleFlight();
+    
+    /**
+     * 历史消息窗口配置
+     */
+    private HistoryWindow historyWindow = new HistoryWindow();
+    
+    /**
+     * 长对话摘要配置
+     */
+    private Summary summary = new Summary();
+    
+    /**
+     * 获取所有后端实例的基础URL
+     * @return 未配置baseUrls时只包含baseUrl
+     */
+    public List<String> getInstanceUrls() {
+        return baseUrls.isEmpty() ? List.of(baseUrl) : baseUrls;
+    }
+    
     /**
      * 获取完整的基础API URL
      * @return 完整的基础API URL
      */
     public String getBaseApiUrl() {
-        return baseUrl + apiVersion;
+        return getBaseApiUrl(baseUrl);
+    }
+    
+    /**
+     * 获取指定实例的完整基础API URL
+     * @param instanceUrl 实例基础URL
+     * @return 完整的基础API URL
+     */
+    public String getBaseApiUrl(String instanceUrl) {
+        return instanceUrl + apiVersion;
     }
     
     /**
@@ -75,7 +165,16 @@ public class LlmApiConfig {
      * @return 向量数据库API完整URL
      */
     public String getVectorUrl() {
-        return getBaseApiUrl() + vectorPath;
+        return getVectorUrl(baseUrl);
+    }
+    
+    /**
+     * 获取指定实例的向量数据库API完整URL
+     * @param instanceUrl 实例基础URL
+     * @return 向量数据库API完整URL
+     */
+    public String getVectorUrl(String instanceUrl) {
+        return getBaseApiUrl(instanceUrl) + vectorPath;
     }
     
     /**
@@ -83,7 +182,16 @@ public class LlmApiConfig {
      * @return 精确查询数据库API完整URL
      */
     public String getPreciseUrl() {
-        return getBaseApiUrl() + precisePath;
+        return getPreciseUrl(baseUrl);
+    }
+    
+    /**
+     * 获取指定实例的精确查询数据库API完整URL
+     * @param instanceUrl 实例基础URL
+     * @return 精确查询数据库API完整URL
+     */
+    public String getPreciseUrl(String instanceUrl) {
+        return getBaseApiUrl(instanceUrl) + precisePath;
     }
     
     /**
@@ -91,7 +199,16 @@ public class LlmApiConfig {
      * @return 提示词模板API完整URL
      */
     public String getTemplateUrl() {
-        return getBaseApiUrl() + templatePath;
+        return getTemplateUrl(baseUrl);
+    }
+    
+    /**
+     * 获取指定实例的提示词模板API完整URL
+     * @param instanceUrl 实例基础URL
+     * @return 提示词模板API完整URL
+     */
+    public String getTemplateUrl(String instanceUrl) {
+        return getBaseApiUrl(instanceUrl) + templatePath;
     }
     
     /**
@@ -99,7 +216,16 @@ public class LlmApiConfig {
      * @return 聊天API完整URL
      */
     public String getAskUrl() {
-        return baseUrl + askPath;
+        return getAskUrl(baseUrl);
+    }
+    
+    /**
+     * 获取指定实例的聊天API完整URL
+     * @param instanceUrl 实例基础URL
+     * @return 聊天API完整URL
+     */
+    public String getAskUrl(String instanceUrl) {
+        return instanceUrl + askPath;
     }
     
     /**
@@ -107,6 +233,386 @@ public class LlmApiConfig {
      * @return 流式聊天API完整URL
      */
     public String getStreamUrl() {
-        return baseUrl + streamPath;
+        return getStreamUrl(baseUrl);
+    }
+    
+    /**
+     * 获取指定实例的流式聊天API完整URL
+     * @param instanceUrl 实例基础URL
+     * @return 流式聊天API完整URL
+     */
+    public String getStreamUrl(String instanceUrl) {
+        return instanceUrl + streamPath;
+    }
+    
+    /**
+     * HTTP客户端连接池配置
+     */
+    @Data
+    public static class ClientPool {
+        
+        /**
+         * 最大并发请求数
+         */
+        private int maxRequests;
+        
+        /**
+         * 单个主机的最大并发请求数
+         */
+        private int maxRequestsPerHost;
+        
+        /**
+         * 最大空闲连接数
+         */
+        private int maxIdleConnections;
+        
+        /**
+         * 空闲连接保活时间（毫秒）
+         */
+        private long keepAliveDuration = 300000;
+        
+        public ClientPool() {
+        }
+        
+        public ClientPool(int maxRequests, int maxRequestsPerHost, int maxIdleConnections) {
+            this.maxRequests = maxRequests;
+            this.maxRequestsPerHost = maxRequestsPerHost;
+            this.maxIdleConnections = maxIdleConnections;
+        }
+    }
+    
+    /**
+     * 流式输出合并配置，将多个token合并为一次SSE写入
+     */
+    @Data
+    public static class StreamCoalesce {
+        
+        /**
+         * 是否启用合并
+         */
+        private boolean enabled = true;
+        
+        /**
+         * 累计token数达到该值时立即写出
+         */
+        private int maxTokens = 16;
+        
+        /**
+         * 累计字节数达到该值时立即写出
+         */
+        private int maxBytes = 1024;
+        
+        /**
+         * 缓冲的最长等待时间（毫秒）
+         */
+        private long maxDelay = 20;
+    }
+    
+    /**
+     * 流式输出断线续传配置
+     */
+    @Data
+    public static class StreamResume {
+        
+        /**
+         * 每个流保留的最近输出片段数
+         */
+        private int bufferSize = 512;
+        
+        /**
+         * 所有客户端断开后等待重连的时间（毫秒），超时后取消上游请求
+         */
+        private long cancelGracePeriod = 15000;
+        
+        /**
+         * 流结束后保留输出片段的时间（毫秒），供晚到的重连读取结果
+         */
+        private long retention = 60000;
+    }
+    
+    /**
+     * LLM调用准入控制配置
+     */
+    @Data
+    public static class Admission {
+        
+        /**
+         * 是否启用准入控制
+         */
+        private boolean enabled = true;
+        
+        /**
+         * 全局最大并发调用数
+         */
+        private int globalLimit = 48;
+        
+        /**
+         * 单个智能体最大并发调用数，启用自适应上限时为上限的最大值
+         */
+        private int perAgentLimit = 16;
+        
+        /**
+         * 是否按延迟梯度自适应调整单个智能体的并发上限
+         */
+        private boolean adaptive = true;
+        
+        /**
+         * 自适应上限的初始值
+         */
+        private int initialAgentLimit = 8;
+        
+        /**
+         * 自适应上限的最小值
+         */
+        private int minAgentLimit = 2;
+        
+        /**
+         * 上限调整的平滑系数，越大调整越快
+         */
+        private double smoothing = 0.2;
+        
+        /**
+         * 调用失败时上限的收缩比例
+         */
+        private double backoffRatio = 0.9;
+        
+        /**
+         * 长期平均延迟的样本窗口
+         */
+        private int longWindow = 100;
+        
+        /**
+         * 等待队列容量，超出后直接拒绝
+         */
+        private int queueCapacity = 200;
+        
+        /**
+         * 排队最长等待时间（毫秒）
+         */
+        private long maxWait = 30000;
+    }
+    
+    /**
+     * LLM后端熔断配置
+     */
+    @Data
+    public static class CircuitBreaker {
+        
+        /**
+         * 是否启用熔断
+         */
+        private boolean enabled = true;
+        
+        /**
+         * 统计失败率的滑动窗口大小（调用次数）
+         */
+        private int windowSize = 20;
+        
+        /**
+         * 窗口内至少有多少次调用才计算失败率
+         */
+        private int minimumCalls = 10;
+        
+        /**
+         * 失败率阈值（百分比），达到后熔断
+         */
+        private int failureRateThreshold = 50;
+        
+        /**
+         * 慢调用阈值（毫秒），流式调用按首个token的延迟计算
+         */
+        private long slowCallThreshold = 20000;
+        
+        /**
+         * 慢调用比例阈值（百分比），达到后熔断
+         */
+        private int slowCallRateThreshold = 80;
+        
+        /**
+         * 熔断持续时间（毫秒），之后进入半开状态试探
+         */
+        private long openDuration = 30000;
+        
+        /**
+         * 半开状态允许的试探调用数
+         */
+        private int halfOpenCalls = 3;
+    }
+    
+    /**
+     * 后端实例健康检查配置
+     */
+    @Data
+    public static class HealthCheck {
+        
+        /**
+         * 健康检查路径
+         */
+        private String path = "/health";
+        
+        /**
+         * 健康检查间隔（毫秒）
+         */
+        private long interval = 10000;
+        
+        /**
+         * 健康检查超时时间（毫秒）
+         */
+        private long timeout = 2000;
+        
+        /**
+         * 连续失败多少次后摘除实例，包括健康检查和实际调用
+         */
+        private int failureThreshold = 3;
+    }
+    
+    /**
+     * 非流式调用的对冲请求配置
+     */
+    @Data
+    public static class Hedging {
+        
+        /**
+         * 是否启用对冲，只有配置了多个后端实例时生效
+         */
+        private boolean enabled = false;
+        
+        /**
+         * 对冲请求占总请求数的最大百分比
+         */
+        private double budgetPercent = 10;
+        
+        /**
+         * 计算延迟分位数所需的最少样本数，样本不足时不对冲
+         */
+        private int minSamples = 20;
+        
+        /**
+         * 对冲等待时间的下限（毫秒）
+         */
+        private long minDelay = 1000;
+        
+        /**
+         * 保留的最近延迟样本数
+         */
+        private int sampleWindow = 200;
+    }
+    
+    /**
+     * 非流式回答缓存配置，智能体还需要单独开启
+     */
+    @Data
+    public static class AnswerCache {
+        
+        /**
+         * 是否启用回答缓存
+         */
+        private boolean enabled = true;
+        
+        /**
+         * 最大缓存条数
+         */
+        private long maxSize = 2000;
+        
+        /**
+         * 写入后过期时间（毫秒）
+         */
+        private long ttl = 600000;
+    }
+    
+    /**
+     * 并发相同请求合并配置
+     */
+    @Data
+    public static class SingleFlight {
+        
+        /**
+         * 是否合并正在进行的相同请求
+         */
+        private boolean enabled = true;
+        
+        /**
+         * 流式请求最多记录多少个事件用于补发，超过后新的相同请求不再加入该流
+         */
+        private int maxReplayEvents = 2000;
+    }
+    
+    /**
+     * 历史消息窗口配置，超出预算时省略中间的历史消息
+     */
+    @Data
+    public static class HistoryWindow {
+        
+        /**
+         * 是否按token预算裁剪历史消息
+         */
+        private boolean enabled = true;
+        
+        /**
+         * 智能体未配置预算时的默认token预算，包含当前消息
+         */
+        private int defaultTokenBudget = 4000;
+        
+        /**
+         * 始终保留的开头轮数，每轮包含一问一答
+         */
+        private int keepFirstTurns = 1;
+    }
+    
+    /**
+     * 长对话摘要配置，摘要在后台有界线程池中生成
+     */
+    @Data
+    public static class Summary {
+        
+        /**
+         * 是否启用对话摘要
+         */
+        private boolean enabled = true;
+        
+        /**
+         * 未摘要的消息达到该数量时生成摘要
+         */
+        private int triggerMessages = 20;
+        
+        /**
+         * 始终保留原文的最近消息数
+         */
+        private int keepRecentMessages = 8;
+        
+        /**
+         * 单次摘要输入的最大token数，超出的消息留到下一次
+         */
+        private int maxInputTokens = 3000;
+        
+        /**
+         * 要求模型输出的摘要最大字数
+         */
+        private int maxSummaryLength = 500;
+        
+        /**
+         * 摘要线程数，同时也是摘要占用的最大并发LLM调用数
+         */
+        private int threads = 2;
+        
+        /**
+         * 等待摘要的任务队列容量，队列满时跳过本次摘要
+         */
+        private int queueCapacity = 100;
+        
+        /**
+         * 等待模型返回摘要的超时时间（毫秒），超时后取消本次摘要
+         */
+        private long timeout = 60000;
+        
+        /**
+         * 缓存的对话摘要数
+         */
+        private long cacheSize = 2000;
+        
+        /**
+         * 缓存的摘要过期时间（毫秒），过期后重新读取其他节点写入的摘要
+         */
+        private long cacheExpire = 600000;
     }
-} 
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,13 @@
+package edu.haut.baoxinyang.server.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * 定时任务配置
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+    
+} 
\ No newline at end of file
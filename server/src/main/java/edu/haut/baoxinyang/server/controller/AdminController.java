@@ -4,6 +4,7 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import edu.haut.baoxinyang.server.common.R;
 import edu.haut.baoxinyang.server.dto.admin.AgentCreateDTO;
+import edu.haut.baoxinyang.server.dto.admin.ContentMigrationReportDTO;
 import edu.haut.baoxinyang.server.dto.admin.DirectionCreateDTO;
 import edu.haut.baoxinyang.server.dto.admin.UserCreateDTO;
 import edu.haut.baoxinyang.server.entity.Agent;
@@ -21,6 +22,7 @@ import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 管理员控制器
@@ -148,11 +150,19 @@ public class AdminController {
     }
     
     /**
-     * 测试智能体配置
+     * 测试智能体配置，等待模型响应期间释放请求线程
      */
     @PostMapping("/agents/{agentId}/test")
-    public R<String> testAgent(@PathVariable Long agentId, @RequestParam String testMessage) {
-        String result = adminService.testAgent(agentId, testMessage);
-        return R.ok(result);
+    public CompletableFuture<R<String>> testAgent(@PathVariable Long agentId, @RequestParam String testMessage) {
+        return adminService.testAgentAsync(agentId, testMessage).thenApply(R::ok);
+    }
+    
+    /**
+     * 将旧版对话内容分批转换为压缩格式，返回节省的字节数和编解码耗时
+     */
+    @PostMapping("/conversations/compress-content")
+    public R<ContentMigrationReportDTO> compressConversationContent(@RequestParam(defaultValue = "100") int batchSize,
+                                                                  @RequestParam(defaultValue = "0") int limit) {
+        return R.ok(adminService.compressConversationContent(batchSize, limit));
     }
 } 
\ No newline at end of file
@@ -141,17 +141,21 @@ public class DoctorController {
      * 获取对话详情
      * 
      * @param conversationId 对话ID
+     * @param before 只返回该消息之前的消息，为空时返回最新一页
+     * @param limit 每页消息数
      * @return 对话详情
      */
     @GetMapping("/conversations/{conversationId}")
     @PreAuthorize("hasRole('DOCTOR')")
-    public R<ConversationDetailDTO> getConversationDetail(@PathVariable Long conversationId) {
+    public R<ConversationDetailDTO> getConversationDetail(@PathVariable Long conversationId,
+                                                          @RequestParam(required = false) String before,
+                                                          @RequestParam(defaultValue = "50") int limit) {
         Long doctorId = getCurrentDoctorId();
         if (doctorId == null) {
             return R.error("未登录");
         }
         
-        ConversationDetailDTO conversation = doctorService.getConversationDetail(conversationId, doctorId);
+        ConversationDetailDTO conversation = doctorService.getConversationDetail(conversationId, doctorId, before, limit);
         if (conversation == null) {
             return R.error("对话不存在或无权限查看");
         }
@@ -0,0 +1,51 @@
+package edu.haut.baoxinyang.server.controller;
+
+import edu.haut.baoxinyang.server.common.R;
+import edu.haut.baoxinyang.server.common.StatsProvider;
+import lombok.RequiredArgsConstructor;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 运行监控控制器
+ */
+@RestController
+@RequestMapping("/api/admin/monitor")
+@RequiredArgsConstructor
+@PreAuthorize("hasRole('ADMIN')")
+public class MonitorController {
+
+    private final List<StatsProvider> statsProviders;
+
+    /**
+     * 获取所有运行时统计数据
+     */
+    @GetMapping("/stats")
+    public R<Map<String, Map<String, Object>>> getAllStats() {
+        Map<String, Map<String, Object>> result = new LinkedHashMap<>();
+        for (StatsProvider provider : statsProviders) {
+            result.put(provider.getStatsName(), provider.getStats());
+        }
+        return R.ok(result);
+    }
+
+    /**
+     * 获取指定统计项
+     */
+    @GetMapping("/stats/{name}")
+    public R<Map<String, Object>> getStats(@PathVariable String name) {
+        for (StatsProvider provider : statsProviders) {
+            if (provider.getStatsName().equals(name)) {
+                return R.ok(provider.getStats());
+            }
+        }
+        return R.error(404, "统计项不存在: " + name);
+    }
+}
\ No newline at end of file
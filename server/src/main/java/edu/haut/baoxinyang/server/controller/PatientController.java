@@ -1,10 +1,16 @@
 package edu.haut.baoxinyang.server.controller;
 
+import edu.haut.baoxinyang.server.cache.IdempotencyConflictException;
+import edu.haut.baoxinyang.server.cache.IdempotencyStore;
 import edu.haut.baoxinyang.server.common.R;
 import edu.haut.baoxinyang.server.dto.*;
 import edu.haut.baoxinyang.server.security.SecurityUser;
 import edu.haut.baoxinyang.server.service.PatientService;
-import edu.haut.baoxinyang.server.service.llm.SseCallback;
+import edu.haut.baoxinyang.server.service.llm.SseCoalescer;
+import edu.haut.baoxinyang.server.service.llm.SseEmitterSubscriber;
+import edu.haut.baoxinyang.server.service.llm.StreamHandle;
+import edu.haut.baoxinyang.server.service.llm.StreamSession;
+import edu.haut.baoxinyang.server.service.llm.StreamSessionRegistry;
 import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
@@ -19,7 +25,9 @@ import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 病人控制器
@@ -31,6 +39,9 @@ import java.util.concurrent.TimeUnit;
 public class PatientController {
     
     private final PatientService patientService;
+    private final StreamSessionRegistry streamSessionRegistry;
+    private final SseCoalescer sseCoalescer;
+    private final IdempotencyStore idempotencyStore;
     
     /**
      * 获取当前用户ID
@@ -44,6 +55,13 @@ public class PatientController {
         return null;
     }
     
+    /**
+     * 成功的响应才保留幂等结果，失败的请求允许客户端用同一幂等键重试
+     */
+    private static boolean isSuccess(R<?> result) {
+        return result != null && Integer.valueOf(200).equals(result.getCode());
+    }
+    
     /**
      * 获取所有智能体
      */
@@ -70,17 +88,19 @@ public class PatientController {
     }
     
     /**
-     * 获取对话详情
+     * 获取对话详情，默认只返回最新一页消息，传入before加载更早的消息
      */
     @GetMapping("/conversations/{conversationId}")
     @PreAuthorize("hasRole('PATIENT')")
-    public R<ConversationDetailDTO> getConversationDetail(@PathVariable Long conversationId) {
+    public R<ConversationDetailDTO> getConversationDetail(@PathVariable Long conversationId,
+                                                          @RequestParam(required = false) String before,
+                                                          @RequestParam(defaultValue = "50") int limit) {
         Long userId = getCurrentUserId();
         if (userId == null) {
             return R.error("未登录");
         }
         
-        ConversationDetailDTO conversation = patientService.getConversationDetail(conversationId, userId);
+        ConversationDetailDTO conversation = patientService.getConversationDetail(conversationId, userId, before, limit);
         if (conversation == null) {
             return R.error("对话不存在或无权限查看");
         }
@@ -90,45 +110,47 @@ public class PatientController {
     
     /**
      * 创建新对话或发送消息
+     * 携带Idempotency-Key请求头的重试请求直接返回首次的结果；等待模型响应期间释放请求线程
      */
     @PostMapping("/conversations/message")
     @PreAuthorize("hasRole('PATIENT')")
-    public R<ConversationDetailDTO> sendMessage(@RequestBody @Valid ConversationRequestDTO requestDTO) {
+    public CompletableFuture<R<ConversationDetailDTO>> sendMessage(@RequestBody @Valid ConversationRequestDTO requestDTO,
+                                                @RequestHeader(value = IdempotencyStore.HEADER, required = false) String idempotencyKey) {
         Long userId = getCurrentUserId();
         if (userId == null) {
-            return R.error("未登录");
+            return CompletableFuture.completedFuture(R.error("未登录"));
         }
         
+        return idempotencyStore.executeAsync("message", userId, idempotencyKey, requestDTO,
+                () -> doSendMessage(userId, requestDTO), PatientController::isSuccess);
+    }
+    
+    private CompletableFuture<R<ConversationDetailDTO>> doSendMessage(Long userId, ConversationRequestDTO requestDTO) {
         // 判断是创建新对话还是发送消息到已有对话
         if (requestDTO.getConversationId() == null) {
             // 创建新对话
             if (requestDTO.getAgentId() == null) {
-                return R.error("创建新对话需要指定智能体ID");
-            }
-            
-            ConversationDetailDTO conversation = patientService.createConversation(userId, requestDTO.getAgentId(), requestDTO.getMessage());
-            if (conversation == null) {
-                return R.error("创建对话失败");
+                return CompletableFuture.completedFuture(R.error("创建新对话需要指定智能体ID"));
             }
             
-            return R.ok(conversation);
+            return patientService.createConversationAsync(userId, requestDTO.getAgentId(), requestDTO.getMessage())
+                    .thenApply(conversation -> conversation != null ? R.ok(conversation) : R.error("创建对话失败"));
         } else {
             // 发送消息到已有对话，支持高级参数
-            ConversationDetailDTO conversation = patientService.sendMessage(requestDTO.getConversationId(), userId, requestDTO.getMessage(), requestDTO);
-            if (conversation == null) {
-                return R.error("发送消息失败，对话可能不存在或已结束");
-            }
-            
-            return R.ok(conversation);
+            return patientService.sendMessageAsync(requestDTO.getConversationId(), userId, requestDTO.getMessage(), requestDTO)
+                    .thenApply(conversation -> conversation != null ? R.ok(conversation) : R.error("发送消息失败，对话可能不存在或已结束"));
         }
     }
     
     /**
      * 流式创建新对话或发送消息
+     * 携带Idempotency-Key请求头的重试请求不会再次调用LLM，而是重新订阅首次请求的输出
      */
     @PostMapping(value = "/conversations/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
     @PreAuthorize("hasRole('PATIENT')")
-    public SseEmitter streamMessage(@RequestBody @Valid ConversationRequestDTO requestDTO, HttpServletResponse response) {
+    public SseEmitter streamMessage(@RequestBody @Valid ConversationRequestDTO requestDTO,
+                                    @RequestHeader(value = IdempotencyStore.HEADER, required = false) String idempotencyKey,
+                                    HttpServletResponse response) {
         response.setCharacterEncoding("UTF-8");
         response.setHeader("Cache-Control", "no-cache");
         response.setHeader("Connection", "keep-alive");
@@ -138,134 +160,165 @@ public class PatientController {
         
         Long userId = getCurrentUserId();
         if (userId == null) {
-            try {
-                emitter.send(SseEmitter.event()
-                        .name("error")
-                        .data("未登录", MediaType.TEXT_PLAIN));
-                emitter.complete();
-            } catch (IOException e) {
-                emitter.completeWithError(e);
-            }
+            sendError(emitter, "未登录");
+            return emitter;
+        }
+        
+        AtomicBoolean started = new AtomicBoolean();
+        Object result;
+        try {
+            result = idempotencyStore.execute("stream", userId, idempotencyKey, requestDTO, () -> {
+                started.set(true);
+                return startStream(emitter, userId, requestDTO);
+            }, PatientController::keepStreamResult);
+        } catch (IdempotencyConflictException e) {
+            sendError(emitter, e.getMessage());
+            return emitter;
+        }
+        if (started.get()) {
             return emitter;
         }
         
+        // 重放首次请求的结果
+        if (result instanceof ConversationDetailDTO conversation) {
+            sendLastMessage(emitter, conversation);
+        } else if (result instanceof StreamSession session) {
+            new SseEmitterSubscriber(emitter, session).subscribe(0);
+        } else {
+            sendError(emitter, "请求处理失败");
+        }
+        return emitter;
+    }
+    
+    /**
+     * 流式请求的结果是否保留幂等键，流式回复中断后允许用同一幂等键重试
+     */
+    private static boolean keepStreamResult(Object result) {
+        return result != null && !(result instanceof StreamSession session && session.isInterrupted());
+    }
+    
+    /**
+     * 开始流式处理
+     * @return 新建的对话或流式会话，失败时返回null
+     */
+    private Object startStream(SseEmitter emitter, Long userId, ConversationRequestDTO requestDTO) {
         // 判断是创建新对话还是发送消息到已有对话
         if (requestDTO.getConversationId() == null) {
             // 创建新对话（非流式处理）
             if (requestDTO.getAgentId() == null) {
-                try {
-                    emitter.send(SseEmitter.event()
-                            .name("error")
-                            .data("创建新对话需要指定智能体ID", MediaType.TEXT_PLAIN));
-                    emitter.complete();
-                } catch (IOException e) {
-                    emitter.completeWithError(e);
-                }
-                return emitter;
+                sendError(emitter, "创建新对话需要指定智能体ID");
+                return null;
             }
             
             ConversationDetailDTO conversation = patientService.createConversation(userId, requestDTO.getAgentId(), requestDTO.getMessage());
             if (conversation == null) {
-                try {
-                    emitter.send(SseEmitter.event()
-                            .name("error")
-                            .data("创建对话失败", MediaType.TEXT_PLAIN));
-                    emitter.complete();
-                } catch (IOException e) {
-                    emitter.completeWithError(e);
-                }
-                return emitter;
+                sendError(emitter, "创建对话失败");
+                return null;
             }
             
-            try {
-                // 发送完整响应
-                emitter.send(SseEmitter.event()
-                        .name("message")
-                        .data(conversation.getMessages().get(conversation.getMessages().size() - 1).getContent(), MediaType.TEXT_PLAIN));
-                emitter.complete();
-            } catch (IOException e) {
-                emitter.completeWithError(e);
-            }
-            return emitter;
+            // 发送完整响应
+            sendLastMessage(emitter, conversation);
+            return conversation;
         } else {
             // 流式发送消息到已有对话，支持高级参数
-            SseCallback callback = new SseCallback() {
-                @Override
-                public void onEvent(SseEvent event) {
-                    try {
-                        if (event.isLastEvent()) {
-                            emitter.complete();
-                        } else {
-                            emitter.send(SseEmitter.event()
-                                    .name("message")
-                                    .data(event.getData(), MediaType.TEXT_PLAIN));
-                        }
-                    } catch (IOException e) {
-                        log.error("发送SSE事件失败", e);
-                        onError(e);
-                    }
-                }
-                
-                @Override
-                public void onError(Throwable throwable) {
-                    try {
-                        emitter.send(SseEmitter.event()
-                                .name("error")
-                                .data(throwable.getMessage(), MediaType.TEXT_PLAIN));
-                        emitter.completeWithError(throwable);
-                    } catch (IOException e) {
-                        log.error("发送SSE错误事件失败", e);
-                        emitter.completeWithError(e);
-                    }
-                }
-                
-                @Override
-                public void onComplete() {
-                    emitter.complete();
-                }
-            };
-            
-            // 设置超时回调
-            emitter.onTimeout(() -> {
-                log.warn("SSE连接超时");
-                callback.onError(new RuntimeException("连接超时"));
-            });
-            
-            // 设置完成回调
-            emitter.onCompletion(() -> {
-                log.info("SSE连接已关闭");
-            });
+            // 输出片段缓存在流式会话中，浏览器断线后可以通过续传接口继续接收
+            StreamSession session = streamSessionRegistry.open(requestDTO.getConversationId(), userId);
+            new SseEmitterSubscriber(emitter, session).subscribe(0);
             
-            // 设置错误回调
-            emitter.onError(throwable -> {
-                log.error("SSE连接出错", throwable);
-                callback.onError(throwable);
-            });
-            
-            // 开始流式处理，使用高级参数
-            patientService.streamMessage(requestDTO.getConversationId(), userId, requestDTO.getMessage(), requestDTO, callback);
+            // 开始流式处理，使用高级参数，token经合并后再写入会话
+            StreamHandle handle = patientService.streamMessage(requestDTO.getConversationId(), userId, requestDTO.getMessage(), requestDTO, sseCoalescer.wrap(session));
+            session.attach(handle);
             
+            return session;
+        }
+    }
+    
+    /**
+     * 发送对话的最后一条消息并结束SSE
+     */
+    private void sendLastMessage(SseEmitter emitter, ConversationDetailDTO conversation) {
+        try {
+            emitter.send(SseEmitter.event()
+                    .name("message")
+                    .data(conversation.getMessages().get(conversation.getMessages().size() - 1).getContent(), MediaType.TEXT_PLAIN));
+            emitter.complete();
+        } catch (IOException e) {
+            emitter.completeWithError(e);
+        }
+    }
+    
+    /**
+     * 发送错误事件并结束SSE
+     */
+    private void sendError(SseEmitter emitter, String message) {
+        try {
+            emitter.send(SseEmitter.event()
+                    .name("error")
+                    .data(message, MediaType.TEXT_PLAIN));
+            emitter.complete();
+        } catch (IOException e) {
+            emitter.completeWithError(e);
+        }
+    }
+    
+    /**
+     * 断线续传流式回复，补发lastEventId之后的片段后继续接收实时输出
+     */
+    @GetMapping(value = "/conversations/{conversationId}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @PreAuthorize("hasRole('PATIENT')")
+    public SseEmitter resumeStream(@PathVariable Long conversationId,
+                                   @RequestParam(required = false) Long lastEventId,
+                                   @RequestHeader(value = "Last-Event-ID", required = false) String lastEventIdHeader,
+                                   HttpServletResponse response) {
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        response.setHeader("Connection", "keep-alive");
+        
+        SseEmitter emitter = new SseEmitter(TimeUnit.MINUTES.toMillis(5));
+        
+        Long userId = getCurrentUserId();
+        StreamSession session = userId != null ? streamSessionRegistry.find(conversationId, userId) : null;
+        if (session == null) {
+            sendError(emitter, "没有可续传的流式回复");
             return emitter;
         }
+        
+        // 浏览器EventSource自动重连时通过请求头携带最后的事件ID
+        long resumeFrom = 0;
+        if (lastEventId != null) {
+            resumeFrom = lastEventId;
+        } else if (lastEventIdHeader != null && !lastEventIdHeader.isBlank()) {
+            try {
+                resumeFrom = Long.parseLong(lastEventIdHeader.trim());
+            } catch (NumberFormatException e) {
+                log.warn("无效的Last-Event-ID: {}", lastEventIdHeader);
+            }
+        }
+        
+        new SseEmitterSubscriber(emitter, session).subscribe(resumeFrom);
+        return emitter;
     }
     
     /**
      * 生成处方
+     * 携带Idempotency-Key请求头的重试请求直接返回首次生成的处方
      */
     @PostMapping("/conversations/{conversationId}/prescription")
     @PreAuthorize("hasRole('PATIENT')")
-    public R<PrescriptionDTO> generatePrescription(@PathVariable Long conversationId) {
+    public R<PrescriptionDTO> generatePrescription(@PathVariable Long conversationId,
+                                                   @RequestHeader(value = IdempotencyStore.HEADER, required = false) String idempotencyKey) {
         Long userId = getCurrentUserId();
         if (userId == null) {
             return R.error("未登录");
         }
         
-        PrescriptionDTO prescription = patientService.generatePrescription(conversationId, userId);
-        if (prescription == null) {
-            return R.error("生成处方失败，对话可能不存在、已结束或无权限操作");
-        }
-        
-        return R.ok(prescription);
+        return idempotencyStore.execute("prescription", userId, idempotencyKey, conversationId, () -> {
+            PrescriptionDTO prescription = patientService.generatePrescription(conversationId, userId);
+            if (prescription == null) {
+                return R.<PrescriptionDTO>error("生成处方失败，对话可能不存在、已结束或无权限操作");
+            }
+            return R.ok(prescription);
+        }, PatientController::isSuccess);
     }
     
     /**
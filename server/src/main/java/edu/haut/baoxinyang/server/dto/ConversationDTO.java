@@ -55,6 +55,16 @@ public class ConversationDTO {
      */
     private String lastMessage;
     
+    /**
+     * 消息数
+     */
+    private Integer messageCount;
+    
+    /**
+     * 最后一条消息时间
+     */
+    private LocalDateTime lastMessageTime;
+    
     /**
      * 创建时间
      */
@@ -57,10 +57,20 @@ public class ConversationDetailDTO {
     private Long prescriptionId;
     
     /**
-     * 消息列表
+     * 消息列表，查看详情时只包含最新一页
      */
     private List<MessageDTO> messages;
     
+    /**
+     * 消息总数
+     */
+    private Integer messageCount;
+    
+    /**
+     * 是否还有更早的消息，通过before参数继续加载
+     */
+    private Boolean hasMore;
+    
     /**
      * 创建时间
      */
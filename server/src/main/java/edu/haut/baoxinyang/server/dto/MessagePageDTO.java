@@ -0,0 +1,27 @@
+package edu.haut.baoxinyang.server.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 对话消息分页结果
+ */
+@Data
+public class MessagePageDTO {
+    
+    /**
+     * 本页消息，按追加顺序排列
+     */
+    private List<MessageDTO> messages;
+    
+    /**
+     * 对话的消息总数
+     */
+    private Integer total;
+    
+    /**
+     * 是否还有更早的消息
+     */
+    private Boolean hasMore;
+}
\ No newline at end of file
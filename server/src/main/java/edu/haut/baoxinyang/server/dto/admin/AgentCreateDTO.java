@@ -77,4 +77,14 @@ public class AgentCreateDTO {
      * 精确查找数据库UID列表
      */
     private List<String> preciseDbUids;
+    
+    /**
+     * 是否缓存相同问题的回答
+     */
+    private Boolean answerCacheEnabled;
+    
+    /**
+     * 历史消息的token预算，为空时使用全局默认值
+     */
+    private Integer contextTokenBudget;
 } 
\ No newline at end of file
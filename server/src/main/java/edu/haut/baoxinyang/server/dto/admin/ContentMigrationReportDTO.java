@@ -0,0 +1,65 @@
+package edu.haut.baoxinyang.server.dto.admin;
+
+import lombok.Data;
+
+/**
+ * 对话内容压缩迁移报告
+ */
+@Data
+public class ContentMigrationReportDTO {
+    
+    /**
+     * 扫描的对话数
+     */
+    private int scanned;
+    
+    /**
+     * 转换为压缩格式的对话数
+     */
+    private int converted;
+    
+    /**
+     * 压缩后没有变小而保留JSON格式的对话数
+     */
+    private int skipped;
+    
+    /**
+     * 转换失败的对话数
+     */
+    private int failed;
+    
+    /**
+     * 已转换对话的原JSON字节数
+     */
+    private long jsonBytes;
+    
+    /**
+     * 已转换对话压缩后的字节数
+     */
+    private long encodedBytes;
+    
+    /**
+     * 节省的字节数
+     */
+    private long savedBytes;
+    
+    /**
+     * 压缩后与原大小的比值
+     */
+    private double compressionRatio;
+    
+    /**
+     * 编码总耗时（毫秒）
+     */
+    private long encodeMillis;
+    
+    /**
+     * 校验解码总耗时（毫秒）
+     */
+    private long decodeMillis;
+    
+    /**
+     * 迁移总耗时（毫秒）
+     */
+    private long elapsedMillis;
+}
\ No newline at end of file
@@ -1,5 +1,6 @@
 package edu.haut.baoxinyang.server.dto.llm;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Data;
 
@@ -13,6 +14,18 @@ import java.util.Map;
 @Data
 public class LlmRequestDTO {
     
+    /**
+     * 智能体ID，仅用于服务端准入控制，不发送给LLM后端
+     */
+    @JsonIgnore
+    private Long agentId;
+    
+    /**
+     * 是否允许使用回答缓存，由智能体配置决定，不发送给LLM后端
+     */
+    @JsonIgnore
+    private boolean answerCacheable;
+    
     /**
      * 用户消息
      */
@@ -2,29 +2,17 @@ package edu.haut.baoxinyang.server.entity;
 
 import com.baomidou.mybatisplus.annotation.TableField;
 import com.baomidou.mybatisplus.annotation.TableName;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
-import lombok.extern.slf4j.Slf4j;
-
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 
 /**
  * 智能体实体类
  */
 @Data
-@Slf4j
 @EqualsAndHashCode(callSuper = true)
 @TableName("agent")
 public class Agent extends BaseEntity {
     
-    private static final ObjectMapper objectMapper = new ObjectMapper();
-    
     /**
      * 智能体名称
      */
@@ -91,6 +79,18 @@ public class Agent extends BaseEntity {
     @TableField("precise_db_uids")
     private String preciseDbUids;
     
+    /**
+     * 是否缓存相同问题的回答：0-否，1-是
+     */
+    @TableField("answer_cache_enabled")
+    private Integer answerCacheEnabled;
+    
+    /**
+     * 历史消息的token预算，为空时使用全局默认值
+     */
+    @TableField("context_token_budget")
+    private Integer contextTokenBudget;
+    
     /**
      * 医疗方向（非数据库字段）
      */
@@ -104,61 +104,4 @@ public class Agent extends BaseEntity {
     public String getBaseUrl() {
         return this.modelUrl;
     }
-    
-    /**
-     * 获取子模板ID列表
-     * @return 子模板ID列表
-     */
-    public List<String> getSubTemplateIds() {
-        try {
-            if (templateParameters == null || templateParameters.isEmpty()) {
-                return new ArrayList<>();
-            }
-            
-            Map<String, Object> params = objectMapper.readValue(templateParameters, 
-                    new TypeReference<Map<String, Object>>() {});
-            
-            if (params.containsKey("subTemplateIds") && params.get("subTemplateIds") instanceof List) {
-                return objectMapper.convertValue(params.get("subTemplateIds"), 
-                        new TypeReference<List<String>>() {});
-            }
-            
-            return new ArrayList<>();
-        } catch (JsonProcessingException e) {
-            log.error("解析子模板ID列表失败: {}", e.getMessage());
-            return new ArrayList<>();
-        }
-    }
-    
-    /**
-     * 获取模板参数
-     * @return 模板参数Map
-     */
-    public Map<String, String> getParams() {
-        try {
-            if (templateParameters == null || templateParameters.isEmpty()) {
-                return new HashMap<>();
-            }
-            
-            Map<String, Object> paramsObj = objectMapper.readValue(templateParameters, 
-                    new TypeReference<Map<String, Object>>() {});
-            
-            if (paramsObj.containsKey("params") && paramsObj.get("params") instanceof Map) {
-                return objectMapper.convertValue(paramsObj.get("params"), 
-                        new TypeReference<Map<String, String>>() {});
-            }
-            
-            // 如果没有params字段，返回所有键值对
-            Map<String, String> result = new HashMap<>();
-            for (Map.Entry<String, Object> entry : paramsObj.entrySet()) {
-                if (!(entry.getValue() instanceof Map) && !(entry.getValue() instanceof List)) {
-                    result.put(entry.getKey(), entry.getValue().toString());
-                }
-            }
-            return result;
-        } catch (JsonProcessingException e) {
-            log.error("解析模板参数失败: {}", e.getMessage());
-            return new HashMap<>();
-        }
-    }
-} 
\ No newline at end of file
+}
\ No newline at end of file
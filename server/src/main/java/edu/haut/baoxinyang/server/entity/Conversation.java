@@ -1,10 +1,13 @@
 package edu.haut.baoxinyang.server.entity;
 
+import com.baomidou.mybatisplus.annotation.FieldStrategy;
 import com.baomidou.mybatisplus.annotation.TableField;
 import com.baomidou.mybatisplus.annotation.TableName;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 
+import java.time.LocalDateTime;
+
 /**
  * 对话实体类
  */
@@ -37,6 +40,18 @@ public class Conversation extends BaseEntity {
     @TableField("content")
     private String content;
     
+    /**
+     * 内容格式：0-JSON，存储在content列，1-Smile+DEFLATE，存储在content_blob列
+     */
+    @TableField(value = "content_format", updateStrategy = FieldStrategy.NEVER)
+    private Integer contentFormat;
+    
+    /**
+     * 压缩后的对话内容，只由迁移任务写入
+     */
+    @TableField(value = "content_blob", updateStrategy = FieldStrategy.NEVER)
+    private byte[] contentBlob;
+    
     /**
      * 是否结束：0-未结束，1-已结束
      */
@@ -49,6 +64,24 @@ public class Conversation extends BaseEntity {
     @TableField("prescription_id")
     private Long prescriptionId;
     
+    /**
+     * 最后一条消息的开头部分，追加消息时维护，updateById不会覆盖
+     */
+    @TableField(value = "last_message_preview", updateStrategy = FieldStrategy.NEVER)
+    private String lastMessagePreview;
+    
+    /**
+     * 消息数，追加消息时维护，updateById不会覆盖
+     */
+    @TableField(value = "message_count", updateStrategy = FieldStrategy.NEVER)
+    private Integer messageCount;
+    
+    /**
+     * 最后一条消息的时间，追加消息时维护，updateById不会覆盖
+     */
+    @TableField(value = "last_message_time", updateStrategy = FieldStrategy.NEVER)
+    private LocalDateTime lastMessageTime;
+    
     /**
      * 关联的用户（非数据库字段）
      */
@@ -0,0 +1,47 @@
+package edu.haut.baoxinyang.server.entity;
+
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+import java.time.LocalDateTime;
+
+/**
+ * 对话消息实体类，每条消息单独一行，只追加不改写
+ */
+@Data
+@EqualsAndHashCode(callSuper = true)
+@TableName("conversation_message")
+public class ConversationMessage extends BaseEntity {
+    
+    /**
+     * 对话ID
+     */
+    @TableField("conversation_id")
+    private Long conversationId;
+    
+    /**
+     * 消息唯一标识，对应MessageDTO的id
+     */
+    @TableField("message_uid")
+    private String messageUid;
+    
+    /**
+     * 消息内容
+     */
+    @TableField("content")
+    private String content;
+    
+    /**
+     * 消息类型：0-用户消息，1-系统消息
+     */
+    @TableField("type")
+    private Integer type;
+    
+    /**
+     * 消息时间
+     */
+    @TableField("message_time")
+    private LocalDateTime messageTime;
+} 
\ No newline at end of file
@@ -0,0 +1,45 @@
+package edu.haut.baoxinyang.server.entity;
+
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+/**
+ * 对话摘要实体类，每个对话一行，随对话变长增量更新
+ */
+@Data
+@EqualsAndHashCode(callSuper = true)
+@TableName("conversation_summary")
+public class ConversationSummary extends BaseEntity {
+    
+    /**
+     * 对话ID
+     */
+    @TableField("conversation_id")
+    private Long conversationId;
+    
+    /**
+     * 摘要内容
+     */
+    @TableField("summary")
+    private String summary;
+    
+    /**
+     * 已摘要的最后一条消息ID，对应conversation_message的id
+     */
+    @TableField("last_message_id")
+    private Long lastMessageId;
+    
+    /**
+     * 已摘要的最后一条消息唯一标识，对应MessageDTO的id
+     */
+    @TableField("last_message_uid")
+    private String lastMessageUid;
+    
+    /**
+     * 已摘要的消息数
+     */
+    @TableField("message_count")
+    private Integer messageCount;
+}
\ No newline at end of file
@@ -1,5 +1,6 @@
 package edu.haut.baoxinyang.server.handler;
 
+import edu.haut.baoxinyang.server.cache.IdempotencyConflictException;
 import edu.haut.baoxinyang.server.common.R;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
@@ -82,6 +83,15 @@ public class GlobalExceptionHandler {
         return R.error(401, "用户名或密码错误");
     }
 
+    /**
+     * 处理幂等键冲突
+     */
+    @ExceptionHandler(IdempotencyConflictException.class)
+    @ResponseStatus(HttpStatus.CONFLICT)
+    public R<Object> handleIdempotencyConflictException(IdempotencyConflictException e) {
+        return R.error(409, e.getMessage());
+    }
+
     /**
      * 处理其他异常
      */
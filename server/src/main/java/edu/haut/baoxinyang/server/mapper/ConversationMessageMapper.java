@@ -0,0 +1,13 @@
+package edu.haut.baoxinyang.server.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import edu.haut.baoxinyang.server.entity.ConversationMessage;
+import org.springframework.stereotype.Repository;
+
+/**
+ * 对话消息Mapper接口
+ */
+@Repository
+public interface ConversationMessageMapper extends BaseMapper<ConversationMessage> {
+    
+} 
\ No newline at end of file
@@ -0,0 +1,13 @@
+package edu.haut.baoxinyang.server.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import edu.haut.baoxinyang.server.entity.ConversationSummary;
+import org.springframework.stereotype.Repository;
+
+/**
+ * 对话摘要Mapper接口
+ */
+@Repository
+public interface ConversationSummaryMapper extends BaseMapper<ConversationSummary> {
+    
+}
\ No newline at end of file
@@ -1,12 +1,14 @@
 package edu.haut.baoxinyang.server.service;
 
 import edu.haut.baoxinyang.server.dto.admin.AgentCreateDTO;
+import edu.haut.baoxinyang.server.dto.admin.ContentMigrationReportDTO;
 import edu.haut.baoxinyang.server.entity.Agent;
 import edu.haut.baoxinyang.server.entity.MedicalDirection;
 import edu.haut.baoxinyang.server.entity.User;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 管理员服务接口
@@ -94,13 +96,21 @@ public interface AdminService {
      * 测试智能体配置
      * @param agentId 智能体ID
      * @param testMessage 测试消息
-     * @return 测试结果
+     * @return 测试结果，等待模型响应期间不占用调用线程
      */
-    String testAgent(Long agentId, String testMessage);
+    CompletableFuture<String> testAgentAsync(Long agentId, String testMessage);
     
     /**
      * 获取系统统计数据
      * @return 统计数据
      */
     Map<String, Object> getSystemStats();
+    
+    /**
+     * 将旧版对话内容分批转换为压缩格式
+     * @param batchSize 每批处理的对话数
+     * @param limit 最多处理的对话数，不大于0时处理全部
+     * @return 迁移报告，包含节省的字节数和编解码耗时
+     */
+    ContentMigrationReportDTO compressConversationContent(int batchSize, int limit);
 } 
\ No newline at end of file
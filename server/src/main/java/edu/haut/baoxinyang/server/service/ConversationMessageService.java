@@ -0,0 +1,77 @@
+package edu.haut.baoxinyang.server.service;
+
+import com.baomidou.mybatisplus.extension.service.IService;
+import edu.haut.baoxinyang.server.dto.MessageDTO;
+import edu.haut.baoxinyang.server.dto.MessagePageDTO;
+import edu.haut.baoxinyang.server.entity.Conversation;
+import edu.haut.baoxinyang.server.entity.ConversationMessage;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 对话消息Service接口
+ */
+public interface ConversationMessageService extends IService<ConversationMessage> {
+
+    /**
+     * 获取对话的全部消息，按追加顺序排列
+     * 对于只有旧版content JSON的对话，会先从content回填到消息表
+     * @param conversation 对话
+     * @return 消息列表
+     */
+    List<MessageDTO> listMessages(Conversation conversation);
+
+    /**
+     * 按消息游标分页获取对话消息，从最新的消息往前翻页
+     * @param conversation 对话
+     * @param before 只返回该消息之前的消息，对应MessageDTO的id，为空时返回最新一页
+     * @param limit 每页条数
+     * @return 消息页，页内按追加顺序排列
+     */
+    MessagePageDTO pageMessages(Conversation conversation, String before, int limit);
+
+    /**
+     * 获取对话的最后一条消息
+     * @param conversation 对话
+     * @return 最后一条消息，没有消息时返回null
+     */
+    MessageDTO getLastMessage(Conversation conversation);
+
+    /**
+     * 批量获取多个对话的最后一条消息
+     * @param conversations 对话列表
+     * @return 对话ID到最后一条消息的映射，没有消息的对话不包含在内
+     */
+    Map<Long, MessageDTO> getLastMessages(List<Conversation> conversations);
+
+    /**
+     * 追加一条消息
+     * @param conversationId 对话ID
+     * @param message 消息
+     */
+    void appendMessage(Long conversationId, MessageDTO message);
+
+    /**
+     * 按顺序追加多条消息
+     * @param conversationId 对话ID
+     * @param messages 消息列表
+     */
+    void appendMessages(Long conversationId, List<MessageDTO> messages);
+
+    /**
+     * 按顺序追加多条消息，跳过对话中message_uid已存在的消息
+     * @param conversationId 对话ID
+     * @param messages 消息列表
+     * @return 实际追加的条数
+     */
+    int appendMissingMessages(Long conversationId, List<MessageDTO> messages);
+
+    /**
+     * 将旧版对话内容解析为消息列表，按content_format读取JSON或压缩格式
+     * @param conversation 对话
+     * @return 消息列表
+     */
+    List<MessageDTO> parseLegacyContent(Conversation conversation);
+
+}
\ No newline at end of file
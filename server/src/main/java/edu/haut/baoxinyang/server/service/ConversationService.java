@@ -1,6 +1,7 @@
 package edu.haut.baoxinyang.server.service;
 
 import com.baomidou.mybatisplus.extension.service.IService;
+import edu.haut.baoxinyang.server.dto.admin.ContentMigrationReportDTO;
 import edu.haut.baoxinyang.server.entity.Conversation;
 
 import java.util.List;
@@ -17,6 +18,13 @@ public interface ConversationService extends IService<Conversation> {
      */
     List<Conversation> getByUserId(Long userId);
     
+    /**
+     * 根据用户ID查询对话列表，只查询列表页需要的列，不包含content
+     * @param userId 用户ID
+     * @return 对话列表
+     */
+    List<Conversation> getListByUserId(Long userId);
+    
     /**
      * 根据UID查询对话
      * @param uid 对话UID
@@ -32,4 +40,12 @@ public interface ConversationService extends IService<Conversation> {
      */
     List<Conversation> getUnfinishedByUserIdAndAgentId(Long userId, Long agentId);
     
+    /**
+     * 将JSON格式的旧版对话内容分批转换为压缩格式
+     * @param batchSize 每批处理的对话数
+     * @param limit 最多处理的对话数，不大于0时处理全部
+     * @return 迁移报告
+     */
+    ContentMigrationReportDTO compressLegacyContent(int batchSize, int limit);
+    
 } 
\ No newline at end of file
@@ -50,13 +50,15 @@ public interface DoctorService {
     PrescriptionDTO reviewPrescription(Long prescriptionId, Long doctorId, Integer status, String comment);
     
     /**
-     * 获取对话详情
+     * 获取对话详情，消息按游标分页
      * 
      * @param conversationId 对话ID
      * @param doctorId 医生ID
+     * @param before 只返回该消息之前的消息，为空时返回最新一页
+     * @param limit 每页消息数
      * @return 对话详情
      */
-    ConversationDetailDTO getConversationDetail(Long conversationId, Long doctorId);
+    ConversationDetailDTO getConversationDetail(Long conversationId, Long doctorId, String before, int limit);
     
     /**
      * 获取医生首页统计数据
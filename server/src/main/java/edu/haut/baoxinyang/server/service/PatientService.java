@@ -3,8 +3,10 @@ package edu.haut.baoxinyang.server.service;
 
 import edu.haut.baoxinyang.server.dto.*;
 import edu.haut.baoxinyang.server.service.llm.SseCallback;
+import edu.haut.baoxinyang.server.service.llm.StreamHandle;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 病人服务接口
@@ -25,12 +27,14 @@ public interface PatientService {
     List<ConversationDTO> getConversationsByUserId(Long userId);
     
     /**
-     * 获取对话详情
+     * 获取对话详情，消息按游标分页
      * @param conversationId 对话ID
      * @param userId 病人ID
+     * @param before 只返回该消息之前的消息，为空时返回最新一页
+     * @param limit 每页消息数
      * @return 对话详情
      */
-    ConversationDetailDTO getConversationDetail(Long conversationId, Long userId);
+    ConversationDetailDTO getConversationDetail(Long conversationId, Long userId, String before, int limit);
     
     /**
      * 创建新对话
@@ -41,6 +45,15 @@ public interface PatientService {
      */
     ConversationDetailDTO createConversation(Long userId, Long agentId, String firstMessage);
     
+    /**
+     * 异步创建新对话，等待模型响应期间不占用调用线程
+     * @param userId 病人ID
+     * @param agentId 智能体ID
+     * @param firstMessage 首条消息
+     * @return 新对话详情，失败时为null
+     */
+    CompletableFuture<ConversationDetailDTO> createConversationAsync(Long userId, Long agentId, String firstMessage);
+    
     /**
      * 发送消息到对话
      * @param conversationId 对话ID
@@ -51,6 +64,16 @@ public interface PatientService {
      */
     ConversationDetailDTO sendMessage(Long conversationId, Long userId, String message, ConversationRequestDTO requestDTO);
     
+    /**
+     * 异步发送消息到对话，等待模型响应期间不占用调用线程
+     * @param conversationId 对话ID
+     * @param userId 病人ID
+     * @param message 消息内容
+     * @param requestDTO 高级请求参数
+     * @return 对话详情，消息列表只包含本轮的用户消息和回复，失败时为null
+     */
+    CompletableFuture<ConversationDetailDTO> sendMessageAsync(Long conversationId, Long userId, String message, ConversationRequestDTO requestDTO);
+    
     /**
      * 流式发送消息到对话
      * @param conversationId 对话ID
@@ -58,8 +81,9 @@ public interface PatientService {
      * @param message 消息内容
      * @param requestDTO 高级请求参数
      * @param callback SSE回调
+     * @return 上游请求句柄，请求未发出时返回null
      */
-    void streamMessage(Long conversationId, Long userId, String message, ConversationRequestDTO requestDTO, SseCallback callback);
+    StreamHandle streamMessage(Long conversationId, Long userId, String message, ConversationRequestDTO requestDTO, SseCallback callback);
     
     /**
      * 获取处方详情
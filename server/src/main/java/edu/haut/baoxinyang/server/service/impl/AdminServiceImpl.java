@@ -5,9 +5,10 @@ import cn.hutool.crypto.digest.BCrypt;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.haut.baoxinyang.server.assembler.DtoAssembler;
 import edu.haut.baoxinyang.server.dto.admin.AgentCreateDTO;
+import edu.haut.baoxinyang.server.dto.admin.ContentMigrationReportDTO;
 import edu.haut.baoxinyang.server.dto.llm.LlmRequestDTO;
-import edu.haut.baoxinyang.server.dto.llm.LlmResponseDTO;
 import edu.haut.baoxinyang.server.entity.Agent;
 import edu.haut.baoxinyang.server.entity.Conversation;
 import edu.haut.baoxinyang.server.entity.MedicalDirection;
@@ -27,6 +28,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 管理员服务实现类
@@ -42,6 +44,7 @@ public class AdminServiceImpl implements AdminService {
     private final ConversationService conversationService;
     private final PrescriptionService prescriptionService;
     private final LlmService llmService;
+    private final DtoAssembler dtoAssembler;
     
     @Autowired
     private UserMapper userMapper;
@@ -64,13 +67,8 @@ public class AdminServiceImpl implements AdminService {
         
         List<User> users = userService.list(wrapper);
         
-        // 填充医疗方向信息
-        for (User user : users) {
-            if (user.getDirectionId() != null) {
-                MedicalDirection direction = directionService.getById(user.getDirectionId());
-                user.setDirection(direction);
-            }
-        }
+        // 批量填充医疗方向信息
+        dtoAssembler.attachUserDirections(users);
         
         return users;
     }
@@ -159,13 +157,8 @@ public class AdminServiceImpl implements AdminService {
         
         List<Agent> agents = agentService.list(wrapper);
         
-        // 填充医疗方向信息
-        for (Agent agent : agents) {
-            if (agent.getDirectionId() != null) {
-                MedicalDirection direction = directionService.getById(agent.getDirectionId());
-                agent.setDirection(direction);
-            }
-        }
+        // 批量填充医疗方向信息
+        dtoAssembler.attachAgentDirections(agents);
         
         return agents;
     }
@@ -193,10 +186,10 @@ public class AdminServiceImpl implements AdminService {
     }
     
     @Override
-    public String testAgent(Long agentId, String testMessage) {
+    public CompletableFuture<String> testAgentAsync(Long agentId, String testMessage) {
         Agent agent = agentService.getById(agentId);
         if (agent == null) {
-            return "智能体不存在";
+            return CompletableFuture.completedFuture("智能体不存在");
         }
         
         try {
@@ -210,19 +203,24 @@ public class AdminServiceImpl implements AdminService {
             LlmRequestDTO request = llmService.buildRequest(agent, testUser, testMessage, new ArrayList<>());
             
             // 发送请求
-            LlmResponseDTO response = llmService.ask(request);
-            
-            if (response != null) {
-                return response.getAnswer();
-            } else {
-                return "测试失败：未获取到响应";
-            }
+            return llmService.askAsync(request).thenApply(response -> {
+                if (response != null) {
+                    return response.getAnswer();
+                } else {
+                    return "测试失败：未获取到响应";
+                }
+            });
         } catch (Exception e) {
             log.error("测试智能体失败", e);
-            return "测试失败：" + e.getMessage();
+            return CompletableFuture.completedFuture("测试失败：" + e.getMessage());
         }
     }
     
+    @Override
+    public ContentMigrationReportDTO compressConversationContent(int batchSize, int limit) {
+        return conversationService.compressLegacyContent(batchSize, limit);
+    }
+    
     @Override
     public Map<String, Object> getSystemStats() {
         Map<String, Object> stats = new HashMap<>();
@@ -296,6 +294,14 @@ public class AdminServiceImpl implements AdminService {
                 agent.setPreciseDbUids(objectMapper.writeValueAsString(dto.getPreciseDbUids()));
             }
             
+            // 处理回答缓存开关
+            if (dto.getAnswerCacheEnabled() != null) {
+                agent.setAnswerCacheEnabled(dto.getAnswerCacheEnabled() ? 1 : 0);
+            }
+            
+            // 处理历史消息token预算
+            agent.setContextTokenBudget(dto.getContextTokenBudget());
+            
             return saveOrUpdateAgent(agent);
         } catch (JsonProcessingException e) {
             log.error("处理智能体JSON数据失败", e);
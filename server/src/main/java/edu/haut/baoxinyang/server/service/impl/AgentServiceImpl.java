@@ -2,18 +2,42 @@ package edu.haut.baoxinyang.server.service.impl;
 
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import edu.haut.baoxinyang.server.cache.ReferenceDataCache;
+import edu.haut.baoxinyang.server.common.StatsProvider;
+import edu.haut.baoxinyang.server.config.CacheConfig;
 import edu.haut.baoxinyang.server.entity.Agent;
 import edu.haut.baoxinyang.server.mapper.AgentMapper;
 import edu.haut.baoxinyang.server.service.AgentService;
+import edu.haut.baoxinyang.server.service.llm.AgentProfileCache;
+import edu.haut.baoxinyang.server.service.llm.LlmAnswerCache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.io.Serializable;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * 智能体Service实现类
+ * 按ID的查询走本地缓存，写操作立即失效对应缓存
  */
+@Slf4j
 @Service
-public class AgentServiceImpl extends ServiceImpl<AgentMapper, Agent> implements AgentService {
+public class AgentServiceImpl extends ServiceImpl<AgentMapper, Agent> implements AgentService, StatsProvider {
+    
+    private final ReferenceDataCache<Agent> cache;
+    private final AgentProfileCache agentProfileCache;
+    private final LlmAnswerCache answerCache;
+    
+    public AgentServiceImpl(CacheConfig cacheConfig, AgentProfileCache agentProfileCache, LlmAnswerCache answerCache) {
+        this.agentProfileCache = agentProfileCache;
+        this.answerCache = answerCache;
+        this.cache = new ReferenceDataCache<>("agent", cacheConfig.getReference(),
+                ids -> baseMapper.selectBatchIds(ids), Agent::new);
+    }
     
     @Override
     public List<Agent> getByDirectionId(Long directionId) {
@@ -22,4 +46,62 @@ public class AgentServiceImpl extends ServiceImpl<AgentMapper, Agent> implements
         return baseMapper.selectList(wrapper);
     }
     
+    @Override
+    public Agent getById(Serializable id) {
+        return cache.get(toLong(id));
+    }
+    
+    @Override
+    public List<Agent> listByIds(Collection<? extends Serializable> idList) {
+        return cache.getAll(idList.stream().map(this::toLong).collect(Collectors.toList()));
+    }
+    
+    @Override
+    public boolean updateById(Agent entity) {
+        boolean result = super.updateById(entity);
+        cache.invalidate(entity.getId());
+        agentProfileCache.evict(entity.getId());
+        answerCache.invalidateAgent(entity.getId());
+        return result;
+    }
+    
+    @Override
+    public boolean removeById(Serializable id) {
+        boolean result = super.removeById(id);
+        cache.invalidate(toLong(id));
+        agentProfileCache.evict(toLong(id));
+        answerCache.invalidateAgent(toLong(id));
+        return result;
+    }
+    
+    /**
+     * 轮询update_time，发现其他节点对智能体的修改
+     */
+    @Scheduled(fixedDelayString = "${cache.reference.poll-interval:30000}",
+            initialDelayString = "${cache.reference.poll-interval:30000}")
+    public void syncCache() {
+        try {
+            LambdaQueryWrapper<Agent> wrapper = new LambdaQueryWrapper<>();
+            wrapper.select(Agent::getId, Agent::getUpdateTime)
+                    .ge(cache.getWatermark() != null, Agent::getUpdateTime, cache.getWatermark());
+            cache.sync(baseMapper.selectList(wrapper), baseMapper.selectCount(null));
+        } catch (Exception e) {
+            log.warn("同步智能体缓存失败: {}", e.getMessage());
+        }
+    }
+    
+    @Override
+    public String getStatsName() {
+        return "agentCache";
+    }
+    
+    @Override
+    public Map<String, Object> getStats() {
+        return cache.stats();
+    }
+    
+    private Long toLong(Serializable id) {
+        return id instanceof Number ? ((Number) id).longValue() : Long.valueOf(id.toString());
+    }
+    
 } 
\ No newline at end of file
@@ -0,0 +1,306 @@
+package edu.haut.baoxinyang.server.service.impl;
+
+import cn.hutool.core.util.IdUtil;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.haut.baoxinyang.server.common.ConversationContentCodec;
+import edu.haut.baoxinyang.server.dto.MessageDTO;
+import edu.haut.baoxinyang.server.dto.MessagePageDTO;
+import edu.haut.baoxinyang.server.entity.Conversation;
+import edu.haut.baoxinyang.server.entity.ConversationMessage;
+import edu.haut.baoxinyang.server.mapper.ConversationMapper;
+import edu.haut.baoxinyang.server.mapper.ConversationMessageMapper;
+import edu.haut.baoxinyang.server.service.ConversationMessageService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * 对话消息Service实现类
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ConversationMessageServiceImpl extends ServiceImpl<ConversationMessageMapper, ConversationMessage> implements ConversationMessageService {
+
+    /**
+     * 对话表中保存的最后一条消息预览长度
+     */
+    private static final int PREVIEW_LENGTH = 100;
+
+    /**
+     * 分页查询的最大每页条数
+     */
+    private static final int MAX_PAGE_SIZE = 200;
+
+    private final ConversationMapper conversationMapper;
+    private final ObjectMapper objectMapper;
+    private final ConversationContentCodec contentCodec;
+
+    @Override
+    public List<MessageDTO> listMessages(Conversation conversation) {
+        List<MessageDTO> messages = selectMessages(conversation.getId());
+        if (!messages.isEmpty()) {
+            return messages;
+        }
+
+        // 旧数据只存在于content列中，首次读取时回填到消息表
+        List<MessageDTO> legacyMessages = parseLegacyContent(conversation);
+        if (legacyMessages.isEmpty()) {
+            return messages;
+        }
+
+        try {
+            saveBatch(toEntities(conversation.getId(), legacyMessages));
+            // 回填不算新消息，保留更新时间
+            LambdaUpdateWrapper<Conversation> wrapper = previewUpdate(conversation.getId(), legacyMessages)
+                    .set(Conversation::getMessageCount, legacyMessages.size())
+                    .setSql("update_time = update_time");
+            conversationMapper.update(null, wrapper);
+            log.info("已从content回填对话消息: conversationId={}, count={}", conversation.getId(), legacyMessages.size());
+        } catch (RuntimeException e) {
+            // 唯一索引冲突说明其他请求已经完成回填
+            List<MessageDTO> backfilled = selectMessages(conversation.getId());
+            if (backfilled.isEmpty()) {
+                throw e;
+            }
+            log.debug("对话消息已被并发回填: conversationId={}", conversation.getId());
+            return backfilled;
+        }
+        return legacyMessages;
+    }
+
+    @Override
+    public MessagePageDTO pageMessages(Conversation conversation, String before, int limit) {
+        int size = Math.min(Math.max(limit, 1), MAX_PAGE_SIZE);
+        MessagePageDTO page = new MessagePageDTO();
+        page.setTotal(conversation.getMessageCount() != null ? conversation.getMessageCount() : 0);
+
+        LambdaQueryWrapper<ConversationMessage> wrapper = new LambdaQueryWrapper<>();
+        wrapper.eq(ConversationMessage::getConversationId, conversation.getId());
+        if (before != null && !before.isEmpty()) {
+            LambdaQueryWrapper<ConversationMessage> cursorWrapper = new LambdaQueryWrapper<>();
+            cursorWrapper.select(ConversationMessage::getId)
+                    .eq(ConversationMessage::getConversationId, conversation.getId())
+                    .eq(ConversationMessage::getMessageUid, before);
+            ConversationMessage cursor = baseMapper.selectOne(cursorWrapper);
+            if (cursor == null) {
+                page.setMessages(new ArrayList<>());
+                page.setHasMore(false);
+                return page;
+            }
+            wrapper.lt(ConversationMessage::getId, cursor.getId());
+        }
+        // 多查一条用于判断是否还有更早的消息
+        wrapper.orderByDesc(ConversationMessage::getId)
+                .last("LIMIT " + (size + 1));
+        List<ConversationMessage> rows = baseMapper.selectList(wrapper);
+
+        if (rows.isEmpty() && (before == null || before.isEmpty())) {
+            // 旧数据只存在于content列中，回填后取最后一页
+            List<MessageDTO> messages = listMessages(conversation);
+            int from = Math.max(messages.size() - size, 0);
+            page.setMessages(new ArrayList<>(messages.subList(from, messages.size())));
+            page.setTotal(messages.size());
+            page.setHasMore(from > 0);
+            return page;
+        }
+
+        boolean hasMore = rows.size() > size;
+        List<MessageDTO> messages = rows.subList(0, Math.min(rows.size(), size)).stream()
+                .map(this::toDTO)
+                .collect(Collectors.toList());
+        Collections.reverse(messages);
+        page.setMessages(messages);
+        page.setHasMore(hasMore);
+        return page;
+    }
+
+    @Override
+    public MessageDTO getLastMessage(Conversation conversation) {
+        LambdaQueryWrapper<ConversationMessage> wrapper = new LambdaQueryWrapper<>();
+        wrapper.eq(ConversationMessage::getConversationId, conversation.getId())
+                .orderByDesc(ConversationMessage::getId)
+                .last("LIMIT 1");
+        ConversationMessage last = baseMapper.selectOne(wrapper);
+        if (last != null) {
+            return toDTO(last);
+        }
+
+        // 尚未回填的旧对话直接读取content
+        List<MessageDTO> legacyMessages = parseLegacyContent(conversation);
+        return legacyMessages.isEmpty() ? null : legacyMessages.get(legacyMessages.size() - 1);
+    }
+
+    @Override
+    public Map<Long, MessageDTO> getLastMessages(List<Conversation> conversations) {
+        Map<Long, MessageDTO> result = new HashMap<>();
+        if (conversations.isEmpty()) {
+            return result;
+        }
+
+        String conversationIds = conversations.stream()
+                .map(conversation -> String.valueOf(conversation.getId()))
+                .collect(Collectors.joining(","));
+        LambdaQueryWrapper<ConversationMessage> wrapper = new LambdaQueryWrapper<>();
+        wrapper.inSql(ConversationMessage::getId, "SELECT MAX(id) FROM conversation_message WHERE conversation_id IN ("
+                + conversationIds + ") GROUP BY conversation_id");
+        for (ConversationMessage message : baseMapper.selectList(wrapper)) {
+            result.put(message.getConversationId(), toDTO(message));
+        }
+
+        // 尚未回填的旧对话直接读取content
+        for (Conversation conversation : conversations) {
+            if (!result.containsKey(conversation.getId())) {
+                List<MessageDTO> legacyMessages = parseLegacyContent(conversation);
+                if (!legacyMessages.isEmpty()) {
+                    result.put(conversation.getId(), legacyMessages.get(legacyMessages.size() - 1));
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public void appendMessage(Long conversationId, MessageDTO message) {
+        appendMessages(conversationId, List.of(message));
+    }
+
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public void appendMessages(Long conversationId, List<MessageDTO> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        saveBatch(toEntities(conversationId, messages));
+
+        // 刷新对话的更新时间和列表预览，保证对话列表排序正确
+        LambdaUpdateWrapper<Conversation> wrapper = previewUpdate(conversationId, messages)
+                .setSql("message_count = message_count + " + messages.size())
+                .set(Conversation::getUpdateTime, LocalDateTime.now());
+        conversationMapper.update(null, wrapper);
+    }
+
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public int appendMissingMessages(Long conversationId, List<MessageDTO> messages) {
+        List<String> uids = messages.stream().map(MessageDTO::getId).filter(Objects::nonNull).toList();
+        Set<String> existing = new HashSet<>();
+        if (!uids.isEmpty()) {
+            LambdaQueryWrapper<ConversationMessage> wrapper = new LambdaQueryWrapper<>();
+            wrapper.select(ConversationMessage::getMessageUid)
+                    .eq(ConversationMessage::getConversationId, conversationId)
+                    .in(ConversationMessage::getMessageUid, uids);
+            for (ConversationMessage stored : list(wrapper)) {
+                existing.add(stored.getMessageUid());
+            }
+        }
+        List<MessageDTO> missing = messages.stream()
+                .filter(message -> message.getId() == null || !existing.contains(message.getId()))
+                .toList();
+        appendMessages(conversationId, missing);
+        return missing.size();
+    }
+
+    /**
+     * 截取消息开头作为列表预览
+     * @param content 消息内容
+     * @return 预览文本
+     */
+    public static String preview(String content) {
+        if (content == null) {
+            return "";
+        }
+        return content.length() > PREVIEW_LENGTH ? content.substring(0, PREVIEW_LENGTH) : content;
+    }
+
+    /**
+     * 以最后一条消息更新对话的预览列
+     */
+    private LambdaUpdateWrapper<Conversation> previewUpdate(Long conversationId, List<MessageDTO> messages) {
+        MessageDTO last = messages.get(messages.size() - 1);
+        LambdaUpdateWrapper<Conversation> wrapper = new LambdaUpdateWrapper<>();
+        wrapper.eq(Conversation::getId, conversationId)
+                .set(Conversation::getLastMessagePreview, preview(last.getContent()))
+                .set(Conversation::getLastMessageTime, last.getTimestamp() != null ? last.getTimestamp() : LocalDateTime.now());
+        return wrapper;
+    }
+
+    @Override
+    public List<MessageDTO> parseLegacyContent(Conversation conversation) {
+        List<MessageDTO> messages = new ArrayList<>();
+        if (Integer.valueOf(ConversationContentCodec.FORMAT_SMILE_DEFLATE).equals(conversation.getContentFormat())
+                && conversation.getContentBlob() != null) {
+            try {
+                return contentCodec.decode(conversation.getContentBlob());
+            } catch (UncheckedIOException e) {
+                log.error("解析压缩的对话内容失败: conversationId={}, error={}", conversation.getId(), e.getMessage());
+                return messages;
+            }
+        }
+
+        String content = conversation.getContent();
+        if (content == null || content.isEmpty()) {
+            return messages;
+        }
+
+        try {
+            messages = objectMapper.readValue(content,
+                    objectMapper.getTypeFactory().constructCollectionType(List.class, MessageDTO.class));
+        } catch (JsonProcessingException e) {
+            log.error("解析对话内容失败: {}", e.getMessage());
+        }
+
+        return messages;
+    }
+
+    private List<MessageDTO> selectMessages(Long conversationId) {
+        LambdaQueryWrapper<ConversationMessage> wrapper = new LambdaQueryWrapper<>();
+        wrapper.eq(ConversationMessage::getConversationId, conversationId)
+                .orderByAsc(ConversationMessage::getId);
+        return baseMapper.selectList(wrapper).stream()
+                .map(this::toDTO)
+                .collect(Collectors.toList());
+    }
+
+    private List<ConversationMessage> toEntities(Long conversationId, List<MessageDTO> messages) {
+        List<ConversationMessage> entities = new ArrayList<>(messages.size());
+        for (MessageDTO message : messages) {
+            ConversationMessage entity = new ConversationMessage();
+            entity.setConversationId(conversationId);
+            entity.setMessageUid(message.getId() != null ? message.getId() : IdUtil.fastSimpleUUID());
+            entity.setContent(message.getContent() != null ? message.getContent() : "");
+            entity.setType(message.getType());
+            entity.setMessageTime(message.getTimestamp() != null ? message.getTimestamp() : LocalDateTime.now());
+            entities.add(entity);
+        }
+        return entities;
+    }
+
+    private MessageDTO toDTO(ConversationMessage entity) {
+        MessageDTO dto = new MessageDTO();
+        dto.setId(entity.getMessageUid());
+        dto.setContent(entity.getContent());
+        dto.setType(entity.getType());
+        dto.setTimestamp(entity.getMessageTime());
+        return dto;
+    }
+
+}
\ No newline at end of file
@@ -1,20 +1,34 @@
 package edu.haut.baoxinyang.server.service.impl;
 
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.haut.baoxinyang.server.common.ConversationContentCodec;
+import edu.haut.baoxinyang.server.dto.MessageDTO;
+import edu.haut.baoxinyang.server.dto.admin.ContentMigrationReportDTO;
 import edu.haut.baoxinyang.server.entity.Conversation;
 import edu.haut.baoxinyang.server.mapper.ConversationMapper;
 import edu.haut.baoxinyang.server.service.ConversationService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 对话Service实现类
  */
+@Slf4j
 @Service
+@RequiredArgsConstructor
 public class ConversationServiceImpl extends ServiceImpl<ConversationMapper, Conversation> implements ConversationService {
     
+    private final ObjectMapper objectMapper;
+    private final ConversationContentCodec contentCodec;
+    
     @Override
     public List<Conversation> getByUserId(Long userId) {
         LambdaQueryWrapper<Conversation> wrapper = new LambdaQueryWrapper<>();
@@ -23,6 +37,18 @@ public class ConversationServiceImpl extends ServiceImpl<ConversationMapper, Con
         return baseMapper.selectList(wrapper);
     }
     
+    @Override
+    public List<Conversation> getListByUserId(Long userId) {
+        LambdaQueryWrapper<Conversation> wrapper = new LambdaQueryWrapper<>();
+        wrapper.select(Conversation::getId, Conversation::getUid, Conversation::getUserId, Conversation::getAgentId,
+                        Conversation::getIsFinished, Conversation::getPrescriptionId,
+                        Conversation::getLastMessagePreview, Conversation::getMessageCount, Conversation::getLastMessageTime,
+                        Conversation::getCreateTime, Conversation::getUpdateTime)
+                .eq(Conversation::getUserId, userId)
+                .orderByDesc(Conversation::getUpdateTime);
+        return baseMapper.selectList(wrapper);
+    }
+    
     @Override
     public Conversation getByUid(String uid) {
         LambdaQueryWrapper<Conversation> wrapper = new LambdaQueryWrapper<>();
@@ -40,4 +66,93 @@ public class ConversationServiceImpl extends ServiceImpl<ConversationMapper, Con
         return baseMapper.selectList(wrapper);
     }
     
+    @Override
+    public ContentMigrationReportDTO compressLegacyContent(int batchSize, int limit) {
+        ContentMigrationReportDTO report = new ContentMigrationReportDTO();
+        long start = System.nanoTime();
+        long[] codecNanos = new long[2];
+        long lastId = 0;
+        
+        while (limit <= 0 || report.getScanned() < limit) {
+            // 按ID分批读取，只取仍为JSON格式且有内容的对话
+            LambdaQueryWrapper<Conversation> wrapper = new LambdaQueryWrapper<>();
+            wrapper.select(Conversation::getId, Conversation::getContent)
+                    .eq(Conversation::getContentFormat, ConversationContentCodec.FORMAT_JSON)
+                    .gt(Conversation::getId, lastId)
+                    .apply("JSON_LENGTH(content) > 0")
+                    .orderByAsc(Conversation::getId)
+                    .last("LIMIT " + Math.max(batchSize, 1));
+            List<Conversation> batch = baseMapper.selectList(wrapper);
+            if (batch.isEmpty()) {
+                break;
+            }
+            
+            for (Conversation conversation : batch) {
+                lastId = conversation.getId();
+                report.setScanned(report.getScanned() + 1);
+                compressContent(conversation, report, codecNanos);
+                if (limit > 0 && report.getScanned() >= limit) {
+                    break;
+                }
+            }
+        }
+        
+        // 累加纳秒后再换算，逐行截断为毫秒会把小对话的耗时都算成0
+        report.setEncodeMillis(TimeUnit.NANOSECONDS.toMillis(codecNanos[0]));
+        report.setDecodeMillis(TimeUnit.NANOSECONDS.toMillis(codecNanos[1]));
+        report.setSavedBytes(report.getJsonBytes() - report.getEncodedBytes());
+        report.setCompressionRatio(report.getJsonBytes() > 0 ? (double) report.getEncodedBytes() / report.getJsonBytes() : 0);
+        report.setElapsedMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        log.info("对话内容压缩迁移完成: {}", report);
+        return report;
+    }
+    
+    /**
+     * 转换单个对话的内容，解码校验通过且确实变小后才写入
+     * @param codecNanos 累计的编码和解码耗时（纳秒）
+     */
+    private void compressContent(Conversation conversation, ContentMigrationReportDTO report, long[] codecNanos) {
+        try {
+            String json = conversation.getContent();
+            int jsonBytes = json.getBytes(StandardCharsets.UTF_8).length;
+            List<MessageDTO> messages = objectMapper.readValue(json,
+                    objectMapper.getTypeFactory().constructCollectionType(List.class, MessageDTO.class));
+            
+            long encodeStart = System.nanoTime();
+            byte[] blob = contentCodec.encode(messages, jsonBytes);
+            long decodeStart = System.nanoTime();
+            List<MessageDTO> decoded = contentCodec.decode(blob);
+            long decodeEnd = System.nanoTime();
+            codecNanos[0] += decodeStart - encodeStart;
+            codecNanos[1] += decodeEnd - decodeStart;
+            
+            if (!decoded.equals(messages)) {
+                report.setFailed(report.getFailed() + 1);
+                log.error("对话内容压缩后解码不一致: conversationId={}", conversation.getId());
+                return;
+            }
+            if (blob.length >= jsonBytes) {
+                report.setSkipped(report.getSkipped() + 1);
+                return;
+            }
+            
+            // 显式保留update_time，迁移不影响对话列表排序
+            LambdaUpdateWrapper<Conversation> wrapper = new LambdaUpdateWrapper<>();
+            wrapper.eq(Conversation::getId, conversation.getId())
+                    .eq(Conversation::getContentFormat, ConversationContentCodec.FORMAT_JSON)
+                    .set(Conversation::getContentBlob, blob)
+                    .set(Conversation::getContentFormat, ConversationContentCodec.FORMAT_SMILE_DEFLATE)
+                    .set(Conversation::getContent, "[]")
+                    .setSql("update_time = update_time");
+            if (baseMapper.update(null, wrapper) > 0) {
+                report.setConverted(report.getConverted() + 1);
+                report.setJsonBytes(report.getJsonBytes() + jsonBytes);
+                report.setEncodedBytes(report.getEncodedBytes() + blob.length);
+            }
+        } catch (Exception e) {
+            report.setFailed(report.getFailed() + 1);
+            log.error("压缩对话内容失败: conversationId={}, error={}", conversation.getId(), e.getMessage());
+        }
+    }
+    
 } 
\ No newline at end of file
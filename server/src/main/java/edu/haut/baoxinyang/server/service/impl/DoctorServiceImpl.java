@@ -2,14 +2,14 @@ package edu.haut.baoxinyang.server.service.impl;
 
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import edu.haut.baoxinyang.server.assembler.DtoAssembler;
+import edu.haut.baoxinyang.server.cache.ConversationCache;
 import edu.haut.baoxinyang.server.dto.ConversationDetailDTO;
-import edu.haut.baoxinyang.server.dto.MessageDTO;
+import edu.haut.baoxinyang.server.dto.MessagePageDTO;
 import edu.haut.baoxinyang.server.dto.PrescriptionDTO;
 import edu.haut.baoxinyang.server.dto.StatsDTO;
 import edu.haut.baoxinyang.server.entity.*;
 import edu.haut.baoxinyang.server.service.*;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeanUtils;
@@ -35,10 +35,12 @@ public class DoctorServiceImpl implements DoctorService {
     private final UserService userService;
     private final PrescriptionService prescriptionService;
     private final ConversationService conversationService;
+    private final ConversationMessageService conversationMessageService;
+    private final ConversationCache conversationCache;
     private final MedicalDirectionService medicalDirectionService;
     private final AgentService agentService;
     private final PasswordEncoder passwordEncoder;
-    private final ObjectMapper objectMapper;
+    private final DtoAssembler dtoAssembler;
 
     @Override
     public Map<String, Object> getPrescriptions(
@@ -100,47 +102,18 @@ public class DoctorServiceImpl implements DoctorService {
         Page<Prescription> resultPage = prescriptionService.page(prescriptionPage, queryWrapper);
         
         // 转换为DTO
-        List<PrescriptionDTO> prescriptionDTOs = resultPage.getRecords().stream()
+        List<PrescriptionDTO> pageDTOs = resultPage.getRecords().stream()
                 .map(prescription -> {
                     PrescriptionDTO dto = new PrescriptionDTO();
                     BeanUtils.copyProperties(prescription, dto);
-                    
-                    // 获取用户名
-                    User user = userService.getById(prescription.getUserId());
-                    if (user != null) {
-                        dto.setUserName(user.getRealName());
-                    }
-                    
-                    // 获取智能体名称
-                    Agent agent = agentService.getById(prescription.getAgentId());
-                    if (agent != null) {
-                        dto.setAgentName(agent.getName());
-                    }
-                    
-                    // 获取医疗方向名称
-                    MedicalDirection direction = medicalDirectionService.getById(prescription.getDirectionId());
-                    if (direction != null) {
-                        dto.setDirectionName(direction.getName());
-                    }
-                    
-                    // 获取审核医生姓名
-                    if (prescription.getReviewerId() != null) {
-                        User reviewer = userService.getById(prescription.getReviewerId());
-                        if (reviewer != null) {
-                            dto.setReviewerName(reviewer.getRealName());
-                        }
-                    }
-                    
-                    // 查询关联的对话ID
-                    LambdaQueryWrapper<Conversation> conversationWrapper = new LambdaQueryWrapper<>();
-                    conversationWrapper.eq(Conversation::getPrescriptionId, prescription.getId());
-                    Conversation conversation = conversationService.getOne(conversationWrapper);
-                    if (conversation != null) {
-                        dto.setConversationId(conversation.getId());
-                    }
-                    
                     return dto;
                 })
+                .collect(Collectors.toList());
+        
+        // 批量填充关联信息
+        dtoAssembler.fillPrescriptions(pageDTOs);
+        
+        List<PrescriptionDTO> prescriptionDTOs = pageDTOs.stream()
                 .filter(dto -> {
                     // 如果有关键词，在DTO层面过滤
                     if (!StringUtils.hasText(keyword)) {
@@ -184,43 +157,10 @@ public class DoctorServiceImpl implements DoctorService {
             return null;
         }
         
-        // 转换为DTO
+        // 转换为DTO并填充关联信息
         PrescriptionDTO dto = new PrescriptionDTO();
         BeanUtils.copyProperties(prescription, dto);
-        
-        // 获取用户名
-        User user = userService.getById(prescription.getUserId());
-        if (user != null) {
-            dto.setUserName(user.getRealName());
-        }
-        
-        // 获取智能体名称
-        Agent agent = agentService.getById(prescription.getAgentId());
-        if (agent != null) {
-            dto.setAgentName(agent.getName());
-        }
-        
-        // 获取医疗方向名称
-        MedicalDirection direction = medicalDirectionService.getById(prescription.getDirectionId());
-        if (direction != null) {
-            dto.setDirectionName(direction.getName());
-        }
-        
-        // 获取审核医生姓名
-        if (prescription.getReviewerId() != null) {
-            User reviewer = userService.getById(prescription.getReviewerId());
-            if (reviewer != null) {
-                dto.setReviewerName(reviewer.getRealName());
-            }
-        }
-        
-        // 查询关联的对话ID
-        LambdaQueryWrapper<Conversation> conversationWrapper = new LambdaQueryWrapper<>();
-        conversationWrapper.eq(Conversation::getPrescriptionId, prescription.getId());
-        Conversation conversation = conversationService.getOne(conversationWrapper);
-        if (conversation != null) {
-            dto.setConversationId(conversation.getId());
-        }
+        dtoAssembler.fillPrescriptions(List.of(dto));
         
         return dto;
     }
@@ -269,7 +209,10 @@ public class DoctorServiceImpl implements DoctorService {
     }
 
     @Override
-    public ConversationDetailDTO getConversationDetail(Long conversationId, Long doctorId) {
+    public ConversationDetailDTO getConversationDetail(Long conversationId, Long doctorId, String before, int limit) {
+        // 先写入缓存中尚未落库的消息，再获取对话
+        conversationCache.flush(conversationId);
+        
         // 获取对话
         Conversation conversation = conversationService.getById(conversationId);
         if (conversation == null) {
@@ -320,34 +263,14 @@ public class DoctorServiceImpl implements DoctorService {
             }
         }
         
-        // 解析对话内容
-        List<MessageDTO> messages = parseConversationContent(conversation.getContent());
-        dto.setMessages(messages);
+        // 从消息表读取一页消息，更早的消息由前端按需加载
+        MessagePageDTO page = conversationMessageService.pageMessages(conversation, before, limit);
+        dto.setMessages(page.getMessages());
+        dto.setMessageCount(page.getTotal());
+        dto.setHasMore(page.getHasMore());
         
         return dto;
     }
-    
-    /**
-     * 解析对话内容JSON字符串为消息列表
-     * @param content 对话内容JSON字符串
-     * @return 消息列表
-     */
-    private List<MessageDTO> parseConversationContent(String content) {
-        List<MessageDTO> messages = new ArrayList<>();
-        if (content == null || content.isEmpty()) {
-            return messages;
-        }
-        
-        try {
-            // 假设content是JSON数组格式的字符串
-            messages = objectMapper.readValue(content, 
-                    objectMapper.getTypeFactory().constructCollectionType(List.class, MessageDTO.class));
-        } catch (JsonProcessingException e) {
-            log.error("解析对话内容失败: {}", e.getMessage());
-        }
-        
-        return messages;
-    }
 
     @Override
     public StatsDTO getDashboardStats(Long doctorId) {
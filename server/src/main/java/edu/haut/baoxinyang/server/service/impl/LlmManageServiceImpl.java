@@ -4,6 +4,10 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import edu.haut.baoxinyang.server.config.LlmApiConfig;
 import edu.haut.baoxinyang.server.service.LlmManageService;
+import edu.haut.baoxinyang.server.service.llm.JsonRequestBody;
+import edu.haut.baoxinyang.server.service.llm.LlmAnswerCache;
+import edu.haut.baoxinyang.server.service.llm.LlmBackendPool;
+import edu.haut.baoxinyang.server.service.llm.LlmHttpClientRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.*;
@@ -11,7 +15,6 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.util.*;
-import java.util.concurrent.TimeUnit;
 
 /**
  * LLM后端管理服务实现类
@@ -21,24 +24,45 @@ import java.util.concurrent.TimeUnit;
 @RequiredArgsConstructor
 public class LlmManageServiceImpl implements LlmManageService {
     
+    /**
+     * 精确查询数据库的路由键
+     */
+    private static final String PRECISE_ROUTE_KEY = "precise";
+    
     private final LlmApiConfig config;
+    private final LlmHttpClientRegistry httpClientRegistry;
+    private final LlmBackendPool backendPool;
+    private final LlmAnswerCache answerCache;
     private final ObjectMapper objectMapper;
     
     /**
-     * 创建OkHttpClient实例
+     * 获取后台管理共享的OkHttpClient
      */
     private OkHttpClient getHttpClient() {
-        return new OkHttpClient.Builder()
-                .connectTimeout(config.getConnectTimeout(), TimeUnit.MILLISECONDS)
-                .readTimeout(config.getReadTimeout(), TimeUnit.MILLISECONDS)
-                .writeTimeout(config.getWriteTimeout(), TimeUnit.MILLISECONDS)
-                .build();
+        return httpClientRegistry.getManageClient();
+    }
+    
+    /**
+     * 向量数据库API地址，同一命名空间固定路由到同一后端实例
+     */
+    private String vectorUrl(String namespace) {
+        return config.getVectorUrl(backendPool.route(namespace));
+    }
+    
+    /**
+     * 精确查询数据库API地址
+     * 条目的修改和删除只知道条目UID，无法按类别路由，因此类别和条目都按固定键路由到同一后端实例
+     */
+    private String preciseUrl() {
+        return config.getPreciseUrl(backendPool.route(PRECISE_ROUTE_KEY));
     }
     
     /**
-     * JSON媒体类型
+     * 提示词模板API地址，同一模板固定路由到同一后端实例
      */
-    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+    private String templateUrl(String templateId) {
+        return config.getTemplateUrl(backendPool.route(templateId));
+    }
     
     /**
      * 执行GET请求
@@ -56,8 +80,7 @@ public class LlmManageServiceImpl implements LlmManageService {
                     return null;
                 }
                 
-                String responseBody = response.body().string();
-                return objectMapper.readValue(responseBody, typeReference);
+                return objectMapper.readValue(response.body().byteStream(), typeReference);
             }
         } catch (Exception e) {
             log.error("执行GET请求异常: {}", url, e);
@@ -70,8 +93,7 @@ public class LlmManageServiceImpl implements LlmManageService {
      */
     private <T> T executePostRequest(String url, Object requestBody, TypeReference<T> typeReference) {
         try {
-            String jsonBody = objectMapper.writeValueAsString(requestBody);
-            RequestBody body = RequestBody.create(jsonBody, JSON);
+            RequestBody body = JsonRequestBody.of(objectMapper, requestBody);
             
             Request request = new Request.Builder()
                     .url(url)
@@ -84,8 +106,7 @@ public class LlmManageServiceImpl implements LlmManageService {
                     return null;
                 }
                 
-                String responseBody = response.body().string();
-                return objectMapper.readValue(responseBody, typeReference);
+                return objectMapper.readValue(response.body().byteStream(), typeReference);
             }
         } catch (Exception e) {
             log.error("执行POST请求异常: {}", url, e);
@@ -98,8 +119,7 @@ public class LlmManageServiceImpl implements LlmManageService {
      */
     private <T> T executePutRequest(String url, Object requestBody, TypeReference<T> typeReference) {
         try {
-            String jsonBody = objectMapper.writeValueAsString(requestBody);
-            RequestBody body = RequestBody.create(jsonBody, JSON);
+            RequestBody body = JsonRequestBody.of(objectMapper, requestBody);
             
             Request request = new Request.Builder()
                     .url(url)
@@ -112,8 +132,7 @@ public class LlmManageServiceImpl implements LlmManageService {
                     return null;
                 }
                 
-                String responseBody = response.body().string();
-                return objectMapper.readValue(responseBody, typeReference);
+                return objectMapper.readValue(response.body().byteStream(), typeReference);
             }
         } catch (Exception e) {
             log.error("执行PUT请求异常: {}", url, e);
@@ -144,7 +163,7 @@ public class LlmManageServiceImpl implements LlmManageService {
     
     @Override
     public List<String> getVectorNamespaces() {
-        String url = config.getVectorUrl() + "/namespaces";
+        String url = vectorUrl(null) + "/namespaces";
         
         Map<String, Object> result = executeGetRequest(url, new TypeReference<Map<String, Object>>() {});
         if (result != null && "success".equals(result.get("status"))) {
@@ -160,7 +179,7 @@ public class LlmManageServiceImpl implements LlmManageService {
     
     @Override
     public List<Map<String, Object>> getVectorDocuments(String namespace) {
-        String url = config.getVectorUrl() + "/documents/" + namespace;
+        String url = vectorUrl(namespace) + "/documents/" + namespace;
         
         Map<String, Object> result = executeGetRequest(url, new TypeReference<Map<String, Object>>() {});
         if (result != null && "success".equals(result.get("status"))) {
@@ -176,7 +195,7 @@ public class LlmManageServiceImpl implements LlmManageService {
     
     @Override
     public Map<String, Object> uploadVectorDocument(MultipartFile file, String namespace, Integer chunkSize, Integer chunkOverlap) {
-        String url = config.getVectorUrl() + "/upload";
+        String url = vectorUrl(namespace) + "/upload";
         
         try {
             OkHttpClient client = getHttpClient();
@@ -213,30 +232,36 @@ public class LlmManageServiceImpl implements LlmManageService {
                     return null;
                 }
                 
-                String responseBody = response.body().string();
-                return objectMapper.readValue(responseBody, new TypeReference<Map<String, Object>>() {});
+                return objectMapper.readValue(response.body().byteStream(), new TypeReference<Map<String, Object>>() {});
             }
         } catch (Exception e) {
             log.error("上传文档异常: {}", url, e);
             return null;
+        } finally {
+            // 后端数据修改完成后再失效，修改期间到达的请求不会再用旧数据写回缓存
+            answerCache.invalidateNamespace(namespace);
         }
     }
     
     @Override
     public boolean deleteVectorDocument(String namespace, String docId) {
-        String url = config.getVectorUrl() + "/document?namespace=" + namespace + "&doc_id=" + docId;
-        return executeDeleteRequest(url);
+        String url = vectorUrl(namespace) + "/document?namespace=" + namespace + "&doc_id=" + docId;
+        boolean deleted = executeDeleteRequest(url);
+        answerCache.invalidateNamespace(namespace);
+        return deleted;
     }
     
     @Override
     public boolean deleteVectorNamespace(String namespace) {
-        String url = config.getVectorUrl() + "/namespace/" + namespace;
-        return executeDeleteRequest(url);
+        String url = vectorUrl(namespace) + "/namespace/" + namespace;
+        boolean deleted = executeDeleteRequest(url);
+        answerCache.invalidateNamespace(namespace);
+        return deleted;
     }
     
     @Override
     public boolean createVectorNamespace(String namespace) {
-        String url = config.getVectorUrl() + "/namespace";
+        String url = vectorUrl(namespace) + "/namespace";
         
         try {
             OkHttpClient client = getHttpClient();
@@ -257,8 +282,7 @@ public class LlmManageServiceImpl implements LlmManageService {
                     return false;
                 }
                 
-                String responseBody = response.body().string();
-                Map<String, Object> result = objectMapper.readValue(responseBody, new TypeReference<Map<String, Object>>() {});
+                Map<String, Object> result = objectMapper.readValue(response.body().byteStream(), new TypeReference<Map<String, Object>>() {});
                 return "success".equals(result.get("status"));
             }
         } catch (Exception e) {
@@ -271,7 +295,7 @@ public class LlmManageServiceImpl implements LlmManageService {
     
     @Override
     public List<Map<String, Object>> getPreciseCategories() {
-        String url = config.getPreciseUrl() + "/categories";
+        String url = preciseUrl() + "/categories";
         
         Map<String, Object> result = executeGetRequest(url, new TypeReference<Map<String, Object>>() {});
         if (result != null && Boolean.TRUE.equals(result.get("success"))) {
@@ -287,7 +311,7 @@ public class LlmManageServiceImpl implements LlmManageService {
     
     @Override
     public Map<String, Object> createPreciseCategory(String name) {
-        String url = config.getPreciseUrl() + "/category";
+        String url = preciseUrl() + "/category";
         
         Map<String, String> requestBody = new HashMap<>();
         requestBody.put("name", name);
@@ -304,12 +328,13 @@ public class LlmManageServiceImpl implements LlmManageService {
     
     @Override
     public Map<String, Object> updatePreciseCategory(String categoryUid, String name) {
-        String url = config.getPreciseUrl() + "/category/" + categoryUid;
+        String url = preciseUrl() + "/category/" + categoryUid;
         
         Map<String, String> requestBody = new HashMap<>();
         requestBody.put("name", name);
         
         Map<String, Object> result = executePutRequest(url, requestBody, new TypeReference<Map<String, Object>>() {});
+        answerCache.invalidateCategory(categoryUid);
         if (result != null && Boolean.TRUE.equals(result.get("success"))) {
             @SuppressWarnings("unchecked")
             Map<String, Object> data = (Map<String, Object>) result.get("data");
@@ -321,13 +346,15 @@ public class LlmManageServiceImpl implements LlmManageService {
     
     @Override
     public boolean deletePreciseCategory(String categoryUid) {
-        String url = config.getPreciseUrl() + "/category/" + categoryUid;
-        return executeDeleteRequest(url);
+        String url = preciseUrl() + "/category/" + categoryUid;
+        boolean deleted = executeDeleteRequest(url);
+        answerCache.invalidateCategory(categoryUid);
+        return deleted;
     }
     
     @Override
     public Map<String, Object> getPreciseEntries(String categoryUid) {
-        String url = config.getPreciseUrl() + "/entries/" + categoryUid;
+        String url = preciseUrl() + "/entries/" + categoryUid;
         
         Map<String, Object> result = executeGetRequest(url, new TypeReference<Map<String, Object>>() {});
         if (result != null && Boolean.TRUE.equals(result.get("success"))) {
@@ -342,7 +369,7 @@ public class LlmManageServiceImpl implements LlmManageService {
     @Override
     public Map<String, Object> createPreciseEntry(String categoryUid, String description, String content, 
                                                 List<String> keywords, Integer weight, Boolean isEnabled) {
-        String url = config.getPreciseUrl() + "/entry/" + categoryUid;
+        String url = preciseUrl() + "/entry/" + categoryUid;
         
         Map<String, Object> requestBody = new HashMap<>();
         requestBody.put("description", description);
@@ -356,6 +383,7 @@ public class LlmManageServiceImpl implements LlmManageService {
         }
         
         Map<String, Object> result = executePostRequest(url, requestBody, new TypeReference<Map<String, Object>>() {});
+        answerCache.invalidateCategory(categoryUid);
         if (result != null && Boolean.TRUE.equals(result.get("success"))) {
             @SuppressWarnings("unchecked")
             Map<String, Object> data = (Map<String, Object>) result.get("data");
@@ -368,7 +396,7 @@ public class LlmManageServiceImpl implements LlmManageService {
     @Override
     public Map<String, Object> updatePreciseEntry(String entryUid, String description, String content, 
                                                 List<String> keywords, Integer weight, Boolean isEnabled) {
-        String url = config.getPreciseUrl() + "/entry/" + entryUid;
+        String url = preciseUrl() + "/entry/" + entryUid;
         
         Map<String, Object> requestBody = new HashMap<>();
         if (description != null) {
@@ -388,6 +416,8 @@ public class LlmManageServiceImpl implements LlmManageService {
         }
         
         Map<String, Object> result = executePutRequest(url, requestBody, new TypeReference<Map<String, Object>>() {});
+        // 条目UID无法对应到类别，失效所有使用精确查找的回答
+        answerCache.invalidateCategory(null);
         if (result != null && Boolean.TRUE.equals(result.get("success"))) {
             @SuppressWarnings("unchecked")
             Map<String, Object> data = (Map<String, Object>) result.get("data");
@@ -399,15 +429,17 @@ public class LlmManageServiceImpl implements LlmManageService {
     
     @Override
     public boolean deletePreciseEntry(String entryUid) {
-        String url = config.getPreciseUrl() + "/entry/" + entryUid;
-        return executeDeleteRequest(url);
+        String url = preciseUrl() + "/entry/" + entryUid;
+        boolean deleted = executeDeleteRequest(url);
+        answerCache.invalidateCategory(null);
+        return deleted;
     }
     
     // ========== 提示词模板管理实现 ==========
     
     @Override
     public List<String> getTemplateIds() {
-        String url = config.getTemplateUrl();
+        String url = templateUrl(null);
         
         Map<String, Object> result = executeGetRequest(url, new TypeReference<Map<String, Object>>() {});
         if (result != null && "success".equals(result.get("status"))) {
@@ -423,7 +455,7 @@ public class LlmManageServiceImpl implements LlmManageService {
     
     @Override
     public Map<String, Object> getTemplateDetail(String templateId) {
-        String url = config.getTemplateUrl() + "/" + templateId;
+        String url = templateUrl(templateId) + "/" + templateId;
         
         Map<String, Object> result = executeGetRequest(url, new TypeReference<Map<String, Object>>() {});
         if (result != null && "success".equals(result.get("status"))) {
@@ -437,7 +469,7 @@ public class LlmManageServiceImpl implements LlmManageService {
     
     @Override
     public boolean saveOrUpdateTemplate(String templateId, String description, Map<String, Map<String, Object>> subTemplates) {
-        String url = config.getTemplateUrl() + "/" + templateId;
+        String url = templateUrl(templateId) + "/" + templateId;
         
         Map<String, Object> requestBody = new HashMap<>();
         requestBody.put("description", description);
@@ -457,13 +489,16 @@ public class LlmManageServiceImpl implements LlmManageService {
             // 创建模板
             result = executePostRequest(url, requestBody, typeReference);
         }
+        answerCache.invalidateTemplate(templateId);
         
         return result != null && "success".equals(result.get("status"));
     }
     
     @Override
     public boolean deleteTemplate(String templateId) {
-        String url = config.getTemplateUrl() + "/" + templateId;
-        return executeDeleteRequest(url);
+        String url = templateUrl(templateId) + "/" + templateId;
+        boolean deleted = executeDeleteRequest(url);
+        answerCache.invalidateTemplate(templateId);
+        return deleted;
     }
 } 
\ No newline at end of file
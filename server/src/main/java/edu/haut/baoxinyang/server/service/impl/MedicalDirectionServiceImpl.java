@@ -2,16 +2,36 @@ package edu.haut.baoxinyang.server.service.impl;
 
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import edu.haut.baoxinyang.server.cache.ReferenceDataCache;
+import edu.haut.baoxinyang.server.common.StatsProvider;
+import edu.haut.baoxinyang.server.config.CacheConfig;
 import edu.haut.baoxinyang.server.entity.MedicalDirection;
 import edu.haut.baoxinyang.server.mapper.MedicalDirectionMapper;
 import edu.haut.baoxinyang.server.service.MedicalDirectionService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
 /**
  * 医疗方向Service实现类
+ * 按ID的查询走本地缓存，写操作立即失效对应缓存
  */
+@Slf4j
 @Service
-public class MedicalDirectionServiceImpl extends ServiceImpl<MedicalDirectionMapper, MedicalDirection> implements MedicalDirectionService {
+public class MedicalDirectionServiceImpl extends ServiceImpl<MedicalDirectionMapper, MedicalDirection> implements MedicalDirectionService, StatsProvider {
+    
+    private final ReferenceDataCache<MedicalDirection> cache;
+    
+    public MedicalDirectionServiceImpl(CacheConfig cacheConfig) {
+        this.cache = new ReferenceDataCache<>("medicalDirection", cacheConfig.getReference(),
+                ids -> baseMapper.selectBatchIds(ids), MedicalDirection::new);
+    }
     
     @Override
     public MedicalDirection getByUid(String uid) {
@@ -20,4 +40,58 @@ public class MedicalDirectionServiceImpl extends ServiceImpl<MedicalDirectionMap
         return baseMapper.selectOne(wrapper);
     }
     
+    @Override
+    public MedicalDirection getById(Serializable id) {
+        return cache.get(toLong(id));
+    }
+    
+    @Override
+    public List<MedicalDirection> listByIds(Collection<? extends Serializable> idList) {
+        return cache.getAll(idList.stream().map(this::toLong).collect(Collectors.toList()));
+    }
+    
+    @Override
+    public boolean updateById(MedicalDirection entity) {
+        boolean result = super.updateById(entity);
+        cache.invalidate(entity.getId());
+        return result;
+    }
+    
+    @Override
+    public boolean removeById(Serializable id) {
+        boolean result = super.removeById(id);
+        cache.invalidate(toLong(id));
+        return result;
+    }
+    
+    /**
+     * 轮询update_time，发现其他节点对医疗方向的修改
+     */
+    @Scheduled(fixedDelayString = "${cache.reference.poll-interval:30000}",
+            initialDelayString = "${cache.reference.poll-interval:30000}")
+    public void syncCache() {
+        try {
+            LambdaQueryWrapper<MedicalDirection> wrapper = new LambdaQueryWrapper<>();
+            wrapper.select(MedicalDirection::getId, MedicalDirection::getUpdateTime)
+                    .ge(cache.getWatermark() != null, MedicalDirection::getUpdateTime, cache.getWatermark());
+            cache.sync(baseMapper.selectList(wrapper), baseMapper.selectCount(null));
+        } catch (Exception e) {
+            log.warn("同步医疗方向缓存失败: {}", e.getMessage());
+        }
+    }
+    
+    @Override
+    public String getStatsName() {
+        return "medicalDirectionCache";
+    }
+    
+    @Override
+    public Map<String, Object> getStats() {
+        return cache.stats();
+    }
+    
+    private Long toLong(Serializable id) {
+        return id instanceof Number ? ((Number) id).longValue() : Long.valueOf(id.toString());
+    }
+    
 } 
\ No newline at end of file
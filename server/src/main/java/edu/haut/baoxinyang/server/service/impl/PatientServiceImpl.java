@@ -1,26 +1,36 @@
 package edu.haut.baoxinyang.server.service.impl;
 
 import cn.hutool.core.util.IdUtil;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.haut.baoxinyang.server.assembler.DtoAssembler;
+import edu.haut.baoxinyang.server.cache.ConversationCache;
 import edu.haut.baoxinyang.server.dto.*;
 import edu.haut.baoxinyang.server.dto.llm.LlmRequestDTO;
 import edu.haut.baoxinyang.server.dto.llm.LlmResponseDTO;
 import edu.haut.baoxinyang.server.entity.*;
 import edu.haut.baoxinyang.server.service.*;
+import edu.haut.baoxinyang.server.service.llm.AgentProfile;
+import edu.haut.baoxinyang.server.service.llm.AgentProfileCache;
+import edu.haut.baoxinyang.server.service.llm.ConversationSummarizer;
 import edu.haut.baoxinyang.server.service.llm.LlmService;
 import edu.haut.baoxinyang.server.service.llm.SseCallback;
+import edu.haut.baoxinyang.server.service.llm.StreamHandle;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeanUtils;
+import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import org.springframework.transaction.support.TransactionTemplate;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -36,10 +46,17 @@ public class PatientServiceImpl implements PatientService {
     private final AgentService agentService;
     private final UserService userService;
     private final ConversationService conversationService;
+    private final ConversationMessageService conversationMessageService;
+    private final ConversationCache conversationCache;
     private final PrescriptionService prescriptionService;
     private final MedicalDirectionService medicalDirectionService;
     private final LlmService llmService;
-    private final ObjectMapper objectMapper;
+    private final AgentProfileCache agentProfileCache;
+    private final ConversationSummarizer conversationSummarizer;
+    private final DtoAssembler dtoAssembler;
+    private final TransactionTemplate transactionTemplate;
+    // Spring Boot自动配置的任务线程池，按参数名注入，启用虚拟线程时为虚拟线程执行器
+    private final AsyncTaskExecutor applicationTaskExecutor;
     
     @Override
     public List<AgentDTO> getAllAgents() {
@@ -47,70 +64,33 @@ public class PatientServiceImpl implements PatientService {
         List<Agent> agents = agentService.list();
         
         // 转换为DTO
-        return agents.stream().map(agent -> {
+        List<AgentDTO> dtos = agents.stream().map(agent -> {
             AgentDTO dto = new AgentDTO();
             BeanUtils.copyProperties(agent, dto);
-            
-            // 获取医疗方向
-            if (agent.getDirectionId() != null) {
-                MedicalDirection direction = medicalDirectionService.getById(agent.getDirectionId());
-                if (direction != null) {
-                    dto.setDirectionName(direction.getName());
-                    dto.setDirectionDescription(direction.getDescription());
-                }
-            }
-            
             return dto;
         }).collect(Collectors.toList());
+        
+        // 批量填充医疗方向
+        dtoAssembler.fillAgents(dtos);
+        return dtos;
     }
     
     @Override
     public List<ConversationDTO> getConversationsByUserId(Long userId) {
-        // 获取用户的所有对话
-        List<Conversation> conversations = conversationService.getByUserId(userId);
+        // 获取用户的所有对话，只查询列表需要的列，预览由追加消息时维护
+        List<Conversation> conversations = conversationService.getListByUserId(userId);
         
         // 转换为DTO
-        return conversations.stream().map(conversation -> {
+        List<ConversationDTO> dtos = conversations.stream().map(conversation -> {
             ConversationDTO dto = new ConversationDTO();
             BeanUtils.copyProperties(conversation, dto);
             
-            // 设置智能体名称和医疗方向名称
-            if (conversation.getAgentId() != null) {
-                Agent agent = agentService.getById(conversation.getAgentId());
-                if (agent != null) {
-                    dto.setAgentName(agent.getName());
-                    
-                    // 设置医疗方向名称
-                    if (agent.getDirectionId() != null) {
-                        MedicalDirection direction = medicalDirectionService.getById(agent.getDirectionId());
-                        if (direction != null) {
-                            dto.setDirectionName(direction.getName());
-                        } else {
-                            dto.setDirectionName("未知科室");
-                        }
-                    } else {
-                        dto.setDirectionName("未知科室");
-                    }
-                } else {
-                    dto.setAgentName("未知助手");
-                    dto.setDirectionName("未知科室");
-                }
-            } else {
-                dto.setAgentName("未知助手");
-                dto.setDirectionName("未知科室");
-            }
-            
-            // 解析对话内容，提取最后一条消息作为预览
+            // 提取最后一条消息作为预览
             String lastMessage = "无消息内容";
-            List<MessageDTO> messages = parseConversationContent(conversation.getContent());
-            if (!messages.isEmpty()) {
-                // 获取最后一条消息
-                MessageDTO lastMsg = messages.get(messages.size() - 1);
-                if (lastMsg != null && lastMsg.getContent() != null && !lastMsg.getContent().isEmpty()) {
-                    // 截取最后一条消息的前50个字符作为预览
-                    String content = lastMsg.getContent();
-                    lastMessage = content.length() > 50 ? content.substring(0, 50) + "..." : content;
-                }
+            String content = conversation.getLastMessagePreview();
+            if (content != null && !content.isEmpty()) {
+                // 截取最后一条消息的前50个字符作为预览
+                lastMessage = content.length() > 50 ? content.substring(0, 50) + "..." : content;
             }
             dto.setLastMessage(lastMessage);
             
@@ -124,11 +104,16 @@ public class PatientServiceImpl implements PatientService {
             
             return dto;
         }).collect(Collectors.toList());
+        
+        // 批量填充智能体名称和医疗方向名称
+        dtoAssembler.fillConversations(dtos);
+        return dtos;
     }
     
     @Override
-    public ConversationDetailDTO getConversationDetail(Long conversationId, Long userId) {
-        // 获取对话
+    public ConversationDetailDTO getConversationDetail(Long conversationId, Long userId, String before, int limit) {
+        // 先写入缓存中尚未落库的消息，再获取对话
+        conversationCache.flush(conversationId);
         Conversation conversation = conversationService.getById(conversationId);
         if (conversation == null || !conversation.getUserId().equals(userId)) {
             return null;
@@ -156,57 +141,25 @@ public class PatientServiceImpl implements PatientService {
             }
         }
         
-        // 解析对话内容（这里简化处理，实际需要解析conversation.getContent()）
-        List<MessageDTO> messages = parseConversationContent(conversation.getContent());
-        dto.setMessages(messages);
+        // 从消息表读取一页消息，更早的消息由前端按需加载
+        MessagePageDTO page = conversationMessageService.pageMessages(conversation, before, limit);
+        dto.setMessages(page.getMessages());
+        dto.setMessageCount(page.getTotal());
+        dto.setHasMore(page.getHasMore());
         
         return dto;
     }
     
     /**
-     * 解析对话内容JSON字符串为消息列表
-     * @param content 对话内容JSON字符串
-     * @return 消息列表
-     */
-    private List<MessageDTO> parseConversationContent(String content) {
-        List<MessageDTO> messages = new ArrayList<>();
-        if (content == null || content.isEmpty()) {
-            return messages;
-        }
-        
-        try {
-            // 假设content是JSON数组格式的字符串
-            messages = objectMapper.readValue(content, 
-                    objectMapper.getTypeFactory().constructCollectionType(List.class, MessageDTO.class));
-        } catch (JsonProcessingException e) {
-            log.error("解析对话内容失败: {}", e.getMessage());
-        }
-        
-        return messages;
-    }
-    
-    /**
-     * 将消息列表序列化为JSON字符串
-     * @param messages 消息列表
-     * @return JSON字符串
+     * 不在事务中调用LLM，避免模型响应期间长时间占用数据库连接
      */
-    private String serializeMessages(List<MessageDTO> messages) {
-        try {
-            return objectMapper.writeValueAsString(messages);
-        } catch (JsonProcessingException e) {
-            log.error("序列化消息列表失败: {}", e.getMessage());
-            return "[]";
-        }
-    }
-    
     @Override
-    @Transactional(rollbackFor = Exception.class)
-    public ConversationDetailDTO createConversation(Long userId, Long agentId, String firstMessage) {
+    public CompletableFuture<ConversationDetailDTO> createConversationAsync(Long userId, Long agentId, String firstMessage) {
         // 检查用户和智能体是否存在
         User user = userService.getById(userId);
         Agent agent = agentService.getById(agentId);
         if (user == null || agent == null) {
-            return null;
+            return CompletableFuture.completedFuture(null);
         }
         
         // 创建新对话
@@ -227,55 +180,68 @@ public class PatientServiceImpl implements PatientService {
         
         // 调用LLM服务获取智能体回复
         LlmRequestDTO llmRequest = llmService.buildRequest(agent, user, firstMessage, new ArrayList<>());
-        LlmResponseDTO llmResponse = llmService.ask(llmRequest);
-        
-        // 添加智能体回复
-        MessageDTO agentMessage = new MessageDTO();
-        agentMessage.setId(IdUtil.fastSimpleUUID());
-        agentMessage.setContent(llmResponse != null ? llmResponse.getAnswer() : "抱歉，我暂时无法回答您的问题。");
-        agentMessage.setType(1); // 系统消息
-        agentMessage.setTimestamp(LocalDateTime.now());
-        messages.add(agentMessage);
-        
-        // 保存对话内容
-        conversation.setContent(serializeMessages(messages));
-        conversationService.save(conversation);
-        
-        // 转换为DTO
-        ConversationDetailDTO dto = new ConversationDetailDTO();
-        BeanUtils.copyProperties(conversation, dto);
-        dto.setUserName(user.getRealName());
-        dto.setAgentName(agent.getName());
-        
-        // 获取医疗方向
-        MedicalDirection direction = medicalDirectionService.getById(agent.getDirectionId());
-        if (direction != null) {
-            dto.setDirectionName(direction.getName());
-        }
-        
-        dto.setMessages(messages);
-        
-        return dto;
+        // 等待模型响应期间不占用请求线程，响应到达后在任务线程池中写库
+        return llmService.askAsync(llmRequest).thenApplyAsync(llmResponse -> {
+            // 添加智能体回复
+            MessageDTO agentMessage = new MessageDTO();
+            agentMessage.setId(IdUtil.fastSimpleUUID());
+            agentMessage.setContent(llmResponse != null ? llmResponse.getAnswer() : "抱歉，我暂时无法回答您的问题。");
+            agentMessage.setType(1); // 系统消息
+            agentMessage.setTimestamp(LocalDateTime.now());
+            messages.add(agentMessage);
+            
+            // 保存对话，消息逐条写入消息表，content列仅保留给旧数据
+            conversation.setContent("[]");
+            transactionTemplate.executeWithoutResult(status -> {
+                conversationService.save(conversation);
+                conversationMessageService.appendMessages(conversation.getId(), messages);
+            });
+            
+            // 转换为DTO
+            ConversationDetailDTO dto = new ConversationDetailDTO();
+            BeanUtils.copyProperties(conversation, dto);
+            dto.setUserName(user.getRealName());
+            dto.setAgentName(agent.getName());
+            
+            // 获取医疗方向
+            MedicalDirection direction = medicalDirectionService.getById(agent.getDirectionId());
+            if (direction != null) {
+                dto.setDirectionName(direction.getName());
+            }
+            
+            dto.setMessages(messages);
+            dto.setMessageCount(messages.size());
+            dto.setHasMore(false);
+            
+            return dto;
+        }, applicationTaskExecutor);
     }
     
     @Override
-    @Transactional(rollbackFor = Exception.class)
-    public ConversationDetailDTO sendMessage(Long conversationId, Long userId, String message, ConversationRequestDTO advancedOptions) {
+    public ConversationDetailDTO createConversation(Long userId, Long agentId, String firstMessage) {
+        return await(createConversationAsync(userId, agentId, firstMessage));
+    }
+    
+    /**
+     * 分为读取、调用LLM、写入三个阶段，本轮消息追加到对话缓存后由缓存批量落库
+     */
+    @Override
+    public CompletableFuture<ConversationDetailDTO> sendMessageAsync(Long conversationId, Long userId, String message, ConversationRequestDTO advancedOptions) {
         // 获取对话
         Conversation conversation = conversationService.getById(conversationId);
         if (conversation == null || !conversation.getUserId().equals(userId) || conversation.getIsFinished() == 1) {
-            return null;
+            return CompletableFuture.completedFuture(null);
         }
         
         // 获取用户和智能体
         User user = userService.getById(userId);
         Agent agent = agentService.getById(conversation.getAgentId());
         if (user == null || agent == null) {
-            return null;
+            return CompletableFuture.completedFuture(null);
         }
         
-        // 解析现有对话内容
-        List<MessageDTO> messages = parseConversationContent(conversation.getContent());
+        // 读取现有对话内容，活跃对话直接使用缓存
+        List<MessageDTO> messages = conversationCache.getMessages(conversation);
         
         // 添加用户消息
         MessageDTO userMessage = new MessageDTO();
@@ -283,50 +249,70 @@ public class PatientServiceImpl implements PatientService {
         userMessage.setContent(message);
         userMessage.setType(0); // 用户消息
         userMessage.setTimestamp(LocalDateTime.now());
-        messages.add(userMessage);
         
         // 根据对话上下文构建LLM请求
-        LlmRequestDTO llmRequest = buildLlmRequest(agent, user, message, messages.subList(0, messages.size() - 1), advancedOptions);
-        
-        // 调用LLM服务获取智能体回复
-        LlmResponseDTO llmResponse = llmService.ask(llmRequest);
-        
-        // 添加智能体回复
-        MessageDTO agentMessage = new MessageDTO();
-        agentMessage.setId(IdUtil.fastSimpleUUID());
-        agentMessage.setContent(llmResponse != null ? llmResponse.getAnswer() : "抱歉，我暂时无法回答您的问题。");
-        agentMessage.setType(1); // 系统消息
-        agentMessage.setTimestamp(LocalDateTime.now());
-        messages.add(agentMessage);
-        
-        // 更新对话内容
-        conversation.setContent(serializeMessages(messages));
-        conversationService.updateById(conversation);
-        
-        // 构建返回DTO
-        ConversationDetailDTO dto = new ConversationDetailDTO();
-        BeanUtils.copyProperties(conversation, dto);
-        dto.setUserName(user.getRealName());
-        dto.setAgentName(agent.getName());
-        
-        // 获取医疗方向
-        MedicalDirection direction = medicalDirectionService.getById(agent.getDirectionId());
-        if (direction != null) {
-            dto.setDirectionName(direction.getName());
-        }
-        
-        dto.setMessages(messages);
-        
-        return dto;
+        LlmRequestDTO llmRequest = buildLlmRequest(conversationId, agent, user, message, messages, advancedOptions);
+        
+        // 调用LLM服务获取智能体回复，等待模型响应期间不占用请求线程，响应到达后在任务线程池中写库
+        return llmService.askAsync(llmRequest).thenApplyAsync(llmResponse -> {
+            // 添加智能体回复
+            MessageDTO agentMessage = new MessageDTO();
+            agentMessage.setId(IdUtil.fastSimpleUUID());
+            agentMessage.setContent(llmResponse != null ? llmResponse.getAnswer() : "抱歉，我暂时无法回答您的问题。");
+            agentMessage.setType(1); // 系统消息
+            agentMessage.setTimestamp(LocalDateTime.now());
+            
+            // 追加本轮的用户消息和智能体回复，追加前确认对话在调用LLM期间没有被结束；
+            // 检查和追加在对话锁内进行，生成处方时持有同一把锁写入消息并结束对话
+            boolean appended = conversationCache.withConversationLock(conversationId, () -> {
+                LambdaUpdateWrapper<Conversation> wrapper = new LambdaUpdateWrapper<>();
+                wrapper.eq(Conversation::getId, conversationId)
+                        .eq(Conversation::getIsFinished, 0)
+                        .set(Conversation::getUpdateTime, LocalDateTime.now());
+                if (!conversationService.update(wrapper)) {
+                    return false;
+                }
+                conversationCache.append(conversationId, List.of(userMessage, agentMessage));
+                return true;
+            });
+            if (!appended) {
+                log.warn("对话在等待LLM回复期间已结束，丢弃本轮消息: conversationId={}", conversationId);
+                return null;
+            }
+            
+            // 构建返回DTO
+            ConversationDetailDTO dto = new ConversationDetailDTO();
+            BeanUtils.copyProperties(conversation, dto);
+            dto.setUserName(user.getRealName());
+            dto.setAgentName(agent.getName());
+            
+            // 获取医疗方向
+            MedicalDirection direction = medicalDirectionService.getById(agent.getDirectionId());
+            if (direction != null) {
+                dto.setDirectionName(direction.getName());
+            }
+            
+            // 只返回本轮的两条消息，客户端接在已加载的消息之后，更早的消息按需分页加载
+            dto.setMessages(List.of(userMessage, agentMessage));
+            dto.setMessageCount(messages.size() + 2);
+            dto.setHasMore(!messages.isEmpty());
+            
+            return dto;
+        }, applicationTaskExecutor);
     }
     
     @Override
-    public void streamMessage(Long conversationId, Long userId, String message, ConversationRequestDTO advancedOptions, SseCallback callback) {
+    public ConversationDetailDTO sendMessage(Long conversationId, Long userId, String message, ConversationRequestDTO advancedOptions) {
+        return await(sendMessageAsync(conversationId, userId, message, advancedOptions));
+    }
+    
+    @Override
+    public StreamHandle streamMessage(Long conversationId, Long userId, String message, ConversationRequestDTO advancedOptions, SseCallback callback) {
         // 获取对话
         Conversation conversation = conversationService.getById(conversationId);
         if (conversation == null || !conversation.getUserId().equals(userId) || conversation.getIsFinished() == 1) {
             callback.onError(new RuntimeException("对话不存在或无权限访问"));
-            return;
+            return null;
         }
         
         // 获取用户和智能体
@@ -334,59 +320,63 @@ public class PatientServiceImpl implements PatientService {
         Agent agent = agentService.getById(conversation.getAgentId());
         if (user == null || agent == null) {
             callback.onError(new RuntimeException("用户或智能体不存在"));
-            return;
+            return null;
         }
         
-        // 解析现有对话内容
-        List<MessageDTO> messages = parseConversationContent(conversation.getContent());
+        // 读取现有对话内容作为历史
+        List<MessageDTO> history = conversationCache.getMessages(conversation);
         
-        // 添加用户消息
+        // 准备LLM请求，使用高级参数；请求指纹依赖的历史在追加用户消息前确定
+        LlmRequestDTO llmRequest = buildLlmRequest(conversationId, agent, user, message, history, advancedOptions);
+        
+        // 添加用户消息（先只追加用户消息）
         MessageDTO userMessage = new MessageDTO();
         userMessage.setId(IdUtil.fastSimpleUUID());
         userMessage.setContent(message);
         userMessage.setType(0); // 用户消息
         userMessage.setTimestamp(LocalDateTime.now());
-        messages.add(userMessage);
+        conversationCache.append(conversationId, List.of(userMessage));
         
-        // 更新对话内容（先只添加用户消息）
-        conversation.setContent(serializeMessages(messages));
-        conversationService.updateById(conversation);
-        
-        // 预创建智能体消息，使用空内容
+        // 预创建智能体消息，流结束后再追加
         MessageDTO agentMessage = new MessageDTO();
         final String agentMessageId = IdUtil.fastSimpleUUID();
         agentMessage.setId(agentMessageId);
         agentMessage.setContent("");
         agentMessage.setType(1); // 系统消息
         agentMessage.setTimestamp(LocalDateTime.now());
-        messages.add(agentMessage);
-        
-        // 准备LLM请求，使用高级参数
-        LlmRequestDTO llmRequest = buildLlmRequest(agent, user, message, messages.subList(0, messages.size() - 2), advancedOptions);
         
         // 创建一个自定义回调来处理流式消息
         SseCallback streamCallback = new SseCallback() {
             private final StringBuilder fullResponse = new StringBuilder();
+            private boolean saved;
+            
+            /**
+             * 追加智能体消息，每轮只写入一次
+             */
+            private void saveAgentMessage(String content) {
+                if (saved) {
+                    return;
+                }
+                saved = true;
+                agentMessage.setContent(content);
+                conversationCache.append(conversationId, List.of(agentMessage));
+            }
             
             @Override
             public void onEvent(SseEvent event) {
                 try {
-                    if (!event.isLastEvent() && event.getData() != null) {
+                    if (SseCallback.QUEUE_EVENT.equals(event.getEvent())) {
+                        // 排队位置通知不属于回复内容，直接转发
+                        callback.onEvent(event);
+                    } else if (!event.isLastEvent() && event.getData() != null) {
                         // 追加到完整响应中
                         fullResponse.append(event.getData());
                         
                         // 将事件传递给原始回调
                         callback.onEvent(event);
                     } else if (event.isLastEvent()) {
-                        // 更新完整消息
-                        String completeMessage = fullResponse.toString();
-                        
-                        // 更新智能体消息
-                        agentMessage.setContent(completeMessage);
-                        
-                        // 更新对话内容
-                        conversation.setContent(serializeMessages(messages));
-                        conversationService.updateById(conversation);
+                        // 追加完整的智能体消息
+                        saveAgentMessage(fullResponse.toString());
                         
                         // 标记为完成
                         callback.onEvent(event);
@@ -399,18 +389,18 @@ public class PatientServiceImpl implements PatientService {
             
             @Override
             public void onError(Throwable throwable) {
-                log.error("流式请求失败", throwable);
-                
-                // 如果出错，仍然保存已收到的内容
-                if (fullResponse.length() > 0) {
-                    agentMessage.setContent(fullResponse.toString());
+                if (throwable instanceof CancellationException) {
+                    log.info("客户端已断开，停止接收流式响应: conversationId={}", conversationId);
                 } else {
-                    agentMessage.setContent("抱歉，处理您的请求时出现错误。");
+                    log.error("流式请求失败", throwable);
                 }
                 
-                // 更新对话内容
-                conversation.setContent(serializeMessages(messages));
-                conversationService.updateById(conversation);
+                // 如果出错，仍然保存已收到的内容
+                try {
+                    saveAgentMessage(fullResponse.length() > 0 ? fullResponse.toString() : "抱歉，处理您的请求时出现错误。");
+                } catch (Exception e) {
+                    log.error("保存智能体消息失败", e);
+                }
                 
                 // 将错误传递给原始回调
                 callback.onError(throwable);
@@ -423,15 +413,16 @@ public class PatientServiceImpl implements PatientService {
         };
         
         // 发送流式请求
-        llmService.stream(llmRequest, streamCallback);
+        return llmService.stream(llmRequest, streamCallback);
     }
     
     /**
      * 构建LLM请求，支持高级聊天参数
      */
-    private LlmRequestDTO buildLlmRequest(Agent agent, User user, String message, List<MessageDTO> history, ConversationRequestDTO advancedOptions) {
-        // 首先使用默认方法创建基础请求
-        LlmRequestDTO request = llmService.buildRequest(agent, user, message, history);
+    private LlmRequestDTO buildLlmRequest(Long conversationId, Agent agent, User user, String message, List<MessageDTO> history, ConversationRequestDTO advancedOptions) {
+        // 首先使用默认方法创建基础请求，较早的历史消息已有摘要时用摘要代替
+        LlmRequestDTO request = llmService.buildRequest(agent, user, message,
+                conversationSummarizer.compact(conversationId, agent, user, history));
         
         // 如果没有高级选项，直接返回基础请求
         if (advancedOptions == null) {
@@ -468,43 +459,10 @@ public class PatientServiceImpl implements PatientService {
             return null;
         }
         
-        // 转换为DTO
+        // 转换为DTO并填充关联信息
         PrescriptionDTO prescriptionDTO = new PrescriptionDTO();
         BeanUtils.copyProperties(prescription, prescriptionDTO);
-        
-        // 获取智能体名称
-        Agent agent = agentService.getById(prescription.getAgentId());
-        if (agent != null) {
-            prescriptionDTO.setAgentName(agent.getName());
-        }
-        
-        // 获取医疗方向名称
-        MedicalDirection direction = medicalDirectionService.getById(prescription.getDirectionId());
-        if (direction != null) {
-            prescriptionDTO.setDirectionName(direction.getName());
-        }
-        
-        // 获取审核医生姓名
-        if (prescription.getReviewerId() != null) {
-            User reviewer = userService.getById(prescription.getReviewerId());
-            if (reviewer != null) {
-                prescriptionDTO.setReviewerName(reviewer.getRealName());
-            }
-        }
-        
-        // 获取病人姓名
-        User user = userService.getById(prescription.getUserId());
-        if (user != null) {
-            prescriptionDTO.setUserName(user.getRealName());
-        }
-        
-        // 查询关联的对话ID
-        LambdaQueryWrapper<Conversation> queryWrapper = new LambdaQueryWrapper<>();
-        queryWrapper.eq(Conversation::getPrescriptionId, prescriptionId);
-        Conversation conversation = conversationService.getOne(queryWrapper);
-        if (conversation != null) {
-            prescriptionDTO.setConversationId(conversation.getId());
-        }
+        dtoAssembler.fillPrescriptions(List.of(prescriptionDTO));
         
         return prescriptionDTO;
     }
@@ -524,51 +482,26 @@ public class PatientServiceImpl implements PatientService {
         List<Prescription> prescriptions = prescriptionService.list(queryWrapper);
         
         // 转换为DTO列表
-        return prescriptions.stream().map(prescription -> {
+        List<PrescriptionDTO> dtos = prescriptions.stream().map(prescription -> {
             PrescriptionDTO dto = new PrescriptionDTO();
             BeanUtils.copyProperties(prescription, dto);
-            
-            // 获取智能体名称
-            Agent agent = agentService.getById(prescription.getAgentId());
-            if (agent != null) {
-                dto.setAgentName(agent.getName());
-            }
-            
-            // 获取医疗方向名称
-            MedicalDirection direction = medicalDirectionService.getById(prescription.getDirectionId());
-            if (direction != null) {
-                dto.setDirectionName(direction.getName());
-            }
-            
-            // 获取审核医生姓名
-            if (prescription.getReviewerId() != null) {
-                User reviewer = userService.getById(prescription.getReviewerId());
-                if (reviewer != null) {
-                    dto.setReviewerName(reviewer.getRealName());
-                }
-            }
-            
-            // 获取病人姓名
-            User user = userService.getById(prescription.getUserId());
-            if (user != null) {
-                dto.setUserName(user.getRealName());
-            }
-            
-            // 查询关联的对话ID
-            LambdaQueryWrapper<Conversation> conversationWrapper = new LambdaQueryWrapper<>();
-            conversationWrapper.eq(Conversation::getPrescriptionId, prescription.getId());
-            Conversation conversation = conversationService.getOne(conversationWrapper);
-            if (conversation != null) {
-                dto.setConversationId(conversation.getId());
-            }
-            
             return dto;
         }).collect(Collectors.toList());
+        
+        // 批量填充关联信息
+        dtoAssembler.fillPrescriptions(dtos);
+        return dtos;
     }
     
     @Override
     @Transactional(rollbackFor = Exception.class)
     public PrescriptionDTO generatePrescription(Long conversationId, Long userId) {
+        // 持有对话锁读取和写入全部消息并结束对话，期间到达的本轮消息要么先写入，要么在锁释放后因对话已结束而被丢弃；
+        // 锁在事务提交前释放，之后的追加会在结束对话的行锁上等待，提交后同样看到对话已结束
+        return conversationCache.withConversationLock(conversationId, () -> doGeneratePrescription(conversationId, userId));
+    }
+    
+    private PrescriptionDTO doGeneratePrescription(Long conversationId, Long userId) {
         // 验证对话存在且属于当前用户
         Conversation conversation = conversationService.getById(conversationId);
         if (conversation == null || !conversation.getUserId().equals(userId) || conversation.getIsFinished() == 1) {
@@ -576,8 +509,13 @@ public class PatientServiceImpl implements PatientService {
             return null;
         }
         
-        // 获取对话内容
-        List<MessageDTO> messages = parseConversationContent(conversation.getContent());
+        // 获取对话内容，并写入缓存中尚未落库的消息，处方生成后对话即结束
+        List<MessageDTO> messages = conversationCache.getMessages(conversation);
+        if (!conversationCache.flush(conversationId)) {
+            // 消息未能全部写入时不结束对话，否则剩余消息会写入已结束的对话
+            log.error("写入对话消息失败，暂不生成处方: conversationId={}", conversationId);
+            return null;
+        }
         if (messages == null || messages.isEmpty()) {
             log.error("对话内容为空: conversationId={}", conversationId);
             return null;
@@ -631,15 +569,36 @@ public class PatientServiceImpl implements PatientService {
         // 保存处方
         prescriptionService.save(prescription);
         
-        // 更新对话状态
-        conversation.setIsFinished(1); // 标记为已结束
-        conversation.setPrescriptionId(prescription.getId()); // 关联处方
-        conversationService.updateById(conversation);
+        // 结束对话并关联处方，对话已被并发请求结束时回滚本次处方
+        LambdaUpdateWrapper<Conversation> wrapper = new LambdaUpdateWrapper<>();
+        wrapper.eq(Conversation::getId, conversationId)
+                .eq(Conversation::getIsFinished, 0)
+                .set(Conversation::getIsFinished, 1)
+                .set(Conversation::getPrescriptionId, prescription.getId());
+        if (!conversationService.update(wrapper)) {
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            log.warn("对话已被其他请求结束，放弃重复生成的处方: conversationId={}", conversationId);
+            return null;
+        }
         
         // 转换为DTO返回
         return getPrescriptionDetail(prescription.getId(), userId);
     }
     
+    /**
+     * 同步等待异步结果，展开CompletionException以保持同步方法原有的异常类型
+     */
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+    
     /**
      * 创建系统消息
      * @param content 消息内容
@@ -684,200 +643,11 @@ public class PatientServiceImpl implements PatientService {
         settings.setTemplateId(agent.getTemplateId());
         settings.setTemplateDescription(agent.getTemplateDescription());
         
-        // 解析模板参数
-        if (agent.getTemplateParameters() != null && !agent.getTemplateParameters().isEmpty()) {
-            try {
-                // 增加类型检查和错误处理
-                List<ChatSettingsDTO.TemplateParam> templateParams = new ArrayList<>();
-                
-                // 首先尝试确定JSON的格式
-                String templateParamsStr = agent.getTemplateParameters().trim();
-                
-                if (templateParamsStr.startsWith("[")) {
-                    // 如果是JSON数组格式
-                    try {
-                        @SuppressWarnings("unchecked")
-                        List<Map<String, Object>> paramsList = objectMapper.readValue(templateParamsStr, 
-                                objectMapper.getTypeFactory().constructCollectionType(List.class, Map.class));
-                        
-                        for (Map<String, Object> param : paramsList) {
-                            ChatSettingsDTO.TemplateParam templateParam = new ChatSettingsDTO.TemplateParam();
-                            
-                            if (param.containsKey("name")) {
-                                templateParam.setName(param.get("name").toString());
-                            }
-                            
-                            if (param.containsKey("description")) {
-                                templateParam.setDescription(param.get("description").toString());
-                            }
-                            
-                            if (param.containsKey("required")) {
-                                Object required = param.get("required");
-                                if (required instanceof Boolean) {
-                                    templateParam.setRequired((Boolean) required);
-                                } else if (required != null) {
-                                    templateParam.setRequired(Boolean.parseBoolean(required.toString()));
-                                }
-                            }
-                            
-                            if (param.containsKey("defaultValue")) {
-                                Object defaultValue = param.get("defaultValue");
-                                if (defaultValue != null) {
-                                    templateParam.setDefaultValue(defaultValue.toString());
-                                }
-                            }
-                            
-                            if (param.containsKey("options")) {
-                                Object options = param.get("options");
-                                if (options instanceof List) {
-                                    @SuppressWarnings("unchecked")
-                                    List<Object> optionsList = (List<Object>) options;
-                                    List<String> stringOptions = new ArrayList<>();
-                                    for (Object option : optionsList) {
-                                        if (option != null) {
-                                            stringOptions.add(option.toString());
-                                        }
-                                    }
-                                    templateParam.setOptions(stringOptions);
-                                }
-                            }
-                            
-                            templateParams.add(templateParam);
-                        }
-                    } catch (Exception e) {
-                        log.warn("解析模板参数为List<Map>失败: {}", e.getMessage());
-                        // 继续尝试其他格式
-                    }
-                } else if (templateParamsStr.startsWith("{")) {
-                    // 如果是JSON对象格式
-                    try {
-                        @SuppressWarnings("unchecked")
-                        Map<String, Object> paramsMap = objectMapper.readValue(templateParamsStr, Map.class);
-                        
-                        for (Map.Entry<String, Object> entry : paramsMap.entrySet()) {
-                            ChatSettingsDTO.TemplateParam templateParam = new ChatSettingsDTO.TemplateParam();
-                            templateParam.setName(entry.getKey());
-                            
-                            if (entry.getValue() instanceof Map) {
-                                @SuppressWarnings("unchecked")
-                                Map<String, Object> paramDetails = (Map<String, Object>) entry.getValue();
-                                
-                                if (paramDetails.containsKey("description")) {
-                                    templateParam.setDescription(paramDetails.get("description").toString());
-                                } else {
-                                    templateParam.setDescription(entry.getKey());
-                                }
-                                
-                                if (paramDetails.containsKey("required")) {
-                                    Object required = paramDetails.get("required");
-                                    if (required instanceof Boolean) {
-                                        templateParam.setRequired((Boolean) required);
-                                    } else if (required != null) {
-                                        templateParam.setRequired(Boolean.parseBoolean(required.toString()));
-                                    }
-                                }
-                                
-                                if (paramDetails.containsKey("defaultValue")) {
-                                    Object defaultValue = paramDetails.get("defaultValue");
-                                    if (defaultValue != null) {
-                                        templateParam.setDefaultValue(defaultValue.toString());
-                                    }
-                                }
-                                
-                                if (paramDetails.containsKey("options")) {
-                                    Object options = paramDetails.get("options");
-                                    if (options instanceof List) {
-                                        @SuppressWarnings("unchecked")
-                                        List<Object> optionsList = (List<Object>) options;
-                                        List<String> stringOptions = new ArrayList<>();
-                                        for (Object option : optionsList) {
-                                            if (option != null) {
-                                                stringOptions.add(option.toString());
-                                            }
-                                        }
-                                        templateParam.setOptions(stringOptions);
-                                    }
-                                }
-                            } else {
-                                // 如果值是简单类型，将其设为默认值
-                                templateParam.setDescription(entry.getKey());
-                                if (entry.getValue() != null) {
-                                    templateParam.setDefaultValue(entry.getValue().toString());
-                                }
-                            }
-                            
-                            templateParams.add(templateParam);
-                        }
-                    } catch (Exception e) {
-                        log.warn("解析模板参数为Map失败: {}", e.getMessage());
-                        // 继续尝试其他格式
-                    }
-                } else {
-                    // 如果是简单字符串或逗号分隔的列表
-                    try {
-                        String[] paramNames = templateParamsStr.split(",");
-                        for (String paramName : paramNames) {
-                            paramName = paramName.trim();
-                            if (!paramName.isEmpty()) {
-                                ChatSettingsDTO.TemplateParam templateParam = new ChatSettingsDTO.TemplateParam();
-                                templateParam.setName(paramName);
-                                templateParam.setDescription(paramName);
-                                templateParam.setRequired(false);
-                                templateParams.add(templateParam);
-                            }
-                        }
-                    } catch (Exception e) {
-                        log.warn("解析模板参数为字符串列表失败: {}", e.getMessage());
-                    }
-                }
-                
-                // 如果所有尝试都失败，添加一个默认参数
-                if (templateParams.isEmpty()) {
-                    ChatSettingsDTO.TemplateParam defaultParam = new ChatSettingsDTO.TemplateParam();
-                    defaultParam.setName("default");
-                    defaultParam.setDescription("默认参数");
-                    defaultParam.setRequired(false);
-                    templateParams.add(defaultParam);
-                }
-                
-                settings.setTemplateParams(templateParams);
-            } catch (Exception e) {
-                log.error("解析模板参数失败: {}", e.getMessage(), e);
-                // 设置空列表而不是null
-                settings.setTemplateParams(new ArrayList<>());
-            }
-        } else {
-            // 设置空列表而不是null
-            settings.setTemplateParams(new ArrayList<>());
-        }
-        
-        // 解析向量命名空间
-        if (agent.getVectorNamespaces() != null && !agent.getVectorNamespaces().isEmpty()) {
-            try {
-                @SuppressWarnings("unchecked")
-                List<String> namespaces = objectMapper.readValue(agent.getVectorNamespaces(), List.class);
-                settings.setVectorNamespaces(namespaces);
-            } catch (JsonProcessingException e) {
-                log.error("解析向量命名空间失败: {}", e.getMessage());
-                settings.setVectorNamespaces(new ArrayList<>());
-            }
-        } else {
-            settings.setVectorNamespaces(new ArrayList<>());
-        }
-        
-        // 解析精确查找数据库UIDs
-        if (agent.getPreciseDbUids() != null && !agent.getPreciseDbUids().isEmpty()) {
-            try {
-                @SuppressWarnings("unchecked")
-                List<String> categories = objectMapper.readValue(agent.getPreciseDbUids(), List.class);
-                settings.setPreciseCategories(categories);
-            } catch (JsonProcessingException e) {
-                log.error("解析精确查找数据库UIDs失败: {}", e.getMessage());
-                settings.setPreciseCategories(new ArrayList<>());
-            }
-        } else {
-            settings.setPreciseCategories(new ArrayList<>());
-        }
+        // 模板参数、向量命名空间和精确查找类别均来自预解析的智能体配置
+        AgentProfile profile = agentProfileCache.getProfile(agent);
+        settings.setTemplateParams(profile.getTemplateParams());
+        settings.setVectorNamespaces(new ArrayList<>(profile.getVectorNamespaces()));
+        settings.setPreciseCategories(new ArrayList<>(profile.getPreciseCategories()));
         
         return settings;
     }
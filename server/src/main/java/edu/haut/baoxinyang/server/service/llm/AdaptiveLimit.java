@@ -0,0 +1,89 @@
+package edu.haut.baoxinyang.server.service.llm;
+
+import edu.haut.baoxinyang.server.config.LlmApiConfig;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 基于延迟梯度的自适应并发上限
+ * 用长期平均延迟与短期平均延迟之比作为梯度：延迟稳定时梯度接近1，上限按排队余量逐步增加；
+ * 延迟上升时梯度小于1，上限随之收缩；调用失败时按固定比例退避
+ */
+public class AdaptiveLimit {
+
+    private final LlmApiConfig.Admission config;
+
+    private double limit;
+    private double shortRtt;
+    private double longRtt;
+    private long samples;
+    private long drops;
+
+    public AdaptiveLimit(LlmApiConfig.Admission config) {
+        this.config = config;
+        this.limit = Math.min(config.getInitialAgentLimit(), config.getPerAgentLimit());
+    }
+
+    /**
+     * 当前允许的并发数
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * 记录一次成功调用的延迟
+     * @param rttNanos 延迟（纳秒），流式调用为首个token的延迟
+     * @param inflight 记录时该智能体的并发调用数
+     */
+    public synchronized void onSample(long rttNanos, int inflight) {
+        samples++;
+        double rtt = rttNanos;
+        if (longRtt == 0) {
+            longRtt = rtt;
+            shortRtt = rtt;
+            return;
+        }
+        shortRtt = shortRtt * 0.5 + rtt * 0.5;
+        longRtt = longRtt + (rtt - longRtt) / config.getLongWindow();
+
+        // 长期延迟明显高于短期时说明负载已下降，让长期值更快回落
+        if (longRtt / shortRtt > 2) {
+            longRtt *= 0.95;
+        }
+
+        // 并发远未用满时延迟不能说明容量，不调整上限
+        if (inflight < limit / 2) {
+            return;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, longRtt / shortRtt));
+        double queueSize = Math.sqrt(limit);
+        double newLimit = limit * gradient + queueSize;
+        newLimit = limit * (1 - config.getSmoothing()) + newLimit * config.getSmoothing();
+        limit = clamp(newLimit);
+    }
+
+    /**
+     * 记录一次失败调用，按比例收缩上限
+     */
+    public synchronized void onDropped() {
+        drops++;
+        limit = clamp(limit * config.getBackoffRatio());
+    }
+
+    public synchronized Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("limit", (int) limit);
+        snapshot.put("shortRttMillis", Math.round(shortRtt / 1_000_000));
+        snapshot.put("longRttMillis", Math.round(longRtt / 1_000_000));
+        snapshot.put("samples", samples);
+        snapshot.put("drops", drops);
+        return snapshot;
+    }
+
+    private double clamp(double value) {
+        return Math.max(config.getMinAgentLimit(), Math.min(config.getPerAgentLimit(), value));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,320 @@
+package edu.haut.baoxinyang.server.service.llm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.haut.baoxinyang.server.dto.ChatSettingsDTO;
+import edu.haut.baoxinyang.server.dto.llm.LlmRequestDTO;
+import edu.haut.baoxinyang.server.entity.Agent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeanUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 智能体配置的预解析结果
+ * 在智能体首次加载时解析JSON字段并构建请求骨架，之后每轮对话只需复制骨架并填入消息和历史
+ * 实例创建后不可修改
+ */
+@Slf4j
+public final class AgentProfile {
+
+    private final Long agentId;
+
+    /**
+     * 构建时智能体的更新时间，用于判断是否过期
+     */
+    private final LocalDateTime version;
+
+    private final List<String> vectorNamespaces;
+    private final List<String> preciseCategories;
+    private final List<ChatSettingsDTO.TemplateParam> templateParams;
+
+    /**
+     * 是否允许缓存回答
+     */
+    private final boolean answerCacheEnabled;
+
+    /**
+     * 历史消息的token预算，为null时使用全局默认值
+     */
+    private final Integer contextTokenBudget;
+
+    /**
+     * 请求骨架，包含模型、模板和检索配置，不包含消息和历史
+     */
+    private final LlmRequestDTO skeleton;
+
+    private AgentProfile(Agent agent, List<String> vectorNamespaces, List<String> preciseCategories,
+                         List<ChatSettingsDTO.TemplateParam> templateParams, LlmRequestDTO skeleton) {
+        this.agentId = agent.getId();
+        this.version = agent.getUpdateTime();
+        this.vectorNamespaces = vectorNamespaces;
+        this.preciseCategories = preciseCategories;
+        this.templateParams = templateParams;
+        this.answerCacheEnabled = Integer.valueOf(1).equals(agent.getAnswerCacheEnabled());
+        this.contextTokenBudget = agent.getContextTokenBudget();
+        this.skeleton = skeleton;
+    }
+
+    /**
+     * 解析智能体配置
+     * @param agent 智能体
+     * @param objectMapper JSON解析器
+     * @return 智能体配置
+     */
+    public static AgentProfile parse(Agent agent, ObjectMapper objectMapper) {
+        List<String> namespaces = parseStringList(agent.getVectorNamespaces(), objectMapper, "向量命名空间");
+        List<String> categories = parseStringList(agent.getPreciseDbUids(), objectMapper, "精确查找数据库UIDs");
+        List<ChatSettingsDTO.TemplateParam> templateParams = parseTemplateParams(agent.getTemplateParameters(), objectMapper);
+
+        LlmRequestDTO skeleton = new LlmRequestDTO();
+
+        // 设置模型信息
+        LlmRequestDTO.ModelSettings modelSettings = new LlmRequestDTO.ModelSettings();
+        modelSettings.setModelName(agent.getModelName());
+        modelSettings.setApiKey(agent.getApiKey());
+        modelSettings.setBaseUrl(agent.getModelUrl());
+        skeleton.setModelSettings(modelSettings);
+
+        // 设置模板信息
+        LlmRequestDTO.TemplateConfig templateConfig = new LlmRequestDTO.TemplateConfig();
+        templateConfig.setTemplateId(agent.getTemplateId());
+        // 注意：虽然设置了subTemplateIds，但Python后端已修改为忽略此参数，会自动使用大模板中的所有子模板
+        // 这里仍然设置一些值只是为了保持接口兼容性
+        templateConfig.setSubTemplateIds(List.of("基础信息"));
+        skeleton.setTemplateConfig(templateConfig);
+
+        // 设置向量搜索配置，如果有的话
+        if (namespaces != null && !namespaces.isEmpty()) {
+            LlmRequestDTO.VectorSearchConfig vectorSearchConfig = new LlmRequestDTO.VectorSearchConfig();
+            vectorSearchConfig.setNamespaces(namespaces);
+            vectorSearchConfig.setNResults(3);  // 默认值，可以根据需要调整
+            vectorSearchConfig.setRagHistoryCount(3); // 设置默认RAG历史消息数量
+            skeleton.setVectorSearchConfig(vectorSearchConfig);
+        }
+
+        // 设置精确查询配置，如果有的话
+        if (agent.getPreciseDbName() != null && categories != null) {
+            LlmRequestDTO.PreciseSearchConfig preciseSearchConfig = new LlmRequestDTO.PreciseSearchConfig();
+            preciseSearchConfig.setCategories(categories);
+            preciseSearchConfig.setMaxResults(3);  // 默认值，可以根据需要调整
+            preciseSearchConfig.setSearchDepth(2);  // 默认值，可以根据需要调整
+            preciseSearchConfig.setRagHistoryCount(3); // 设置默认RAG历史消息数量
+            skeleton.setPreciseSearchConfig(preciseSearchConfig);
+        }
+
+        return new AgentProfile(agent,
+                namespaces != null ? namespaces : List.of(),
+                categories != null ? categories : List.of(),
+                templateParams, skeleton);
+    }
+
+    /**
+     * 基于骨架创建新的请求对象，各配置对象均为副本，可以放心修改
+     * @return 不含消息和历史的请求对象
+     */
+    public LlmRequestDTO newRequest() {
+        LlmRequestDTO request = new LlmRequestDTO();
+        request.setAgentId(agentId);
+        request.setAnswerCacheable(answerCacheEnabled);
+
+        LlmRequestDTO.ModelSettings modelSettings = new LlmRequestDTO.ModelSettings();
+        BeanUtils.copyProperties(skeleton.getModelSettings(), modelSettings);
+        request.setModelSettings(modelSettings);
+
+        LlmRequestDTO.TemplateConfig templateConfig = new LlmRequestDTO.TemplateConfig();
+        BeanUtils.copyProperties(skeleton.getTemplateConfig(), templateConfig);
+        templateConfig.setParams(new HashMap<>());
+        request.setTemplateConfig(templateConfig);
+
+        if (skeleton.getVectorSearchConfig() != null) {
+            LlmRequestDTO.VectorSearchConfig vectorSearchConfig = new LlmRequestDTO.VectorSearchConfig();
+            BeanUtils.copyProperties(skeleton.getVectorSearchConfig(), vectorSearchConfig);
+            request.setVectorSearchConfig(vectorSearchConfig);
+        }
+
+        if (skeleton.getPreciseSearchConfig() != null) {
+            LlmRequestDTO.PreciseSearchConfig preciseSearchConfig = new LlmRequestDTO.PreciseSearchConfig();
+            BeanUtils.copyProperties(skeleton.getPreciseSearchConfig(), preciseSearchConfig);
+            request.setPreciseSearchConfig(preciseSearchConfig);
+        }
+
+        return request;
+    }
+
+    public Long getAgentId() {
+        return agentId;
+    }
+
+    public LocalDateTime getVersion() {
+        return version;
+    }
+
+    public boolean isAnswerCacheEnabled() {
+        return answerCacheEnabled;
+    }
+
+    public Integer getContextTokenBudget() {
+        return contextTokenBudget;
+    }
+
+    /**
+     * 向量数据库命名空间，只读
+     */
+    public List<String> getVectorNamespaces() {
+        return vectorNamespaces;
+    }
+
+    /**
+     * 精确查找数据库类别，只读
+     */
+    public List<String> getPreciseCategories() {
+        return preciseCategories;
+    }
+
+    /**
+     * 模板参数定义的副本
+     */
+    public List<ChatSettingsDTO.TemplateParam> getTemplateParams() {
+        List<ChatSettingsDTO.TemplateParam> result = new ArrayList<>(templateParams.size());
+        for (ChatSettingsDTO.TemplateParam param : templateParams) {
+            ChatSettingsDTO.TemplateParam copy = new ChatSettingsDTO.TemplateParam();
+            BeanUtils.copyProperties(param, copy);
+            result.add(copy);
+        }
+        return result;
+    }
+
+    /**
+     * 判断是否与智能体当前版本一致
+     */
+    public boolean matches(Agent agent) {
+        return agentId.equals(agent.getId()) && Objects.equals(version, agent.getUpdateTime());
+    }
+
+    /**
+     * 解析JSON字符串数组，字段为空或解析失败时返回null
+     */
+    @SuppressWarnings("unchecked")
+    private static List<String> parseStringList(String json, ObjectMapper objectMapper, String fieldName) {
+        if (json == null || json.isEmpty()) {
+            return null;
+        }
+        try {
+            return Collections.unmodifiableList(new ArrayList<>(objectMapper.readValue(json, List.class)));
+        } catch (Exception e) {
+            log.error("解析{}失败: {}", fieldName, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 解析模板参数定义，兼容JSON数组、JSON对象和逗号分隔字符串三种格式
+     */
+    @SuppressWarnings("unchecked")
+    private static List<ChatSettingsDTO.TemplateParam> parseTemplateParams(String json, ObjectMapper objectMapper) {
+        List<ChatSettingsDTO.TemplateParam> templateParams = new ArrayList<>();
+        if (json == null || json.isEmpty()) {
+            return Collections.unmodifiableList(templateParams);
+        }
+
+        String templateParamsStr = json.trim();
+        if (templateParamsStr.startsWith("[")) {
+            // 如果是JSON数组格式
+            try {
+                List<Map<String, Object>> paramsList = objectMapper.readValue(templateParamsStr,
+                        objectMapper.getTypeFactory().constructCollectionType(List.class, Map.class));
+                for (Map<String, Object> param : paramsList) {
+                    String name = param.containsKey("name") ? String.valueOf(param.get("name")) : null;
+                    templateParams.add(toTemplateParam(name, param, null));
+                }
+            } catch (Exception e) {
+                log.warn("解析模板参数为List<Map>失败: {}", e.getMessage());
+            }
+        } else if (templateParamsStr.startsWith("{")) {
+            // 如果是JSON对象格式
+            try {
+                Map<String, Object> paramsMap = objectMapper.readValue(templateParamsStr, Map.class);
+                for (Map.Entry<String, Object> entry : paramsMap.entrySet()) {
+                    if (entry.getValue() instanceof Map) {
+                        templateParams.add(toTemplateParam(entry.getKey(),
+                                (Map<String, Object>) entry.getValue(), entry.getKey()));
+                    } else {
+                        // 如果值是简单类型，将其设为默认值
+                        ChatSettingsDTO.TemplateParam templateParam = new ChatSettingsDTO.TemplateParam();
+                        templateParam.setName(entry.getKey());
+                        templateParam.setDescription(entry.getKey());
+                        if (entry.getValue() != null) {
+                            templateParam.setDefaultValue(entry.getValue().toString());
+                        }
+                        templateParams.add(templateParam);
+                    }
+                }
+            } catch (Exception e) {
+                log.warn("解析模板参数为Map失败: {}", e.getMessage());
+            }
+        } else {
+            // 如果是简单字符串或逗号分隔的列表
+            for (String paramName : templateParamsStr.split(",")) {
+                paramName = paramName.trim();
+                if (!paramName.isEmpty()) {
+                    ChatSettingsDTO.TemplateParam templateParam = new ChatSettingsDTO.TemplateParam();
+                    templateParam.setName(paramName);
+                    templateParam.setDescription(paramName);
+                    templateParam.setRequired(false);
+                    templateParams.add(templateParam);
+                }
+            }
+        }
+
+        // 如果所有尝试都失败，添加一个默认参数
+        if (templateParams.isEmpty()) {
+            ChatSettingsDTO.TemplateParam defaultParam = new ChatSettingsDTO.TemplateParam();
+            defaultParam.setName("default");
+            defaultParam.setDescription("默认参数");
+            defaultParam.setRequired(false);
+            templateParams.add(defaultParam);
+        }
+        return Collections.unmodifiableList(templateParams);
+    }
+
+    private static ChatSettingsDTO.TemplateParam toTemplateParam(String name, Map<String, Object> details,
+                                                                 String defaultDescription) {
+        ChatSettingsDTO.TemplateParam templateParam = new ChatSettingsDTO.TemplateParam();
+        templateParam.setName(name);
+        if (details.containsKey("description")) {
+            templateParam.setDescription(String.valueOf(details.get("description")));
+        } else {
+            templateParam.setDescription(defaultDescription);
+        }
+
+        Object required = details.get("required");
+        if (required instanceof Boolean) {
+            templateParam.setRequired((Boolean) required);
+        } else if (required != null) {
+            templateParam.setRequired(Boolean.parseBoolean(required.toString()));
+        }
+
+        Object defaultValue = details.get("defaultValue");
+        if (defaultValue != null) {
+            templateParam.setDefaultValue(defaultValue.toString());
+        }
+
+        Object options = details.get("options");
+        if (options instanceof List) {
+            List<String> stringOptions = new ArrayList<>();
+            for (Object option : (List<Object>) options) {
+                if (option != null) {
+                    stringOptions.add(option.toString());
+                }
+            }
+            templateParam.setOptions(Collections.unmodifiableList(stringOptions));
+        }
+        return templateParam;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,53 @@
+package edu.haut.baoxinyang.server.service.llm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.haut.baoxinyang.server.entity.Agent;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 智能体配置缓存
+ * 以智能体ID为键，智能体的更新时间作为版本号，版本变化时重新解析
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class AgentProfileCache {
+
+    private final ObjectMapper objectMapper;
+
+    private final Map<Long, AgentProfile> profiles = new ConcurrentHashMap<>();
+
+    /**
+     * 获取智能体配置，不存在或版本过期时重新解析
+     * @param agent 智能体
+     * @return 智能体配置
+     */
+    public AgentProfile getProfile(Agent agent) {
+        if (agent.getId() == null) {
+            return AgentProfile.parse(agent, objectMapper);
+        }
+        AgentProfile profile = profiles.get(agent.getId());
+        if (profile != null && profile.matches(agent)) {
+            return profile;
+        }
+        AgentProfile parsed = AgentProfile.parse(agent, objectMapper);
+        profiles.put(agent.getId(), parsed);
+        log.debug("已解析智能体配置: agentId={}, version={}", agent.getId(), agent.getUpdateTime());
+        return parsed;
+    }
+
+    /**
+     * 智能体修改或删除后移除对应配置
+     * @param agentId 智能体ID
+     */
+    public void evict(Long agentId) {
+        if (agentId != null) {
+            profiles.remove(agentId);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,192 @@
+package edu.haut.baoxinyang.server.service.llm;
+
+import edu.haut.baoxinyang.server.config.LlmApiConfig;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * 熔断器
+ * 关闭状态下按最近调用的失败率和慢调用比例判断是否熔断；
+ * 熔断后在持续时间内直接拒绝调用，之后进入半开状态放行少量试探调用，
+ * 试探全部成功则恢复，否则重新熔断
+ */
+@Slf4j
+public class CircuitBreaker {
+
+    /**
+     * 熔断器状态
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final LlmApiConfig.CircuitBreaker config;
+    private final BiConsumer<State, State> transitionListener;
+
+    private final boolean[] failures;
+    private final boolean[] slowCalls;
+    private int recorded;
+    private int cursor;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int halfOpenInFlight;
+    private int halfOpenSucceeded;
+    private long rejected;
+
+    public CircuitBreaker(String name, LlmApiConfig.CircuitBreaker config, BiConsumer<State, State> transitionListener) {
+        this.name = name;
+        this.config = config;
+        this.transitionListener = transitionListener;
+        this.failures = new boolean[config.getWindowSize()];
+        this.slowCalls = new boolean[config.getWindowSize()];
+    }
+
+    /**
+     * 申请一次调用
+     * @return 是否允许调用；允许时调用结束后必须通过onSuccess、onFailure或onIgnored之一回报结果
+     */
+    public synchronized boolean tryAcquire() {
+        if (!config.isEnabled()) {
+            return true;
+        }
+        if (state == State.OPEN) {
+            if (System.currentTimeMillis() - openedAt < config.getOpenDuration()) {
+                rejected++;
+                return false;
+            }
+            transitionTo(State.HALF_OPEN);
+        }
+        if (state == State.HALF_OPEN) {
+            if (halfOpenInFlight + halfOpenSucceeded >= config.getHalfOpenCalls()) {
+                rejected++;
+                return false;
+            }
+            halfOpenInFlight++;
+        }
+        return true;
+    }
+
+    /**
+     * 调用成功
+     * @param durationNanos 调用耗时，超过阈值记为慢调用
+     */
+    public synchronized void onSuccess(long durationNanos) {
+        boolean slow = durationNanos / 1_000_000 >= config.getSlowCallThreshold();
+        if (state == State.HALF_OPEN) {
+            if (halfOpenInFlight == 0) {
+                // 熔断前发出的调用迟到的结果，不算作试探
+                return;
+            }
+            halfOpenInFlight--;
+            if (slow) {
+                transitionTo(State.OPEN);
+            } else if (++halfOpenSucceeded >= config.getHalfOpenCalls()) {
+                transitionTo(State.CLOSED);
+            }
+            return;
+        }
+        record(false, slow);
+    }
+
+    /**
+     * 调用失败
+     */
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            if (halfOpenInFlight == 0) {
+                return;
+            }
+            halfOpenInFlight--;
+            transitionTo(State.OPEN);
+            return;
+        }
+        record(true, false);
+    }
+
+    /**
+     * 调用未完成（被取消或被准入控制拒绝），不计入统计
+     */
+    public synchronized void onIgnored() {
+        if (state == State.HALF_OPEN && halfOpenInFlight > 0) {
+            halfOpenInFlight--;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized Map<String, Object> snapshot() {
+        int failed = 0;
+        int slow = 0;
+        for (int i = 0; i < recorded; i++) {
+            if (failures[i]) {
+                failed++;
+            }
+            if (slowCalls[i]) {
+                slow++;
+            }
+        }
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("state", state);
+        snapshot.put("calls", recorded);
+        snapshot.put("failureRate", recorded == 0 ? 0 : failed * 100 / recorded);
+        snapshot.put("slowCallRate", recorded == 0 ? 0 : slow * 100 / recorded);
+        snapshot.put("rejected", rejected);
+        return snapshot;
+    }
+
+    private void record(boolean failed, boolean slow) {
+        if (!config.isEnabled() || state != State.CLOSED) {
+            // 熔断期间到达的迟到结果不计入窗口
+            return;
+        }
+        failures[cursor] = failed;
+        slowCalls[cursor] = slow;
+        cursor = (cursor + 1) % failures.length;
+        if (recorded < failures.length) {
+            recorded++;
+        }
+        if (recorded < config.getMinimumCalls()) {
+            return;
+        }
+
+        int failedCount = 0;
+        int slowCount = 0;
+        for (int i = 0; i < recorded; i++) {
+            if (failures[i]) {
+                failedCount++;
+            }
+            if (slowCalls[i]) {
+                slowCount++;
+            }
+        }
+        if (failedCount * 100 >= config.getFailureRateThreshold() * recorded
+                || slowCount * 100 >= config.getSlowCallRateThreshold() * recorded) {
+            transitionTo(State.OPEN);
+        }
+    }
+
+    private void transitionTo(State target) {
+        State previous = state;
+        state = target;
+        switch (target) {
+            case OPEN -> openedAt = System.currentTimeMillis();
+            case HALF_OPEN -> {
+                halfOpenInFlight = 0;
+                halfOpenSucceeded = 0;
+            }
+            case CLOSED -> {
+                recorded = 0;
+                cursor = 0;
+            }
+        }
+        log.warn("LLM熔断器状态变化: name={}, {} -> {}", name, previous, target);
+        transitionListener.accept(previous, target);
+    }
+}
\ No newline at end of file
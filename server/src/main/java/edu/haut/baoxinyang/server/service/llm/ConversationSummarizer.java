@@ -0,0 +1,307 @@
+package edu.haut.baoxinyang.server.service.llm;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import edu.haut.baoxinyang.server.common.StatsProvider;
+import edu.haut.baoxinyang.server.config.LlmApiConfig;
+import edu.haut.baoxinyang.server.dto.MessageDTO;
+import edu.haut.baoxinyang.server.dto.llm.LlmRequestDTO;
+import edu.haut.baoxinyang.server.dto.llm.LlmResponseDTO;
+import edu.haut.baoxinyang.server.entity.Agent;
+import edu.haut.baoxinyang.server.entity.ConversationMessage;
+import edu.haut.baoxinyang.server.entity.ConversationSummary;
+import edu.haut.baoxinyang.server.entity.User;
+import edu.haut.baoxinyang.server.mapper.ConversationMessageMapper;
+import edu.haut.baoxinyang.server.mapper.ConversationSummaryMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 长对话的滚动摘要
+ * 对话超过一定长度后，在后台把较早的消息连同已有摘要一起交给模型压缩为新的摘要，
+ * 构建请求时发送摘要和摘要之后的消息；摘要只在有界线程池中生成，不阻塞请求
+ */
+@Slf4j
+@Component
+public class ConversationSummarizer implements StatsProvider {
+
+    /**
+     * 摘要在历史中的消息标识
+     */
+    public static final String SUMMARY_MESSAGE_ID = "summary";
+
+    private final LlmApiConfig.Summary config;
+    private final LlmService llmService;
+    private final ConversationSummaryMapper summaryMapper;
+    private final ConversationMessageMapper messageMapper;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * 对话ID到摘要的缓存，没有摘要的对话缓存为空对象
+     */
+    private final Cache<Long, ConversationSummary> cache;
+
+    /**
+     * 已提交摘要任务的对话，避免同一对话重复提交
+     */
+    private final Set<Long> pending = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder applied = new LongAdder();
+    private final LongAdder scheduled = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder summarizedMessages = new LongAdder();
+
+    public ConversationSummarizer(LlmApiConfig llmApiConfig, LlmService llmService,
+                                  ConversationSummaryMapper summaryMapper, ConversationMessageMapper messageMapper) {
+        this.config = llmApiConfig.getSummary();
+        this.llmService = llmService;
+        this.summaryMapper = summaryMapper;
+        this.messageMapper = messageMapper;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(config.getCacheSize())
+                .expireAfterWrite(Duration.ofMillis(config.getCacheExpire()))
+                .build();
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(config.getThreads(), config.getThreads(),
+                60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(config.getQueueCapacity()), runnable -> {
+                    Thread thread = new Thread(runnable, "conversation-summarizer-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 用摘要替换已摘要的历史消息，未摘要的消息足够多时在后台更新摘要
+     * @param conversationId 对话ID
+     * @param agent 智能体，用于生成摘要
+     * @param user 用户，用于生成摘要
+     * @param history 完整历史，按时间顺序
+     * @return 摘要加摘要之后的消息，没有可用摘要时返回原列表
+     */
+    public List<MessageDTO> compact(Long conversationId, Agent agent, User user, List<MessageDTO> history) {
+        if (!config.isEnabled() || conversationId == null || history.size() < config.getTriggerMessages()) {
+            return history;
+        }
+
+        ConversationSummary summary = getSummary(conversationId);
+        int covered = 0;
+        if (summary.getLastMessageUid() != null) {
+            covered = indexOf(history, summary.getLastMessageUid()) + 1;
+        }
+
+        if (history.size() - covered >= config.getTriggerMessages()) {
+            schedule(conversationId, agent, user);
+        }
+        if (covered == 0) {
+            return history;
+        }
+
+        MessageDTO summaryMessage = new MessageDTO();
+        summaryMessage.setId(SUMMARY_MESSAGE_ID);
+        summaryMessage.setContent("此前对话摘要：" + summary.getSummary());
+        summaryMessage.setType(1);
+        summaryMessage.setTimestamp(history.get(covered - 1).getTimestamp());
+
+        List<MessageDTO> compacted = new ArrayList<>(history.size() - covered + 1);
+        compacted.add(summaryMessage);
+        compacted.addAll(history.subList(covered, history.size()));
+        applied.increment();
+        return compacted;
+    }
+
+    private ConversationSummary getSummary(Long conversationId) {
+        return cache.get(conversationId, key -> {
+            ConversationSummary summary = summaryMapper.selectOne(new LambdaQueryWrapper<ConversationSummary>()
+                    .eq(ConversationSummary::getConversationId, key));
+            return summary != null ? summary : new ConversationSummary();
+        });
+    }
+
+    private static int indexOf(List<MessageDTO> history, String messageUid) {
+        for (int i = history.size() - 1; i >= 0; i--) {
+            if (messageUid.equals(history.get(i).getId())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void schedule(Long conversationId, Agent agent, User user) {
+        if (!pending.add(conversationId)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    summarize(conversationId, agent, user);
+                } catch (Exception e) {
+                    failed.increment();
+                    log.warn("生成对话摘要失败: conversationId={}, error={}", conversationId, e.getMessage());
+                } finally {
+                    pending.remove(conversationId);
+                }
+            });
+            scheduled.increment();
+        } catch (RejectedExecutionException e) {
+            pending.remove(conversationId);
+            rejected.increment();
+            log.debug("摘要队列已满，跳过本次摘要: conversationId={}", conversationId);
+        }
+    }
+
+    /**
+     * 把已有摘要和之后较早的一批消息合并为新摘要
+     */
+    private void summarize(Long conversationId, Agent agent, User user) throws Exception {
+        ConversationSummary previous = summaryMapper.selectOne(new LambdaQueryWrapper<ConversationSummary>()
+                .eq(ConversationSummary::getConversationId, conversationId));
+        long lastMessageId = previous != null ? previous.getLastMessageId() : 0L;
+        List<ConversationMessage> messages = messageMapper.selectList(new LambdaQueryWrapper<ConversationMessage>()
+                .eq(ConversationMessage::getConversationId, conversationId)
+                .gt(ConversationMessage::getId, lastMessageId)
+                .orderByAsc(ConversationMessage::getId));
+
+        // 保留最近的消息不摘要，本批次在输入预算内且以模型回复结束，避免拆开一问一答
+        int end = Math.max(messages.size() - config.getKeepRecentMessages(), 0);
+        int tokens = previous != null ? TokenEstimator.estimate(previous.getSummary()) : 0;
+        int batchEnd = 0;
+        for (int i = 0; i < end; i++) {
+            tokens += TokenEstimator.estimateMessage(messages.get(i).getContent());
+            if (tokens > config.getMaxInputTokens() && batchEnd > 0) {
+                break;
+            }
+            if (Integer.valueOf(1).equals(messages.get(i).getType())) {
+                batchEnd = i + 1;
+            }
+        }
+        if (batchEnd == 0) {
+            // 没有需要摘要的消息，用刚读到的摘要刷新缓存，其他节点的更新也能生效
+            cache.put(conversationId, previous != null ? previous : new ConversationSummary());
+            return;
+        }
+        List<ConversationMessage> batch = messages.subList(0, batchEnd);
+
+        LlmRequestDTO request = llmService.buildRequest(agent, user, buildPrompt(previous, batch), List.of());
+        request.setVectorSearchConfig(null);
+        request.setPreciseSearchConfig(null);
+        request.setAnswerCacheable(false);
+        // 摘要走后台调用路径，不与患者请求争抢准入名额，也不影响熔断统计
+        CompletableFuture<LlmResponseDTO> future = llmService.askBackground(request);
+        LlmResponseDTO response;
+        try {
+            response = future.get(config.getTimeout(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            failed.increment();
+            log.warn("等待对话摘要超时: conversationId={}, timeout={}ms", conversationId, config.getTimeout());
+            return;
+        }
+        if (response == null || response.getAnswer() == null || response.getAnswer().isBlank()) {
+            failed.increment();
+            log.warn("模型未返回对话摘要: conversationId={}", conversationId);
+            return;
+        }
+
+        ConversationMessage last = batch.get(batch.size() - 1);
+        ConversationSummary summary = new ConversationSummary();
+        summary.setConversationId(conversationId);
+        summary.setSummary(response.getAnswer().trim());
+        summary.setLastMessageId(last.getId());
+        summary.setLastMessageUid(last.getMessageUid());
+        summary.setMessageCount((previous != null ? previous.getMessageCount() : 0) + batch.size());
+        if (!save(previous, summary)) {
+            // 其他节点已经更新了摘要，以数据库为准
+            cache.invalidate(conversationId);
+            return;
+        }
+
+        cache.put(conversationId, summary);
+        completed.increment();
+        summarizedMessages.add(batch.size());
+        log.debug("对话摘要已更新: conversationId={}, messages={}, lastMessageId={}",
+                conversationId, summary.getMessageCount(), summary.getLastMessageId());
+    }
+
+    private String buildPrompt(ConversationSummary previous, List<ConversationMessage> batch) {
+        StringBuilder prompt = new StringBuilder();
+        prompt.append("请将以下问诊对话整理为一段简洁的摘要，保留症状、病史、检查结果、诊断意见和用药建议等关键信息，")
+                .append("不要添加对话中没有的内容，不超过").append(config.getMaxSummaryLength()).append("字。\n\n");
+        if (previous != null) {
+            prompt.append("已有摘要：\n").append(previous.getSummary()).append("\n\n");
+        }
+        prompt.append("对话内容：\n");
+        for (ConversationMessage message : batch) {
+            prompt.append(Integer.valueOf(0).equals(message.getType()) ? "患者：" : "助手：")
+                    .append(message.getContent()).append('\n');
+        }
+        return prompt.toString();
+    }
+
+    /**
+     * 保存摘要，按原有的最后消息ID条件更新，避免覆盖其他节点的更新
+     * @return 是否保存成功
+     */
+    private boolean save(ConversationSummary previous, ConversationSummary summary) {
+        if (previous == null) {
+            try {
+                return summaryMapper.insert(summary) > 0;
+            } catch (DuplicateKeyException e) {
+                return false;
+            }
+        }
+        summary.setId(previous.getId());
+        LambdaUpdateWrapper<ConversationSummary> wrapper = new LambdaUpdateWrapper<>();
+        wrapper.eq(ConversationSummary::getId, previous.getId())
+                .eq(ConversationSummary::getLastMessageId, previous.getLastMessageId());
+        return summaryMapper.update(summary, wrapper) > 0;
+    }
+
+    @Override
+    public String getStatsName() {
+        return "conversationSummarizer";
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", config.isEnabled());
+        stats.put("applied", applied.sum());
+        stats.put("scheduled", scheduled.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("completed", completed.sum());
+        stats.put("failed", failed.sum());
+        stats.put("summarizedMessages", summarizedMessages.sum());
+        stats.put("active", executor.getActiveCount());
+        stats.put("queued", executor.getQueue().size());
+        stats.put("cacheSize", cache.estimatedSize());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,138 @@
+package edu.haut.baoxinyang.server.service.llm;
+
+import edu.haut.baoxinyang.server.common.StatsProvider;
+import edu.haut.baoxinyang.server.config.LlmApiConfig;
+import edu.haut.baoxinyang.server.dto.MessageDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeanUtils;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按token预算选择发送给模型的历史消息
+ * 保留开头几轮（通常包含主诉和基本情况）和预算内最近的若干轮，中间的消息被省略；
+ * 最近一条消息本身超出预算时只保留其末尾部分
+ */
+@Slf4j
+@Component
+public class HistoryWindow implements StatsProvider {
+
+    /**
+     * 截断后剩余预算小于该值时不再保留截断的消息
+     */
+    private static final int MIN_TRUNCATED_TOKENS = 32;
+
+    private final LlmApiConfig.HistoryWindow config;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder trimmedRequests = new LongAdder();
+    private final LongAdder trimmedMessages = new LongAdder();
+    private final LongAdder trimmedTokens = new LongAdder();
+    private final AtomicLong maxTrimmedTokens = new AtomicLong();
+
+    public HistoryWindow(LlmApiConfig llmApiConfig) {
+        this.config = llmApiConfig.getHistoryWindow();
+    }
+
+    /**
+     * 选择历史消息
+     * @param history 完整历史，按时间顺序
+     * @param message 当前消息，占用同一预算
+     * @param agentBudget 智能体配置的预算，为null或不大于0时使用默认预算
+     * @return 预算内的历史消息，未裁剪时返回原列表
+     */
+    public List<MessageDTO> select(List<MessageDTO> history, String message, Integer agentBudget) {
+        requests.increment();
+        int budget = agentBudget != null && agentBudget > 0 ? agentBudget : config.getDefaultTokenBudget();
+        if (!config.isEnabled() || budget <= 0 || history.isEmpty()) {
+            return history;
+        }
+
+        int[] tokens = new int[history.size()];
+        int total = 0;
+        for (int i = 0; i < history.size(); i++) {
+            tokens[i] = TokenEstimator.estimateMessage(history.get(i).getContent());
+            total += tokens[i];
+        }
+        int remaining = budget - TokenEstimator.estimateMessage(message);
+        if (total <= remaining) {
+            return history;
+        }
+
+        // 保留开头几轮
+        int headEnd = 0;
+        int headLimit = Math.min(config.getKeepFirstTurns() * 2, history.size());
+        while (headEnd < headLimit && tokens[headEnd] <= remaining) {
+            remaining -= tokens[headEnd];
+            headEnd++;
+        }
+
+        // 从最近的消息往前，在预算内尽量多保留
+        int tailStart = history.size();
+        while (tailStart > headEnd && tokens[tailStart - 1] <= remaining) {
+            remaining -= tokens[tailStart - 1];
+            tailStart--;
+        }
+
+        // 最近一条消息放不下时保留其末尾部分
+        MessageDTO truncated = null;
+        if (tailStart == history.size() && tailStart > headEnd
+                && remaining - TokenEstimator.MESSAGE_OVERHEAD >= MIN_TRUNCATED_TOKENS) {
+            MessageDTO last = history.get(history.size() - 1);
+            truncated = new MessageDTO();
+            BeanUtils.copyProperties(last, truncated);
+            truncated.setContent(TokenEstimator.tail(last.getContent(), remaining - TokenEstimator.MESSAGE_OVERHEAD));
+            tailStart = history.size() - 1;
+        }
+
+        // 最近部分不以模型回复开头，避免孤立的回复
+        if (tailStart > headEnd && tailStart < history.size() - 1 && Integer.valueOf(1).equals(history.get(tailStart).getType())) {
+            tailStart++;
+        }
+
+        List<MessageDTO> selected = new ArrayList<>(headEnd + history.size() - tailStart);
+        selected.addAll(history.subList(0, headEnd));
+        if (truncated != null) {
+            selected.add(truncated);
+        } else {
+            selected.addAll(history.subList(tailStart, history.size()));
+        }
+
+        int keptTokens = 0;
+        for (MessageDTO item : selected) {
+            keptTokens += TokenEstimator.estimateMessage(item.getContent());
+        }
+        int trimmed = total - keptTokens;
+        trimmedRequests.increment();
+        trimmedMessages.add(history.size() - selected.size() + (truncated != null ? 1 : 0));
+        trimmedTokens.add(trimmed);
+        maxTrimmedTokens.accumulateAndGet(trimmed, Math::max);
+        log.debug("历史消息超出预算已裁剪: budget={}, messages={}->{}, trimmedTokens={}",
+                budget, history.size(), selected.size(), trimmed);
+        return selected;
+    }
+
+    @Override
+    public String getStatsName() {
+        return "llmHistoryWindow";
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", config.isEnabled());
+        stats.put("defaultTokenBudget", config.getDefaultTokenBudget());
+        stats.put("requests", requests.sum());
+        stats.put("trimmedRequests", trimmedRequests.sum());
+        stats.put("trimmedMessages", trimmedMessages.sum());
+        stats.put("trimmedTokens", trimmedTokens.sum());
+        stats.put("maxTrimmedTokens", maxTrimmedTokens.get());
+        return stats;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,52 @@
+package edu.haut.baoxinyang.server.service.llm;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+import java.io.IOException;
+
+/**
+ * 直接序列化到连接的JSON请求体
+ * 发送时由Jackson生成器把对象写入OkHttp的BufferedSink，不再先生成完整的JSON字符串和UTF-8字节数组；
+ * 长度未知，以分块传输编码发送。请求体可以重复写入，对冲和重试时会重新序列化
+ */
+public final class JsonRequestBody extends RequestBody {
+
+    /**
+     * JSON媒体类型
+     */
+    public static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    private final ObjectWriter writer;
+    private final Object value;
+
+    private JsonRequestBody(ObjectWriter writer, Object value) {
+        this.writer = writer;
+        this.value = value;
+    }
+
+    /**
+     * 创建请求体，序列化推迟到发送时进行，发送期间不能修改value
+     * @param objectMapper JSON序列化器
+     * @param value 请求对象
+     * @return 请求体
+     */
+    public static JsonRequestBody of(ObjectMapper objectMapper, Object value) {
+        // 写完后不能关闭sink，由OkHttp负责刷新和关闭
+        return new JsonRequestBody(objectMapper.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET), value);
+    }
+
+    @Override
+    public MediaType contentType() {
+        return JSON;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        writer.writeValue(sink.outputStream(), value);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,338 @@
+package edu.haut.baoxinyang.server.service.llm;
+
+import edu.haut.baoxinyang.server.common.StatsProvider;
+import edu.haut.baoxinyang.server.config.LlmApiConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+/**
+ * LLM调用准入控制
+ * 按全局和单个智能体限制并发调用数，超出的请求进入有界等待队列，
+ * 队列已满或等待超时的请求直接拒绝，避免流量高峰全部压到Python后端；
+ * 单个智能体的上限可按调用延迟和失败率自适应调整
+ */
+@Slf4j
+@Component
+public class LlmAdmissionController implements StatsProvider {
+
+    /**
+     * 未指定智能体的调用归入此键
+     */
+    private static final Long NO_AGENT = 0L;
+
+    private final LlmApiConfig.Admission config;
+
+    private final Deque<Waiter> queue = new ArrayDeque<>();
+    private final Map<Long, Integer> runningByAgent = new HashMap<>();
+    private final Map<Long, AdaptiveLimit> limits = new ConcurrentHashMap<>();
+    private int running;
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder rejectedQueueFull = new LongAdder();
+    private final LongAdder rejectedTimeout = new LongAdder();
+    private final LongAdder totalWaitMillis = new LongAdder();
+    private final AtomicLong maxWaitMillis = new AtomicLong();
+    private final AtomicLong maxQueueDepth = new AtomicLong();
+
+    public LlmAdmissionController(LlmApiConfig llmApiConfig) {
+        this.config = llmApiConfig.getAdmission();
+    }
+
+    /**
+     * 同步获取调用许可，必要时阻塞等待
+     * @param agentId 智能体ID
+     * @return 调用许可，用完后必须释放
+     * @throws LlmRejectedException 队列已满或等待超时
+     */
+    public Permit acquire(Long agentId) {
+        CompletableFuture<Permit> future = acquireAsync(agentId, position -> {
+        });
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new LlmRejectedException("等待调用许可时被中断");
+        } catch (Exception e) {
+            if (e.getCause() instanceof LlmRejectedException rejected) {
+                throw rejected;
+            }
+            throw new LlmRejectedException(e.getMessage());
+        }
+    }
+
+    /**
+     * 异步获取调用许可
+     * @param agentId 智能体ID
+     * @param positionListener 排队位置变化的通知，位置从1开始
+     * @return 获得许可时完成的Future；取消Future即退出排队
+     */
+    public CompletableFuture<Permit> acquireAsync(Long agentId, IntConsumer positionListener) {
+        Long key = agentId != null ? agentId : NO_AGENT;
+        if (!config.isEnabled()) {
+            return CompletableFuture.completedFuture(new Permit(key, false));
+        }
+
+        Waiter waiter;
+        int position;
+        synchronized (this) {
+            if (canAdmit(key)) {
+                admitted.increment();
+                return CompletableFuture.completedFuture(admit(key));
+            }
+            if (queue.size() >= config.getQueueCapacity()) {
+                rejectedQueueFull.increment();
+                return CompletableFuture.failedFuture(new LlmRejectedException("当前咨询人数较多，请稍后再试"));
+            }
+            waiter = new Waiter(key, positionListener);
+            queue.addLast(waiter);
+            queued.increment();
+            maxQueueDepth.accumulateAndGet(queue.size(), Math::max);
+            position = queue.size();
+            waiter.lastNotifiedPosition = position;
+        }
+
+        // 超时或调用方取消时退出排队
+        CompletableFuture.delayedExecutor(config.getMaxWait(), TimeUnit.MILLISECONDS).execute(() -> {
+            if (waiter.future.completeExceptionally(new LlmRejectedException("排队等待超时，请稍后再试"))) {
+                rejectedTimeout.increment();
+                recordWait(waiter);
+            }
+        });
+        waiter.future.whenComplete((permit, error) -> {
+            if (error != null) {
+                onWaiterFailed(waiter);
+            }
+        });
+        positionListener.accept(position);
+        return waiter.future;
+    }
+
+    /**
+     * 不排队地尝试获取调用许可，用于可以放弃的附加调用（如对冲请求），有请求在排队时不插队
+     * @param agentId 智能体ID
+     * @return 调用许可，用完后必须释放；没有空闲名额时返回null
+     */
+    public Permit tryAcquire(Long agentId) {
+        Long key = agentId != null ? agentId : NO_AGENT;
+        if (!config.isEnabled()) {
+            return new Permit(key, false);
+        }
+        synchronized (this) {
+            if (!queue.isEmpty() || !canAdmit(key)) {
+                return null;
+            }
+            admitted.increment();
+            return admit(key);
+        }
+    }
+
+    /**
+     * 释放许可并唤醒等待中的请求
+     * @param permit 许可
+     * @param rttNanos 成功调用的延迟，失败时为-1，未完成调用（如被取消）时为0
+     */
+    private void release(Permit permit, long rttNanos) {
+        Map<Waiter, Permit> granted = new LinkedHashMap<>();
+        List<Waiter> remaining;
+        synchronized (this) {
+            if (config.isAdaptive()) {
+                AdaptiveLimit limit = limitOf(permit.agentId);
+                if (rttNanos > 0) {
+                    limit.onSample(rttNanos, runningByAgent.getOrDefault(permit.agentId, 0));
+                } else if (rttNanos < 0) {
+                    limit.onDropped();
+                }
+            }
+            running--;
+            runningByAgent.computeIfPresent(permit.agentId, (key, count) -> count > 1 ? count - 1 : null);
+            dispatch(granted);
+            remaining = new ArrayList<>(queue);
+        }
+
+        // 在锁外完成Future，避免调用方的后续动作占用锁
+        for (Map.Entry<Waiter, Permit> entry : granted.entrySet()) {
+            Waiter waiter = entry.getKey();
+            if (waiter.future.complete(entry.getValue())) {
+                admitted.increment();
+                recordWait(waiter);
+            } else {
+                // 等待者已超时或取消，归还许可
+                entry.getValue().release();
+            }
+        }
+        notifyPositions(remaining);
+    }
+
+    /**
+     * 按先后顺序为所有可以放行的等待者预留许可
+     */
+    private void dispatch(Map<Waiter, Permit> granted) {
+        Iterator<Waiter> iterator = queue.iterator();
+        while (iterator.hasNext() && running < config.getGlobalLimit()) {
+            Waiter waiter = iterator.next();
+            if (waiter.future.isDone()) {
+                iterator.remove();
+                continue;
+            }
+            if (!canAdmit(waiter.agentId)) {
+                continue;
+            }
+            iterator.remove();
+            granted.put(waiter, admit(waiter.agentId));
+        }
+    }
+
+    private void onWaiterFailed(Waiter waiter) {
+        List<Waiter> remaining;
+        synchronized (this) {
+            if (!queue.remove(waiter)) {
+                return;
+            }
+            remaining = new ArrayList<>(queue);
+        }
+        notifyPositions(remaining);
+    }
+
+    private void notifyPositions(List<Waiter> waiters) {
+        int position = 0;
+        for (Waiter waiter : waiters) {
+            position++;
+            if (waiter.lastNotifiedPosition != position) {
+                waiter.lastNotifiedPosition = position;
+                try {
+                    waiter.positionListener.accept(position);
+                } catch (Exception e) {
+                    log.warn("通知排队位置失败: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private boolean canAdmit(Long agentId) {
+        int agentLimit = config.isAdaptive() ? limitOf(agentId).getLimit() : config.getPerAgentLimit();
+        return running < config.getGlobalLimit()
+                && runningByAgent.getOrDefault(agentId, 0) < agentLimit;
+    }
+
+    private AdaptiveLimit limitOf(Long agentId) {
+        return limits.computeIfAbsent(agentId, key -> new AdaptiveLimit(config));
+    }
+
+    private Permit admit(Long agentId) {
+        running++;
+        runningByAgent.merge(agentId, 1, Integer::sum);
+        return new Permit(agentId, true);
+    }
+
+    private void recordWait(Waiter waiter) {
+        long waited = (System.nanoTime() - waiter.enqueuedAt) / 1_000_000;
+        totalWaitMillis.add(waited);
+        maxWaitMillis.accumulateAndGet(waited, Math::max);
+    }
+
+    @Override
+    public String getStatsName() {
+        return "llmAdmission";
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (this) {
+            stats.put("running", running);
+            stats.put("queueDepth", queue.size());
+            Map<Long, Object> agents = new LinkedHashMap<>();
+            for (Map.Entry<Long, AdaptiveLimit> entry : limits.entrySet()) {
+                Map<String, Object> agentStats = entry.getValue().snapshot();
+                agentStats.put("inflight", runningByAgent.getOrDefault(entry.getKey(), 0));
+                agents.put(entry.getKey(), agentStats);
+            }
+            stats.put("agents", agents);
+        }
+        long queuedCount = queued.sum();
+        stats.put("maxQueueDepth", maxQueueDepth.get());
+        stats.put("admitted", admitted.sum());
+        stats.put("queued", queuedCount);
+        stats.put("rejectedQueueFull", rejectedQueueFull.sum());
+        stats.put("rejectedTimeout", rejectedTimeout.sum());
+        stats.put("avgWaitMillis", queuedCount == 0 ? 0 : totalWaitMillis.sum() / queuedCount);
+        stats.put("maxWaitMillis", maxWaitMillis.get());
+        return stats;
+    }
+
+    /**
+     * 等待中的请求
+     */
+    private static class Waiter {
+        private final Long agentId;
+        private final IntConsumer positionListener;
+        private final CompletableFuture<Permit> future = new CompletableFuture<>();
+        private final long enqueuedAt = System.nanoTime();
+        private volatile int lastNotifiedPosition;
+
+        Waiter(Long agentId, IntConsumer positionListener) {
+            this.agentId = agentId;
+            this.positionListener = positionListener;
+        }
+    }
+
+    /**
+     * 调用许可，只有第一次释放生效
+     */
+    public class Permit {
+        private final Long agentId;
+        private final boolean counted;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(Long agentId, boolean counted) {
+            this.agentId = agentId;
+            this.counted = counted;
+        }
+
+        /**
+         * 调用成功，以延迟作为自适应上限的样本
+         * @param rttNanos 延迟（纳秒）
+         */
+        public void success(long rttNanos) {
+            doRelease(Math.max(rttNanos, 1));
+        }
+
+        /**
+         * 调用失败，收缩自适应上限
+         */
+        public void failure() {
+            doRelease(-1);
+        }
+
+        /**
+         * 释放许可，不产生延迟样本
+         */
+        public void release() {
+            doRelease(0);
+        }
+
+        private void doRelease(long rttNanos) {
+            if (released.compareAndSet(false, true) && counted) {
+                LlmAdmissionController.this.release(this, rttNanos);
+            }
+        }
+    }
+}
\ No newline at end of file
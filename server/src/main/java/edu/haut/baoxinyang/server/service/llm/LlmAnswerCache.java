@@ -0,0 +1,172 @@
+package edu.haut.baoxinyang.server.service.llm;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import edu.haut.baoxinyang.server.common.StatsProvider;
+import edu.haut.baoxinyang.server.config.LlmApiConfig;
+import edu.haut.baoxinyang.server.dto.llm.LlmRequestDTO;
+import edu.haut.baoxinyang.server.dto.llm.LlmResponseDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeanUtils;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * 非流式LLM回答的精确匹配缓存
+ * 以请求指纹为键，只对开启了回答缓存的智能体生效
+ */
+@Slf4j
+@Component
+public class LlmAnswerCache implements StatsProvider {
+
+    private final LlmApiConfig.AnswerCache config;
+    private final Cache<String, Entry> cache;
+
+    /**
+     * 命中缓存节省的LLM调用耗时
+     */
+    private final LongAdder savedNanos = new LongAdder();
+
+    public LlmAnswerCache(LlmApiConfig llmApiConfig) {
+        this.config = llmApiConfig.getAnswerCache();
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(config.getMaxSize())
+                .expireAfterWrite(Duration.ofMillis(config.getTtl()))
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * 请求是否可以使用缓存
+     */
+    public boolean isCacheable(LlmRequestDTO request) {
+        return config.isEnabled() && request.isAnswerCacheable() && request.getAgentId() != null;
+    }
+
+    /**
+     * 查询缓存
+     * @param key 请求指纹
+     * @return 回答副本，未命中时返回null
+     */
+    public LlmResponseDTO get(String key) {
+        Entry entry = cache.getIfPresent(key);
+        if (entry == null) {
+            return null;
+        }
+        savedNanos.add(entry.costNanos);
+        return copy(entry.response);
+    }
+
+    /**
+     * 写入缓存
+     * @param key 请求指纹
+     * @param request 原始请求，用于记录失效所需的模板和检索范围
+     * @param response LLM回答
+     * @param costNanos 本次调用耗时
+     */
+    public void put(String key, LlmRequestDTO request, LlmResponseDTO response, long costNanos) {
+        if (response == null || response.getAnswer() == null) {
+            return;
+        }
+        cache.put(key, new Entry(request, copy(response), costNanos));
+    }
+
+    /**
+     * 智能体配置修改或删除后失效其全部缓存
+     * @param agentId 智能体ID
+     */
+    public void invalidateAgent(Long agentId) {
+        if (agentId != null) {
+            invalidateIf(entry -> agentId.equals(entry.agentId));
+        }
+    }
+
+    /**
+     * 提示词模板内容修改后失效引用该模板的缓存
+     * @param templateId 模板ID
+     */
+    public void invalidateTemplate(String templateId) {
+        invalidateIf(entry -> Objects.equals(templateId, entry.templateId));
+    }
+
+    /**
+     * 向量数据库命名空间内容修改后失效引用该命名空间的缓存
+     * @param namespace 命名空间
+     */
+    public void invalidateNamespace(String namespace) {
+        invalidateIf(entry -> entry.namespaces.contains(namespace));
+    }
+
+    /**
+     * 精确查找数据库内容修改后失效缓存
+     * @param categoryUid 类别UID，为null时无法确定类别，失效所有使用精确查找的缓存
+     */
+    public void invalidateCategory(String categoryUid) {
+        invalidateIf(entry -> categoryUid == null ? !entry.categories.isEmpty() : entry.categories.contains(categoryUid));
+    }
+
+    @Override
+    public String getStatsName() {
+        return "llmAnswerCache";
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        CacheStats stats = cache.stats();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("enabled", config.isEnabled());
+        result.put("size", cache.estimatedSize());
+        result.put("hitCount", stats.hitCount());
+        result.put("missCount", stats.missCount());
+        result.put("hitRate", stats.hitRate());
+        result.put("evictionCount", stats.evictionCount());
+        result.put("savedMillis", savedNanos.sum() / 1_000_000);
+        return result;
+    }
+
+    private void invalidateIf(Predicate<Entry> predicate) {
+        int before = cache.asMap().size();
+        cache.asMap().values().removeIf(predicate);
+        int removed = before - cache.asMap().size();
+        if (removed > 0) {
+            log.debug("已失效{}条LLM回答缓存", removed);
+        }
+    }
+
+    private static LlmResponseDTO copy(LlmResponseDTO source) {
+        LlmResponseDTO target = new LlmResponseDTO();
+        BeanUtils.copyProperties(source, target);
+        return target;
+    }
+
+    /**
+     * 缓存条目，记录失效时需要匹配的模板和检索范围
+     */
+    private static final class Entry {
+        private final Long agentId;
+        private final String templateId;
+        private final List<String> namespaces;
+        private final List<String> categories;
+        private final LlmResponseDTO response;
+        private final long costNanos;
+
+        Entry(LlmRequestDTO request, LlmResponseDTO response, long costNanos) {
+            this.agentId = request.getAgentId();
+            this.templateId = request.getTemplateConfig() != null ? request.getTemplateConfig().getTemplateId() : null;
+            this.namespaces = request.getVectorSearchConfig() != null && request.getVectorSearchConfig().getNamespaces() != null
+                    ? List.copyOf(request.getVectorSearchConfig().getNamespaces()) : List.of();
+            this.categories = request.getPreciseSearchConfig() != null && request.getPreciseSearchConfig().getCategories() != null
+                    ? List.copyOf(request.getPreciseSearchConfig().getCategories()) : List.of();
+            this.response = response;
+            this.costNanos = costNanos;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,254 @@
+package edu.haut.baoxinyang.server.service.llm;
+
+import edu.haut.baoxinyang.server.common.StatsProvider;
+import edu.haut.baoxinyang.server.config.LlmApiConfig;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LLM后端实例池
+ * 聊天调用按未完成请求数最少的实例路由；管理调用按命名空间、类别或模板ID做一致性路由，
+ * 让同一份数据始终落在缓存已预热的实例上；定期健康检查并摘除连续失败的实例
+ */
+@Slf4j
+@Component
+public class LlmBackendPool implements StatsProvider {
+
+    private final LlmApiConfig.HealthCheck config;
+    private final List<Backend> backends = new ArrayList<>();
+    private final OkHttpClient probeClient;
+
+    public LlmBackendPool(LlmApiConfig llmApiConfig, LlmHttpClientRegistry httpClientRegistry) {
+        this.config = llmApiConfig.getHealthCheck();
+        for (String url : llmApiConfig.getInstanceUrls()) {
+            backends.add(new Backend(url.endsWith("/") ? url.substring(0, url.length() - 1) : url));
+        }
+        this.probeClient = httpClientRegistry.getManageClient().newBuilder()
+                .connectTimeout(config.getTimeout(), TimeUnit.MILLISECONDS)
+                .readTimeout(config.getTimeout(), TimeUnit.MILLISECONDS)
+                .build();
+        log.info("LLM后端实例: {}", llmApiConfig.getInstanceUrls());
+    }
+
+    /**
+     * 选择未完成请求数最少的健康实例，调用结束后必须调用{@link Backend#release(boolean)}
+     * @return 后端实例
+     */
+    public Backend acquire() {
+        return acquireExcluding(null);
+    }
+
+    /**
+     * 选择除指定实例外未完成请求数最少的健康实例，用于对冲请求
+     * @param excluded 排除的实例
+     * @return 后端实例，没有其他健康实例时返回null
+     */
+    public Backend acquireExcluding(Backend excluded) {
+        List<Backend> candidates = healthyBackends();
+        if (excluded != null) {
+            candidates = new ArrayList<>(candidates);
+            candidates.remove(excluded);
+            if (candidates.isEmpty()) {
+                return null;
+            }
+        }
+        Backend selected = null;
+        int selectedLoad = Integer.MAX_VALUE;
+        // 从随机位置开始遍历，负载相同时避免总是选中第一个实例
+        int offset = ThreadLocalRandom.current().nextInt(candidates.size());
+        for (int i = 0; i < candidates.size(); i++) {
+            Backend backend = candidates.get((offset + i) % candidates.size());
+            int load = backend.outstanding.get();
+            if (load < selectedLoad) {
+                selected = backend;
+                selectedLoad = load;
+            }
+        }
+        selected.outstanding.incrementAndGet();
+        selected.requests.increment();
+        return selected;
+    }
+
+    /**
+     * 配置的实例数量
+     */
+    public int size() {
+        return backends.size();
+    }
+
+    /**
+     * 按键做一致性路由（最高随机权重哈希），实例摘除或恢复时只影响该实例上的键
+     * @param key 路由键，如命名空间、类别UID或模板ID
+     * @return 实例基础URL
+     */
+    public String route(String key) {
+        List<Backend> candidates = healthyBackends();
+        if (candidates.size() == 1 || key == null) {
+            return candidates.get(0).baseUrl;
+        }
+        Backend selected = null;
+        long selectedScore = Long.MIN_VALUE;
+        for (Backend backend : candidates) {
+            long score = mix(hash(key) ^ backend.hash);
+            if (selected == null || score > selectedScore) {
+                selected = backend;
+                selectedScore = score;
+            }
+        }
+        return selected.baseUrl;
+    }
+
+    /**
+     * 定期探测各实例的健康检查接口
+     * 探测请求异步发出，不占用定时任务线程；上一次探测未结束的实例本轮跳过
+     */
+    @Scheduled(fixedDelayString = "${llm.api.health-check.interval:10000}")
+    public void probe() {
+        for (Backend backend : backends) {
+            if (!backend.probing.compareAndSet(false, true)) {
+                continue;
+            }
+            Request request = new Request.Builder().url(backend.baseUrl + config.getPath()).get().build();
+            probeClient.newCall(request).enqueue(new Callback() {
+                @Override
+                public void onResponse(Call call, Response response) {
+                    try (response) {
+                        if (response.isSuccessful()) {
+                            backend.markSuccess();
+                        } else {
+                            backend.markFailure();
+                        }
+                    } finally {
+                        backend.probing.set(false);
+                    }
+                }
+
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    backend.markFailure();
+                    backend.probing.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * 健康实例列表，全部不健康时退回全部实例，避免完全不可用
+     */
+    private List<Backend> healthyBackends() {
+        List<Backend> healthy = new ArrayList<>(backends.size());
+        for (Backend backend : backends) {
+            if (backend.healthy) {
+                healthy.add(backend);
+            }
+        }
+        return healthy.isEmpty() ? backends : healthy;
+    }
+
+    private static long hash(String value) {
+        long h = 1125899906842597L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            h = 31 * h + b;
+        }
+        return h;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    @Override
+    public String getStatsName() {
+        return "llmBackend";
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (Backend backend : backends) {
+            Map<String, Object> backendStats = new LinkedHashMap<>();
+            backendStats.put("healthy", backend.healthy);
+            backendStats.put("outstanding", backend.outstanding.get());
+            backendStats.put("requests", backend.requests.sum());
+            backendStats.put("failures", backend.failures.sum());
+            backendStats.put("ejections", backend.ejections.sum());
+            stats.put(backend.baseUrl, backendStats);
+        }
+        return stats;
+    }
+
+    /**
+     * 后端实例
+     */
+    public class Backend {
+
+        private final String baseUrl;
+        private final long hash;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder ejections = new LongAdder();
+        private final AtomicBoolean probing = new AtomicBoolean();
+        private volatile boolean healthy = true;
+
+        private Backend(String baseUrl) {
+            this.baseUrl = baseUrl;
+            this.hash = hash(baseUrl);
+        }
+
+        public String getBaseUrl() {
+            return baseUrl;
+        }
+
+        /**
+         * 调用结束，归还未完成请求计数
+         * @param failed 是否因实例原因失败
+         */
+        public void release(boolean failed) {
+            outstanding.decrementAndGet();
+            if (failed) {
+                markFailure();
+            } else {
+                consecutiveFailures.set(0);
+            }
+        }
+
+        private void markSuccess() {
+            consecutiveFailures.set(0);
+            if (!healthy) {
+                healthy = true;
+                log.info("LLM后端实例已恢复: {}", baseUrl);
+            }
+        }
+
+        private void markFailure() {
+            failures.increment();
+            if (consecutiveFailures.incrementAndGet() >= config.getFailureThreshold() && healthy) {
+                healthy = false;
+                ejections.increment();
+                log.warn("LLM后端实例连续失败，已摘除: {}", baseUrl);
+            }
+        }
+    }
+}
\ No newline at end of file
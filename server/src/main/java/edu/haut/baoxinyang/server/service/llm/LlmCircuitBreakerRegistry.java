@@ -0,0 +1,55 @@
+package edu.haut.baoxinyang.server.service.llm;
+
+import edu.haut.baoxinyang.server.common.StatsProvider;
+import edu.haut.baoxinyang.server.config.LlmApiConfig;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LLM后端熔断器注册表，每个智能体一个熔断器
+ */
+@Component
+public class LlmCircuitBreakerRegistry implements StatsProvider {
+
+    private final LlmApiConfig.CircuitBreaker config;
+    private final Map<Long, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> transitions = new ConcurrentHashMap<>();
+
+    public LlmCircuitBreakerRegistry(LlmApiConfig llmApiConfig) {
+        this.config = llmApiConfig.getCircuitBreaker();
+    }
+
+    /**
+     * 获取智能体对应的熔断器
+     * @param agentId 智能体ID，为null时使用公共熔断器
+     * @return 熔断器
+     */
+    public CircuitBreaker get(Long agentId) {
+        Long key = agentId != null ? agentId : 0L;
+        return breakers.computeIfAbsent(key, id -> new CircuitBreaker("agent-" + id, config,
+                (from, to) -> transitions.computeIfAbsent(from + "->" + to, k -> new LongAdder()).increment()));
+    }
+
+    @Override
+    public String getStatsName() {
+        return "llmCircuitBreaker";
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", config.isEnabled());
+        Map<String, Object> transitionCounts = new TreeMap<>();
+        transitions.forEach((key, count) -> transitionCounts.put(key, count.sum()));
+        stats.put("transitions", transitionCounts);
+        Map<Long, Object> agents = new TreeMap<>();
+        breakers.forEach((agentId, breaker) -> agents.put(agentId, breaker.snapshot()));
+        stats.put("agents", agents);
+        return stats;
+    }
+}
\ No newline at end of file
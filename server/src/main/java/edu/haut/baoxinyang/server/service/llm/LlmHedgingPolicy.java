@@ -0,0 +1,114 @@
+package edu.haut.baoxinyang.server.service.llm;
+
+import edu.haut.baoxinyang.server.common.StatsProvider;
+import edu.haut.baoxinyang.server.config.LlmApiConfig;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 非流式调用的对冲策略
+ * 根据最近调用延迟的P95决定何时发出对冲请求，并用令牌桶把对冲请求限制在总请求数的固定比例内
+ */
+@Component
+public class LlmHedgingPolicy implements StatsProvider {
+
+    /**
+     * 令牌桶容量，允许短时间内集中对冲的数量
+     */
+    private static final double MAX_TOKENS = 10;
+
+    private final LlmApiConfig.Hedging config;
+    private final LlmBackendPool backendPool;
+
+    private final long[] samples;
+    private int sampleCount;
+    private int cursor;
+    private long p95Millis = -1;
+    private double tokens;
+
+    private final LongAdder hedged = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder budgetDenied = new LongAdder();
+
+    public LlmHedgingPolicy(LlmApiConfig llmApiConfig, LlmBackendPool backendPool) {
+        this.config = llmApiConfig.getHedging();
+        this.backendPool = backendPool;
+        this.samples = new long[config.getSampleWindow()];
+    }
+
+    /**
+     * 记录一次请求，并为对冲预算补充令牌
+     * @return 对冲等待时间（毫秒），不需要对冲时返回-1
+     */
+    public synchronized long onRequest() {
+        if (!config.isEnabled() || backendPool.size() < 2) {
+            return -1;
+        }
+        tokens = Math.min(MAX_TOKENS, tokens + config.getBudgetPercent() / 100);
+        if (p95Millis < 0) {
+            return -1;
+        }
+        return Math.max(config.getMinDelay(), p95Millis);
+    }
+
+    /**
+     * 申请发出一次对冲请求
+     * @return 预算是否允许
+     */
+    public synchronized boolean tryHedge() {
+        if (tokens < 1) {
+            budgetDenied.increment();
+            return false;
+        }
+        tokens -= 1;
+        hedged.increment();
+        return true;
+    }
+
+    /**
+     * 对冲请求先于原请求返回
+     */
+    public void onHedgeWin() {
+        hedgeWins.increment();
+    }
+
+    /**
+     * 记录一次成功调用的延迟
+     * @param latencyMillis 延迟（毫秒）
+     */
+    public synchronized void recordLatency(long latencyMillis) {
+        samples[cursor] = latencyMillis;
+        cursor = (cursor + 1) % samples.length;
+        if (sampleCount < samples.length) {
+            sampleCount++;
+        }
+        // 每积累一定样本重新计算一次分位数
+        if (sampleCount >= config.getMinSamples() && cursor % 10 == 0) {
+            long[] sorted = Arrays.copyOf(samples, sampleCount);
+            Arrays.sort(sorted);
+            p95Millis = sorted[(int) Math.ceil(sorted.length * 0.95) - 1];
+        }
+    }
+
+    @Override
+    public String getStatsName() {
+        return "llmHedging";
+    }
+
+    @Override
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", config.isEnabled() && backendPool.size() > 1);
+        stats.put("p95Millis", p95Millis);
+        stats.put("samples", sampleCount);
+        stats.put("tokens", tokens);
+        stats.put("hedged", hedged.sum());
+        stats.put("hedgeWins", hedgeWins.sum());
+        stats.put("budgetDenied", budgetDenied.sum());
+        return stats;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,112 @@
+package edu.haut.baoxinyang.server.service.llm;
+
+import edu.haut.baoxinyang.server.common.StatsProvider;
+import edu.haut.baoxinyang.server.config.LlmApiConfig;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LLM后端HTTP客户端注册表
+ * 按流式聊天、非流式聊天、后台管理三类流量分别维护共享的连接池和调度器，
+ * 避免每次调用都新建OkHttpClient
+ */
+@Slf4j
+@Component
+public class LlmHttpClientRegistry implements StatsProvider {
+
+    private final OkHttpClient streamClient;
+    private final OkHttpClient askClient;
+    private final OkHttpClient manageClient;
+
+    public LlmHttpClientRegistry(LlmApiConfig config) {
+        OkHttpClient baseClient = new OkHttpClient.Builder()
+                .connectTimeout(config.getConnectTimeout(), TimeUnit.MILLISECONDS)
+                .writeTimeout(config.getWriteTimeout(), TimeUnit.MILLISECONDS)
+                .readTimeout(config.getReadTimeout(), TimeUnit.MILLISECONDS)
+                .build();
+        this.streamClient = buildClient(baseClient, config.getStreamPool());
+        this.askClient = buildClient(baseClient, config.getAskPool());
+        this.manageClient = buildClient(baseClient, config.getManagePool());
+    }
+
+    /**
+     * 在基础客户端上派生出拥有独立连接池和调度器的客户端
+     */
+    private OkHttpClient buildClient(OkHttpClient baseClient, LlmApiConfig.ClientPool pool) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(pool.getMaxRequests());
+        dispatcher.setMaxRequestsPerHost(pool.getMaxRequestsPerHost());
+        return baseClient.newBuilder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(pool.getMaxIdleConnections(),
+                        pool.getKeepAliveDuration(), TimeUnit.MILLISECONDS))
+                .build();
+    }
+
+    /**
+     * 流式聊天使用的客户端
+     */
+    public OkHttpClient getStreamClient() {
+        return streamClient;
+    }
+
+    /**
+     * 非流式聊天使用的客户端
+     */
+    public OkHttpClient getAskClient() {
+        return askClient;
+    }
+
+    /**
+     * 后台管理使用的客户端
+     */
+    public OkHttpClient getManageClient() {
+        return manageClient;
+    }
+
+    @Override
+    public String getStatsName() {
+        return "llmHttpClient";
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("stream", clientStats(streamClient));
+        stats.put("ask", clientStats(askClient));
+        stats.put("manage", clientStats(manageClient));
+        return stats;
+    }
+
+    private Map<String, Object> clientStats(OkHttpClient client) {
+        ConnectionPool pool = client.connectionPool();
+        Dispatcher dispatcher = client.dispatcher();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("idleConnections", pool.idleConnectionCount());
+        stats.put("activeConnections", pool.connectionCount() - pool.idleConnectionCount());
+        stats.put("runningCalls", dispatcher.runningCallsCount());
+        stats.put("queuedCalls", dispatcher.queuedCallsCount());
+        return stats;
+    }
+
+    /**
+     * 关闭时释放调度线程和连接
+     */
+    @PreDestroy
+    public void shutdown() {
+        for (OkHttpClient client : new OkHttpClient[]{streamClient, askClient, manageClient}) {
+            client.dispatcher().cancelAll();
+            client.dispatcher().executorService().shutdown();
+            client.connectionPool().evictAll();
+        }
+        log.info("LLM HTTP客户端已关闭");
+    }
+}
\ No newline at end of file
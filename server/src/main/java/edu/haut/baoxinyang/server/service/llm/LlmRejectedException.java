@@ -0,0 +1,11 @@
+package edu.haut.baoxinyang.server.service.llm;
+
+/**
+ * LLM调用被准入控制拒绝时抛出的异常
+ */
+public class LlmRejectedException extends RuntimeException {
+
+    public LlmRejectedException(String message) {
+        super(message);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,110 @@
+package edu.haut.baoxinyang.server.service.llm;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.JsonGeneratorDelegate;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import edu.haut.baoxinyang.server.dto.llm.LlmRequestDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Set;
+
+/**
+ * LLM请求指纹
+ * 对请求做规范化后计算哈希，内容相同的请求得到相同的指纹，用于回答缓存和合并并发请求
+ */
+@Slf4j
+@Component
+public class LlmRequestFingerprint {
+
+    /**
+     * 需要规范化空白的字段：用户消息、症状参数和历史消息内容
+     */
+    private static final Set<String> NORMALIZED_FIELDS = Set.of("message", "symptoms", "content");
+
+    private final ObjectMapper keyMapper;
+
+    public LlmRequestFingerprint(ObjectMapper objectMapper) {
+        ObjectMapper mapper = objectMapper.copy().enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+        mapper.setConfig(mapper.getSerializationConfig().with(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY));
+        this.keyMapper = mapper;
+    }
+
+    /**
+     * 计算请求指纹，消息和历史中的空白会被规范化，字段和Map按键排序
+     * 序列化结果直接写入摘要，不生成中间的JSON树和字符串
+     * @param request LLM请求
+     * @return 以智能体ID为前缀的指纹，无法序列化时返回null
+     */
+    public String of(LlmRequestDTO request) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            OutputStream out = new DigestOutputStream(OutputStream.nullOutputStream(), digest);
+            try (JsonGenerator generator = new NormalizingGenerator(keyMapper.getFactory().createGenerator(out))) {
+                keyMapper.writeValue(generator, request);
+            }
+            return request.getAgentId() + ":" + HexFormat.of().formatHex(digest.digest());
+        } catch (Exception e) {
+            log.warn("计算LLM请求指纹失败: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 连续空白合并为一个空格并去掉首尾空白
+     */
+    private static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder builder = new StringBuilder(text.length());
+        boolean space = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = builder.length() > 0;
+            } else {
+                if (space) {
+                    builder.append(' ');
+                    space = false;
+                }
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 写出时规范化指定字段的字符串值
+     */
+    private static class NormalizingGenerator extends JsonGeneratorDelegate {
+
+        NormalizingGenerator(JsonGenerator delegate) {
+            super(delegate, false);
+        }
+
+        @Override
+        public void writeString(String text) throws IOException {
+            String name = getOutputContext().getCurrentName();
+            super.writeString(name != null && NORMALIZED_FIELDS.contains(name) ? normalize(text) : text);
+        }
+
+        @Override
+        public void writeNull() throws IOException {
+            String name = getOutputContext().getCurrentName();
+            if (name != null && NORMALIZED_FIELDS.contains(name)) {
+                // 与空字符串视为相同
+                super.writeString("");
+            } else {
+                super.writeNull();
+            }
+        }
+    }
+}
\ No newline at end of file
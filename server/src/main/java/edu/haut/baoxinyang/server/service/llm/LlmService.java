@@ -8,6 +8,7 @@ import edu.haut.baoxinyang.server.entity.User;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * LLM服务接口
@@ -22,13 +23,31 @@ public interface LlmService {
      */
     LlmResponseDTO ask(LlmRequestDTO request);
     
+    /**
+     * 异步发送非流式请求，等待模型响应期间不占用调用线程
+     * 
+     * @param request LLM请求对象
+     * @return 完成时为LLM响应对象，调用失败时为null
+     */
+    CompletableFuture<LlmResponseDTO> askAsync(LlmRequestDTO request);
+    
+    /**
+     * 以低优先级发送后台任务（如对话摘要）的非流式请求
+     * 只使用空闲的准入名额，不经过回答缓存、请求合并和对冲，结果也不计入熔断和自适应上限的统计
+     * 
+     * @param request LLM请求对象
+     * @return 完成时为LLM响应对象，熔断中、没有空闲名额或调用失败时为null；取消时同时取消上游请求
+     */
+    CompletableFuture<LlmResponseDTO> askBackground(LlmRequestDTO request);
+    
     /**
      * 发送流式请求
      * 
      * @param request LLM请求对象
      * @param callback SSE回调
+     * @return 可用于取消上游请求的句柄
      */
-    void stream(LlmRequestDTO request, SseCallback callback);
+    StreamHandle stream(LlmRequestDTO request, SseCallback callback);
     
     /**
      * 根据对话内容构建LLM请求
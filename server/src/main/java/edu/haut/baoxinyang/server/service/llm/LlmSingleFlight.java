@@ -0,0 +1,343 @@
+package edu.haut.baoxinyang.server.service.llm;
+
+import edu.haut.baoxinyang.server.common.StatsProvider;
+import edu.haut.baoxinyang.server.config.LlmApiConfig;
+import edu.haut.baoxinyang.server.dto.llm.LlmResponseDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeanUtils;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 合并并发的相同LLM请求
+ * 指纹相同的请求在前一个请求结束前到达时不再调用上游，非流式请求共享同一个结果，
+ * 流式请求先补发已输出的内容，再和第一个订阅者一起接收后续输出
+ */
+@Slf4j
+@Component
+public class LlmSingleFlight implements StatsProvider {
+
+    private final boolean enabled;
+    private final int maxReplayEvents;
+
+    private final Map<String, CompletableFuture<LlmResponseDTO>> asks = new ConcurrentHashMap<>();
+    private final Map<String, SharedStream> streams = new ConcurrentHashMap<>();
+
+    private final LongAdder coalescedAsks = new LongAdder();
+    private final LongAdder coalescedStreams = new LongAdder();
+
+    public LlmSingleFlight(LlmApiConfig llmApiConfig) {
+        this.enabled = llmApiConfig.getSingleFlight().isEnabled();
+        this.maxReplayEvents = llmApiConfig.getSingleFlight().getMaxReplayEvents();
+    }
+
+    /**
+     * 执行非流式请求，相同请求正在进行时共享其结果
+     * @param key 请求指纹，为null时不合并
+     * @param call 实际调用
+     * @return LLM响应，跟随者拿到的是副本
+     */
+    public CompletableFuture<LlmResponseDTO> ask(String key, Supplier<CompletableFuture<LlmResponseDTO>> call) {
+        if (!enabled || key == null) {
+            return call.get();
+        }
+        CompletableFuture<LlmResponseDTO> mine = new CompletableFuture<>();
+        CompletableFuture<LlmResponseDTO> existing = asks.putIfAbsent(key, mine);
+        if (existing != null) {
+            coalescedAsks.increment();
+            log.debug("合并相同的LLM请求: {}", key);
+            return existing.handle((shared, error) -> shared != null ? copy(shared) : null);
+        }
+        CompletableFuture<LlmResponseDTO> result;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            asks.remove(key, mine);
+            mine.completeExceptionally(e);
+            throw e;
+        }
+        return result.whenComplete((value, error) -> {
+            asks.remove(key, mine);
+            if (error != null) {
+                mine.completeExceptionally(error);
+            } else {
+                mine.complete(value);
+            }
+        });
+    }
+
+    /**
+     * 执行流式请求，相同请求正在输出时直接订阅其输出
+     * @param key 请求指纹，为null时不合并
+     * @param callback 本次请求的回调
+     * @param starter 发起上游请求，参数为共享流的回调
+     * @return 本次订阅的句柄，所有订阅者都取消后才会取消上游请求
+     */
+    public StreamHandle stream(String key, SseCallback callback, Function<SseCallback, StreamHandle> starter) {
+        if (!enabled || key == null) {
+            return starter.apply(callback);
+        }
+        while (true) {
+            // 只在map中查找或放入共享流，订阅和补发都在锁外进行
+            boolean[] created = new boolean[1];
+            SharedStream shared = streams.computeIfAbsent(key, k -> {
+                created[0] = true;
+                return new SharedStream(k);
+            });
+            StreamHandle handle = shared.subscribe(callback);
+            if (handle == null) {
+                // 流已结束或不再接受新订阅者，移除后重新创建
+                streams.remove(key, shared);
+                continue;
+            }
+            if (created[0]) {
+                shared.start(starter.apply(shared));
+            } else {
+                coalescedStreams.increment();
+                log.debug("合并相同的LLM流式请求: {}", key);
+            }
+            return handle;
+        }
+    }
+
+    @Override
+    public String getStatsName() {
+        return "llmSingleFlight";
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("inFlightAsks", asks.size());
+        stats.put("inFlightStreams", streams.size());
+        stats.put("coalescedAsks", coalescedAsks.sum());
+        stats.put("coalescedStreams", coalescedStreams.sum());
+        stats.put("coalesced", coalescedAsks.sum() + coalescedStreams.sum());
+        return stats;
+    }
+
+    private static LlmResponseDTO copy(LlmResponseDTO source) {
+        LlmResponseDTO target = new LlmResponseDTO();
+        BeanUtils.copyProperties(source, target);
+        return target;
+    }
+
+    /**
+     * 被多个订阅者共享的上游流，记录已输出的事件供后来的订阅者补发
+     * 回调订阅者和操作streams都在对象锁外进行，避免和ConcurrentHashMap的桶锁互相等待
+     */
+    private class SharedStream implements SseCallback {
+
+        private final String key;
+        private final List<SseEvent> events = new ArrayList<>();
+        private final List<SseCallback> subscribers = new ArrayList<>();
+        /**
+         * 正在补发的订阅者及补发期间新到达的事件
+         */
+        private final Map<SseCallback, List<SseEvent>> replaying = new IdentityHashMap<>();
+        private StreamHandle upstream;
+        private boolean finished;
+        private boolean abandoned;
+        private boolean joinable = true;
+        private Consumer<SseCallback> terminal;
+
+        SharedStream(String key) {
+            this.key = key;
+        }
+
+        /**
+         * 订阅输出，先补发已记录的事件再接收后续输出
+         * @return 订阅句柄，流已经结束或不再接受新订阅者时返回null
+         */
+        StreamHandle subscribe(SseCallback callback) {
+            List<SseEvent> backlog;
+            synchronized (this) {
+                if (finished || !joinable) {
+                    return null;
+                }
+                backlog = new ArrayList<>(events);
+                replaying.put(callback, new ArrayList<>());
+            }
+            Subscription subscription = new Subscription(this, callback);
+            replay(callback, backlog);
+            return subscription;
+        }
+
+        private void replay(SseCallback callback, List<SseEvent> backlog) {
+            Consumer<SseCallback> end = null;
+            while (true) {
+                for (SseEvent event : backlog) {
+                    callback.onEvent(event);
+                }
+                synchronized (this) {
+                    List<SseEvent> arrived = replaying.get(callback);
+                    if (arrived == null) {
+                        // 补发期间已取消
+                        return;
+                    }
+                    if (arrived.isEmpty()) {
+                        replaying.remove(callback);
+                        if (finished) {
+                            end = terminal;
+                        } else {
+                            subscribers.add(callback);
+                        }
+                        break;
+                    }
+                    backlog = new ArrayList<>(arrived);
+                    arrived.clear();
+                }
+            }
+            if (end != null) {
+                end.accept(callback);
+            }
+        }
+
+        /**
+         * 关联上游请求句柄，此前所有订阅者都已取消时立即取消
+         */
+        void start(StreamHandle handle) {
+            boolean cancelNow;
+            synchronized (this) {
+                upstream = handle;
+                cancelNow = abandoned;
+            }
+            if (cancelNow) {
+                handle.cancel();
+            }
+        }
+
+        /**
+         * 取消一个订阅者，最后一个订阅者取消时取消上游请求
+         * @return 该订阅者是否仍在订阅
+         */
+        boolean unsubscribe(SseCallback callback) {
+            boolean last;
+            StreamHandle cancel;
+            synchronized (this) {
+                if (!subscribers.remove(callback) && replaying.remove(callback) == null) {
+                    return false;
+                }
+                last = subscribers.isEmpty() && replaying.isEmpty() && !finished;
+                if (last) {
+                    finished = true;
+                    abandoned = true;
+                }
+                cancel = last ? upstream : null;
+            }
+            if (last) {
+                streams.remove(key, this);
+            }
+            if (cancel != null) {
+                cancel.cancel();
+            }
+            return true;
+        }
+
+        @Override
+        public void onEvent(SseEvent event) {
+            boolean detach = false;
+            List<SseCallback> current;
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+                if (joinable && !QUEUE_EVENT.equals(event.getEvent()) && !event.isLastEvent()) {
+                    // 排队位置只对当前订阅者有意义，不记录
+                    events.add(event);
+                    if (events.size() > maxReplayEvents) {
+                        // 补发内容过多，之后的相同请求重新发起
+                        joinable = false;
+                        events.clear();
+                        detach = true;
+                    }
+                }
+                for (List<SseEvent> arrived : replaying.values()) {
+                    arrived.add(event);
+                }
+                current = new ArrayList<>(subscribers);
+            }
+            if (detach) {
+                streams.remove(key, this);
+            }
+            for (SseCallback subscriber : current) {
+                subscriber.onEvent(event);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            Consumer<SseCallback> end = subscriber -> subscriber.onError(throwable);
+            finish(end).forEach(end);
+        }
+
+        @Override
+        public void onComplete() {
+            Consumer<SseCallback> end = SseCallback::onComplete;
+            finish(end).forEach(end);
+        }
+
+        /**
+         * 结束共享流，正在补发的订阅者补发完成后再结束
+         * @return 需要立即结束的订阅者
+         */
+        private List<SseCallback> finish(Consumer<SseCallback> end) {
+            List<SseCallback> current;
+            synchronized (this) {
+                if (finished) {
+                    return List.of();
+                }
+                finished = true;
+                terminal = end;
+                current = new ArrayList<>(subscribers);
+                subscribers.clear();
+            }
+            streams.remove(key, this);
+            return current;
+        }
+    }
+
+    /**
+     * 单个订阅者的句柄
+     */
+    private static class Subscription implements StreamHandle {
+
+        private final SharedStream stream;
+        private final SseCallback callback;
+        private volatile boolean cancelled;
+
+        Subscription(SharedStream stream, SseCallback callback) {
+            this.stream = stream;
+            this.callback = callback;
+        }
+
+        @Override
+        public void cancel() {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            if (stream.unsubscribe(callback)) {
+                callback.onError(new CancellationException("流式请求已取消"));
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,11 @@
+package edu.haut.baoxinyang.server.service.llm;
+
+/**
+ * LLM后端熔断期间拒绝调用时抛出的异常
+ */
+public class LlmUnavailableException extends RuntimeException {
+
+    public LlmUnavailableException(String message) {
+        super(message);
+    }
+}
\ No newline at end of file
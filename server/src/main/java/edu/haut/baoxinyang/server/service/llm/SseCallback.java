@@ -7,6 +7,11 @@ import lombok.Data;
  */
 public interface SseCallback {
     
+    /**
+     * 排队位置事件类型，数据为当前排队位置
+     */
+    String QUEUE_EVENT = "queue";
+    
     /**
      * 当收到消息时调用
      * @param event SSE事件
@@ -0,0 +1,168 @@
+package edu.haut.baoxinyang.server.service.llm;
+
+import edu.haut.baoxinyang.server.common.StatsProvider;
+import edu.haut.baoxinyang.server.config.LlmApiConfig;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 流式输出合并器
+ * 在LLM回调与SSE写出之间缓冲token，按数量、字节数或最长等待时间合并写出，
+ * 减少每个token一次flush带来的系统调用开销；首个token不缓冲，保证首字延迟不变
+ */
+@Slf4j
+@Component
+public class SseCoalescer implements StatsProvider {
+
+    private final LlmApiConfig.StreamCoalesce config;
+    private final ScheduledExecutorService scheduler;
+    private final Executor flushExecutor;
+
+    private final LongAdder tokensIn = new LongAdder();
+    private final LongAdder eventsOut = new LongAdder();
+
+    public SseCoalescer(LlmApiConfig llmApiConfig, AsyncTaskExecutor applicationTaskExecutor) {
+        this.config = llmApiConfig.getStreamCoalesce();
+        // 定时线程只负责计时，写SSE可能阻塞，交给应用任务线程池执行，避免一个慢连接拖住所有流
+        this.flushExecutor = applicationTaskExecutor;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sse-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 为回调包装合并层，未启用时原样返回
+     * @param delegate 实际写出SSE的回调
+     * @return 带合并功能的回调
+     */
+    public SseCallback wrap(SseCallback delegate) {
+        if (!config.isEnabled()) {
+            return delegate;
+        }
+        return new CoalescingCallback(delegate);
+    }
+
+    @Override
+    public String getStatsName() {
+        return "sseCoalescer";
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        long in = tokensIn.sum();
+        long out = eventsOut.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", config.isEnabled());
+        stats.put("tokensIn", in);
+        stats.put("eventsOut", out);
+        stats.put("ratio", out == 0 ? 0 : (double) in / out);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 合并回调，上游事件和定时写出可能来自不同线程，统一加锁
+     */
+    private class CoalescingCallback implements SseCallback {
+
+        private final SseCallback delegate;
+        private final StringBuilder buffer = new StringBuilder();
+        private int bufferedTokens;
+        private int bufferedBytes;
+        private boolean firstSent;
+        private ScheduledFuture<?> pendingFlush;
+
+        CoalescingCallback(SseCallback delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public synchronized void onEvent(SseEvent event) {
+            if (event.isLastEvent() || event.getData() == null || QUEUE_EVENT.equals(event.getEvent())) {
+                flush();
+                delegate.onEvent(event);
+                return;
+            }
+
+            tokensIn.increment();
+            if (!firstSent) {
+                // 首个token直接写出
+                firstSent = true;
+                forward(event.getData());
+                return;
+            }
+
+            buffer.append(event.getData());
+            bufferedTokens++;
+            bufferedBytes += event.getData().getBytes(StandardCharsets.UTF_8).length;
+            if (bufferedTokens >= config.getMaxTokens() || bufferedBytes >= config.getMaxBytes()) {
+                flush();
+            } else if (pendingFlush == null) {
+                pendingFlush = scheduler.schedule(() -> flushExecutor.execute(this::scheduledFlush),
+                        config.getMaxDelay(), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        @Override
+        public synchronized void onError(Throwable throwable) {
+            flush();
+            delegate.onError(throwable);
+        }
+
+        @Override
+        public synchronized void onComplete() {
+            flush();
+            delegate.onComplete();
+        }
+
+        private synchronized void scheduledFlush() {
+            pendingFlush = null;
+            try {
+                flush();
+            } catch (Exception e) {
+                log.warn("定时写出SSE缓冲失败: {}", e.getMessage());
+            }
+        }
+
+        private void flush() {
+            if (pendingFlush != null) {
+                pendingFlush.cancel(false);
+                pendingFlush = null;
+            }
+            if (buffer.length() == 0) {
+                return;
+            }
+            String data = buffer.toString();
+            buffer.setLength(0);
+            bufferedTokens = 0;
+            bufferedBytes = 0;
+            forward(data);
+        }
+
+        private void forward(String data) {
+            SseEvent merged = new SseEvent();
+            merged.setData(data);
+            merged.setLastEvent(false);
+            eventsOut.increment();
+            delegate.onEvent(merged);
+        }
+    }
+}
\ No newline at end of file
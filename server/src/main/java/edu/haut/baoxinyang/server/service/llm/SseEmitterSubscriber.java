@@ -0,0 +1,109 @@
+package edu.haut.baoxinyang.server.service.llm;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 将流式会话的输出写到浏览器SSE连接的订阅者
+ * 每个片段以序号作为事件ID，浏览器断开、超时或写入失败时取消订阅
+ */
+@Slf4j
+public class SseEmitterSubscriber implements StreamSession.Subscriber {
+
+    private final SseEmitter emitter;
+    private final StreamSession session;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    public SseEmitterSubscriber(SseEmitter emitter, StreamSession session) {
+        this.emitter = emitter;
+        this.session = session;
+
+        // 超时、出错或连接被容器关闭时，不再向该连接写出
+        emitter.onTimeout(() -> {
+            log.warn("SSE连接超时");
+            detach();
+        });
+        emitter.onError(throwable -> {
+            log.warn("SSE连接出错: {}", throwable.getMessage());
+            detach();
+        });
+        emitter.onCompletion(() -> {
+            log.info("SSE连接已关闭");
+            detach();
+        });
+    }
+
+    /**
+     * 订阅会话
+     * @param lastEventId 客户端最后收到的片段序号，新连接传0
+     */
+    public void subscribe(long lastEventId) {
+        session.subscribe(this, lastEventId);
+    }
+
+    @Override
+    public void onChunk(long seq, String data) {
+        if (closed.get()) {
+            return;
+        }
+        try {
+            emitter.send(SseEmitter.event()
+                    .id(String.valueOf(seq))
+                    .name("message")
+                    .data(data, MediaType.TEXT_PLAIN));
+        } catch (IOException | IllegalStateException e) {
+            log.warn("发送SSE事件失败，客户端可能已断开: {}", e.getMessage());
+            detach();
+            emitter.completeWithError(e);
+        }
+    }
+
+    @Override
+    public void onQueued(int position) {
+        if (closed.get()) {
+            return;
+        }
+        try {
+            emitter.send(SseEmitter.event()
+                    .name("queue")
+                    .data(String.valueOf(position), MediaType.TEXT_PLAIN));
+        } catch (IOException | IllegalStateException e) {
+            log.warn("发送排队事件失败，客户端可能已断开: {}", e.getMessage());
+            detach();
+            emitter.completeWithError(e);
+        }
+    }
+
+    @Override
+    public void onComplete() {
+        if (closed.compareAndSet(false, true)) {
+            emitter.complete();
+        }
+    }
+
+    @Override
+    public void onError(String message) {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            emitter.send(SseEmitter.event()
+                    .name("error")
+                    .data(message != null ? message : "流式回复出错", MediaType.TEXT_PLAIN));
+            emitter.complete();
+        } catch (IOException | IllegalStateException e) {
+            log.error("发送SSE错误事件失败", e);
+            emitter.completeWithError(e);
+        }
+    }
+
+    private void detach() {
+        if (closed.compareAndSet(false, true)) {
+            session.unsubscribe(this);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,32 @@
+package edu.haut.baoxinyang.server.service.llm;
+
+/**
+ * 流式请求句柄，用于在客户端断开后取消上游请求
+ */
+public interface StreamHandle {
+    
+    /**
+     * 已经结束的句柄，取消操作不做任何事
+     */
+    StreamHandle CLOSED = new StreamHandle() {
+        @Override
+        public void cancel() {
+        }
+        
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    };
+    
+    /**
+     * 取消上游流式请求
+     */
+    void cancel();
+    
+    /**
+     * 是否已被取消
+     * @return 是否已被取消
+     */
+    boolean isCancelled();
+}
\ No newline at end of file
@@ -0,0 +1,304 @@
+package edu.haut.baoxinyang.server.service.llm;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * 一次流式回复的会话
+ * 作为上游LLM流的回调，把输出片段按序号写入有界环形缓冲区并转发给当前连接的客户端；
+ * 客户端断线后可以凭最后收到的序号重新订阅，补发缺失片段后继续接收实时输出
+ */
+public class StreamSession implements SseCallback {
+
+    /**
+     * 会话状态
+     */
+    public enum State {
+        ACTIVE, COMPLETED, FAILED, ABANDONED
+    }
+
+    /**
+     * 会话订阅者，即一个客户端连接
+     */
+    public interface Subscriber {
+
+        /**
+         * 收到输出片段
+         * @param seq 片段序号，从1开始
+         * @param data 片段内容
+         */
+        void onChunk(long seq, String data);
+
+        /**
+         * 请求正在排队
+         * @param position 排队位置，从1开始
+         */
+        void onQueued(int position);
+
+        /**
+         * 流正常结束
+         */
+        void onComplete();
+
+        /**
+         * 流异常结束
+         * @param message 错误信息
+         */
+        void onError(String message);
+    }
+
+    private record Chunk(long seq, String data) {
+    }
+
+    private final String id;
+    private final Long conversationId;
+    private final Long userId;
+    private final int bufferSize;
+    private final StreamSessionRegistry registry;
+
+    private final Deque<Chunk> buffer = new ArrayDeque<>();
+    private final List<Subscriber> subscribers = new ArrayList<>();
+    private long lastSeq;
+    private State state = State.ACTIVE;
+    private String errorMessage;
+    private StreamHandle handle;
+    private ScheduledFuture<?> pendingCancel;
+
+    StreamSession(String id, Long conversationId, Long userId, int bufferSize, StreamSessionRegistry registry) {
+        this.id = id;
+        this.conversationId = conversationId;
+        this.userId = userId;
+        this.bufferSize = bufferSize;
+        this.registry = registry;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Long getConversationId() {
+        return conversationId;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * 会话是否因上游失败或客户端放弃而中断
+     */
+    public synchronized boolean isInterrupted() {
+        return state == State.FAILED || state == State.ABANDONED;
+    }
+
+    /**
+     * 关联上游请求句柄，会话已被放弃时立即取消
+     * @param handle 上游请求句柄，为null表示请求未发出
+     */
+    public void attach(StreamHandle handle) {
+        if (handle == null) {
+            return;
+        }
+        boolean cancelNow;
+        synchronized (this) {
+            this.handle = handle;
+            cancelNow = state == State.ABANDONED;
+        }
+        if (cancelNow) {
+            handle.cancel();
+        }
+    }
+
+    /**
+     * 订阅会话，先补发序号大于lastEventId的片段，再接收实时输出
+     * @param subscriber 订阅者
+     * @param lastEventId 客户端最后收到的片段序号，新连接传0
+     * @return 是否成功订阅实时输出；缺失片段已被淘汰或流已结束时返回false
+     */
+    public synchronized boolean subscribe(Subscriber subscriber, long lastEventId) {
+        // 新连接同样需要从第一个片段开始，开头已被淘汰时无法拼出完整回复
+        if (!buffer.isEmpty() && buffer.peekFirst().seq() > lastEventId + 1) {
+            subscriber.onError("续传位置已过期，请刷新对话");
+            return false;
+        }
+        for (Chunk chunk : buffer) {
+            if (chunk.seq() > lastEventId) {
+                subscriber.onChunk(chunk.seq(), chunk.data());
+            }
+        }
+        switch (state) {
+            case COMPLETED -> {
+                subscriber.onComplete();
+                return false;
+            }
+            case FAILED, ABANDONED -> {
+                subscriber.onError(errorMessage != null ? errorMessage : "流式回复已中断");
+                return false;
+            }
+            default -> {
+                subscribers.add(subscriber);
+                if (pendingCancel != null) {
+                    pendingCancel.cancel(false);
+                    pendingCancel = null;
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 取消订阅，最后一个订阅者离开时开始计算重连等待时间
+     * @param subscriber 订阅者
+     */
+    public synchronized void unsubscribe(Subscriber subscriber) {
+        if (subscribers.remove(subscriber) && subscribers.isEmpty() && state == State.ACTIVE) {
+            pendingCancel = registry.scheduleAbandon(this);
+        }
+    }
+
+    /**
+     * 在等待期内无人重连时放弃会话并取消上游请求
+     * @return 是否由本次调用完成放弃
+     */
+    boolean abandonIfUnsubscribed() {
+        StreamHandle current;
+        synchronized (this) {
+            if (state != State.ACTIVE || !subscribers.isEmpty()) {
+                return false;
+            }
+            state = State.ABANDONED;
+            errorMessage = "客户端已断开，流式回复已取消";
+            pendingCancel = null;
+            current = handle;
+        }
+        if (current != null) {
+            current.cancel();
+        }
+        return true;
+    }
+
+    /**
+     * 服务关闭时强制结束会话并取消上游请求
+     */
+    void abort() {
+        List<Subscriber> current;
+        StreamHandle currentHandle;
+        synchronized (this) {
+            if (state != State.ACTIVE) {
+                return;
+            }
+            state = State.ABANDONED;
+            errorMessage = "服务正在关闭";
+            current = drainSubscribers();
+            currentHandle = handle;
+        }
+        if (currentHandle != null) {
+            currentHandle.cancel();
+        }
+        for (Subscriber subscriber : current) {
+            subscriber.onError(errorMessage);
+        }
+    }
+
+    @Override
+    public void onEvent(SseEvent event) {
+        if (event.isLastEvent()) {
+            onComplete();
+            return;
+        }
+        if (event.getData() == null) {
+            return;
+        }
+        if (QUEUE_EVENT.equals(event.getEvent())) {
+            // 排队位置只通知当前订阅者，不写入缓冲区
+            int position = Integer.parseInt(event.getData());
+            for (Subscriber subscriber : snapshotSubscribers()) {
+                subscriber.onQueued(position);
+            }
+            return;
+        }
+        Chunk chunk;
+        List<Subscriber> current;
+        synchronized (this) {
+            if (state != State.ACTIVE) {
+                return;
+            }
+            chunk = new Chunk(++lastSeq, event.getData());
+            buffer.addLast(chunk);
+            if (buffer.size() > bufferSize) {
+                buffer.removeFirst();
+            }
+            current = new ArrayList<>(subscribers);
+        }
+        // 写客户端连接可能阻塞，在锁外发送，避免阻塞其他订阅者的续传和取消
+        for (Subscriber subscriber : current) {
+            subscriber.onChunk(chunk.seq(), chunk.data());
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        if (throwable instanceof CancellationException) {
+            // 主动取消引起的失败，会话已经是放弃状态
+            return;
+        }
+        List<Subscriber> current;
+        synchronized (this) {
+            if (state != State.ACTIVE) {
+                return;
+            }
+            state = State.FAILED;
+            errorMessage = throwable.getMessage();
+            current = drainSubscribers();
+        }
+        for (Subscriber subscriber : current) {
+            subscriber.onError(errorMessage);
+        }
+        registry.finished(this);
+    }
+
+    @Override
+    public void onComplete() {
+        List<Subscriber> current;
+        synchronized (this) {
+            if (state != State.ACTIVE) {
+                return;
+            }
+            state = State.COMPLETED;
+            current = drainSubscribers();
+        }
+        for (Subscriber subscriber : current) {
+            subscriber.onComplete();
+        }
+        registry.finished(this);
+    }
+
+    /**
+     * 当前订阅者数量
+     */
+    public synchronized int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    private synchronized List<Subscriber> snapshotSubscribers() {
+        return new ArrayList<>(subscribers);
+    }
+
+    private List<Subscriber> drainSubscribers() {
+        List<Subscriber> current = new ArrayList<>(subscribers);
+        subscribers.clear();
+        if (pendingCancel != null) {
+            pendingCancel.cancel(false);
+            pendingCancel = null;
+        }
+        return current;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,151 @@
+package edu.haut.baoxinyang.server.service.llm;
+
+import cn.hutool.core.util.IdUtil;
+import edu.haut.baoxinyang.server.common.StatsProvider;
+import edu.haut.baoxinyang.server.config.LlmApiConfig;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 流式会话注册表
+ * 按对话保存进行中和刚结束的流式会话，供断线重连续传；
+ * 所有客户端断开且超过等待时间仍未重连时取消上游请求
+ */
+@Slf4j
+@Component
+public class StreamSessionRegistry implements StatsProvider {
+
+    private final LlmApiConfig.StreamResume config;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * 对话ID到最近一次流式会话的映射
+     */
+    private final Map<Long, StreamSession> sessions = new ConcurrentHashMap<>();
+
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder abandoned = new LongAdder();
+    private final LongAdder resumed = new LongAdder();
+
+    public StreamSessionRegistry(LlmApiConfig llmApiConfig) {
+        this.config = llmApiConfig.getStreamResume();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stream-session");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 为对话打开新的流式会话，替换该对话之前保留的会话
+     * @param conversationId 对话ID
+     * @param userId 用户ID
+     * @return 流式会话
+     */
+    public StreamSession open(Long conversationId, Long userId) {
+        StreamSession session = new StreamSession(IdUtil.fastSimpleUUID(), conversationId, userId,
+                config.getBufferSize(), this);
+        sessions.put(conversationId, session);
+        opened.increment();
+        return session;
+    }
+
+    /**
+     * 查找可续传的流式会话
+     * @param conversationId 对话ID
+     * @param userId 用户ID，只能续传自己的对话
+     * @return 流式会话，不存在时返回null
+     */
+    public StreamSession find(Long conversationId, Long userId) {
+        StreamSession session = sessions.get(conversationId);
+        if (session == null || !session.getUserId().equals(userId)) {
+            return null;
+        }
+        resumed.increment();
+        return session;
+    }
+
+    /**
+     * 最后一个订阅者离开后，等待一段时间再放弃会话
+     */
+    ScheduledFuture<?> scheduleAbandon(StreamSession session) {
+        return scheduler.schedule(() -> {
+            if (session.abandonIfUnsubscribed()) {
+                abandoned.increment();
+                log.info("客户端未在等待期内重连，已取消上游流式请求: conversationId={}", session.getConversationId());
+                scheduleRemoval(session);
+            }
+        }, config.getCancelGracePeriod(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 上游流结束
+     */
+    void finished(StreamSession session) {
+        if (session.getState() == StreamSession.State.COMPLETED) {
+            completed.increment();
+        } else {
+            failed.increment();
+        }
+        scheduleRemoval(session);
+    }
+
+    /**
+     * 保留一段时间后移除已结束的会话
+     */
+    private void scheduleRemoval(StreamSession session) {
+        scheduler.schedule(() -> sessions.remove(session.getConversationId(), session),
+                config.getRetention(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String getStatsName() {
+        return "llmStream";
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        long active = 0;
+        long subscribers = 0;
+        for (StreamSession session : sessions.values()) {
+            if (session.getState() == StreamSession.State.ACTIVE) {
+                active++;
+            }
+            subscribers += session.getSubscriberCount();
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("active", active);
+        stats.put("retained", sessions.size());
+        stats.put("subscribers", subscribers);
+        stats.put("opened", opened.sum());
+        stats.put("completed", completed.sum());
+        stats.put("failed", failed.sum());
+        stats.put("abandoned", abandoned.sum());
+        stats.put("resumed", resumed.sum());
+        return stats;
+    }
+
+    /**
+     * 关闭时取消所有进行中的上游流
+     */
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        for (StreamSession session : sessions.values()) {
+            session.abort();
+        }
+        sessions.clear();
+    }
+}
\ No newline at end of file
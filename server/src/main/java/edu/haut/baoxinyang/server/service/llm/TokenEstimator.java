@@ -0,0 +1,86 @@
+package edu.haut.baoxinyang.server.service.llm;
+
+/**
+ * 基于字符的token数估算
+ * 后端模型不固定，无法使用统一的分词器；按常见中文模型的经验值估算：
+ * 汉字等CJK字符约1个token，其他字符约4个一个token，每条消息另有固定开销
+ */
+public final class TokenEstimator {
+
+    /**
+     * 每条消息的角色标记等固定开销
+     */
+    public static final int MESSAGE_OVERHEAD = 4;
+
+    private TokenEstimator() {
+    }
+
+    /**
+     * 估算文本的token数
+     * @param text 文本
+     * @return token数
+     */
+    public static int estimate(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        int cjk = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (isCjk(text.charAt(i))) {
+                cjk++;
+            } else {
+                other++;
+            }
+        }
+        return cjk + (other + 3) / 4;
+    }
+
+    /**
+     * 估算一条历史消息的token数，包含固定开销
+     * @param content 消息内容
+     * @return token数
+     */
+    public static int estimateMessage(String content) {
+        return estimate(content) + MESSAGE_OVERHEAD;
+    }
+
+    /**
+     * 从末尾截取不超过指定token数的文本
+     * @param text 文本
+     * @param maxTokens 最大token数
+     * @return 截取后的文本
+     */
+    public static String tail(String text, int maxTokens) {
+        if (text == null || maxTokens <= 0) {
+            return "";
+        }
+        int tokens = 0;
+        int other = 0;
+        int start = text.length();
+        while (start > 0) {
+            char c = text.charAt(start - 1);
+            if (isCjk(c)) {
+                tokens++;
+            } else if (++other % 4 == 1) {
+                tokens++;
+            }
+            if (tokens > maxTokens) {
+                break;
+            }
+            start--;
+        }
+        return text.substring(start);
+    }
+
+    private static boolean isCjk(char c) {
+        Character.UnicodeBlock block = Character.UnicodeBlock.of(c);
+        return block == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS
+                || block == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_A
+                || block == Character.UnicodeBlock.CJK_SYMBOLS_AND_PUNCTUATION
+                || block == Character.UnicodeBlock.HALFWIDTH_AND_FULLWIDTH_FORMS
+                || block == Character.UnicodeBlock.HIRAGANA
+                || block == Character.UnicodeBlock.KATAKANA
+                || block == Character.UnicodeBlock.HANGUL_SYLLABLES;
+    }
+}
\ No newline at end of file
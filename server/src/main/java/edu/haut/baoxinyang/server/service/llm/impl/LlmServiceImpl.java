@@ -1,6 +1,5 @@
 package edu.haut.baoxinyang.server.service.llm.impl;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import edu.haut.baoxinyang.server.config.LlmApiConfig;
 import edu.haut.baoxinyang.server.dto.MessageDTO;
@@ -8,8 +7,23 @@ import edu.haut.baoxinyang.server.dto.llm.LlmRequestDTO;
 import edu.haut.baoxinyang.server.dto.llm.LlmResponseDTO;
 import edu.haut.baoxinyang.server.entity.Agent;
 import edu.haut.baoxinyang.server.entity.User;
+import edu.haut.baoxinyang.server.service.llm.AgentProfile;
+import edu.haut.baoxinyang.server.service.llm.AgentProfileCache;
+import edu.haut.baoxinyang.server.service.llm.CircuitBreaker;
+import edu.haut.baoxinyang.server.service.llm.HistoryWindow;
+import edu.haut.baoxinyang.server.service.llm.JsonRequestBody;
+import edu.haut.baoxinyang.server.service.llm.LlmAdmissionController;
+import edu.haut.baoxinyang.server.service.llm.LlmAnswerCache;
+import edu.haut.baoxinyang.server.service.llm.LlmBackendPool;
+import edu.haut.baoxinyang.server.service.llm.LlmCircuitBreakerRegistry;
+import edu.haut.baoxinyang.server.service.llm.LlmHedgingPolicy;
+import edu.haut.baoxinyang.server.service.llm.LlmHttpClientRegistry;
+import edu.haut.baoxinyang.server.service.llm.LlmRequestFingerprint;
 import edu.haut.baoxinyang.server.service.llm.LlmService;
+import edu.haut.baoxinyang.server.service.llm.LlmSingleFlight;
+import edu.haut.baoxinyang.server.service.llm.LlmUnavailableException;
 import edu.haut.baoxinyang.server.service.llm.SseCallback;
+import edu.haut.baoxinyang.server.service.llm.StreamHandle;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.*;
@@ -23,7 +37,14 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * LLM服务实现类
@@ -34,59 +55,370 @@ import java.util.concurrent.TimeUnit;
 public class LlmServiceImpl implements LlmService {
     
     private final LlmApiConfig llmApiConfig;
+    private final LlmHttpClientRegistry httpClientRegistry;
+    private final AgentProfileCache agentProfileCache;
+    private final LlmAdmissionController admissionController;
+    private final LlmCircuitBreakerRegistry circuitBreakerRegistry;
+    private final LlmBackendPool backendPool;
+    private final LlmHedgingPolicy hedgingPolicy;
+    private final LlmAnswerCache answerCache;
+    private final LlmRequestFingerprint fingerprint;
+    private final LlmSingleFlight singleFlight;
+    private final HistoryWindow historyWindow;
     private final ObjectMapper objectMapper;
     
-    private OkHttpClient getHttpClient() {
-        return new OkHttpClient.Builder()
-                .connectTimeout(llmApiConfig.getConnectTimeout(), TimeUnit.MILLISECONDS)
-                .writeTimeout(llmApiConfig.getWriteTimeout(), TimeUnit.MILLISECONDS)
-                .readTimeout(llmApiConfig.getReadTimeout(), TimeUnit.MILLISECONDS)
-                .build();
+    @Override
+    public LlmResponseDTO ask(LlmRequestDTO request) {
+        try {
+            return askAsync(request).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("等待LLM响应时被中断");
+            return null;
+        } catch (ExecutionException e) {
+            log.error("调用LLM服务失败", e.getCause());
+            return null;
+        }
     }
     
-    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+    @Override
+    public CompletableFuture<LlmResponseDTO> askAsync(LlmRequestDTO request) {
+        String key = fingerprint.of(request);
+        
+        // 开启了回答缓存的智能体先查缓存，命中时不占用准入名额
+        String cacheKey = key != null && answerCache.isCacheable(request) ? key : null;
+        if (cacheKey != null) {
+            LlmResponseDTO cached = answerCache.get(cacheKey);
+            if (cached != null) {
+                log.debug("LLM回答缓存命中: agentId={}", request.getAgentId());
+                return CompletableFuture.completedFuture(cached);
+            }
+        }
+        
+        // 重复点击或客户端重试产生的相同请求共享一次上游调用
+        return singleFlight.ask(key, () -> doAsk(request, cacheKey));
+    }
     
     @Override
-    public LlmResponseDTO ask(LlmRequestDTO request) {
-        try {
-            String url = llmApiConfig.getAskUrl();
-            String jsonBody = objectMapper.writeValueAsString(request);
-            
-            RequestBody body = RequestBody.create(jsonBody, JSON);
-            Request httpRequest = new Request.Builder()
-                    .url(url)
-                    .post(body)
-                    .build();
-            
-            Response response = getHttpClient().newCall(httpRequest).execute();
-            if (!response.isSuccessful()) {
-                log.error("LLM API请求失败: {}", response);
-                return null;
+    public CompletableFuture<LlmResponseDTO> askBackground(LlmRequestDTO request) {
+        // 熔断期间不发送，也不占用半开状态的试探名额
+        if (circuitBreakerRegistry.get(request.getAgentId()).getState() != CircuitBreaker.State.CLOSED) {
+            return CompletableFuture.completedFuture(null);
+        }
+        
+        // 不排队也不插队，有患者请求在等待时放弃本次调用
+        LlmAdmissionController.Permit permit = admissionController.tryAcquire(request.getAgentId());
+        if (permit == null) {
+            log.debug("没有空闲的准入名额，跳过后台LLM调用: agentId={}", request.getAgentId());
+            return CompletableFuture.completedFuture(null);
+        }
+        
+        List<Call> calls = new CopyOnWriteArrayList<>();
+        CompletableFuture<LlmResponseDTO> future = sendAsk(backendPool.acquire(),
+                JsonRequestBody.of(objectMapper, request), calls)
+                .handle((result, error) -> {
+                    // 后台调用的耗时不作为自适应上限的样本
+                    permit.release();
+                    if (error != null) {
+                        log.warn("后台LLM调用失败: agentId={}, error={}", request.getAgentId(),
+                                error instanceof CompletionException ? error.getCause().getMessage() : error.getMessage());
+                    }
+                    return result;
+                });
+        future.whenComplete((result, error) -> {
+            if (error instanceof CancellationException) {
+                calls.forEach(Call::cancel);
+            }
+        });
+        return future;
+    }
+    
+    /**
+     * 经过熔断和准入控制后发送请求，整个过程不阻塞调用线程
+     */
+    private CompletableFuture<LlmResponseDTO> doAsk(LlmRequestDTO request, String cacheKey) {
+        // 熔断期间直接返回，由调用方给出降级回复
+        CircuitBreaker breaker = circuitBreakerRegistry.get(request.getAgentId());
+        if (!breaker.tryAcquire()) {
+            log.warn("LLM后端已熔断，跳过调用: agentId={}", request.getAgentId());
+            return CompletableFuture.completedFuture(null);
+        }
+        
+        // 请求体在发送时直接序列化到连接，对冲请求会重新序列化一次
+        RequestBody body = JsonRequestBody.of(objectMapper, request);
+        
+        return admissionController.acquireAsync(request.getAgentId(), position -> {})
+                .handle((permit, error) -> {
+                    if (error != null) {
+                        breaker.onIgnored();
+                        log.warn("LLM调用被准入控制拒绝: agentId={}, reason={}", request.getAgentId(),
+                                error instanceof CompletionException ? error.getCause().getMessage() : error.getMessage());
+                        return CompletableFuture.<LlmResponseDTO>completedFuture(null);
+                    }
+                    return send(request, body, cacheKey, permit, breaker);
+                })
+                .thenCompose(future -> future);
+    }
+    
+    /**
+     * 发送请求，超过P95仍未返回时在预算允许的情况下向另一个实例发出对冲请求，先成功的结果生效
+     */
+    private CompletableFuture<LlmResponseDTO> send(LlmRequestDTO request, RequestBody body, String cacheKey,
+                                                   LlmAdmissionController.Permit permit, CircuitBreaker breaker) {
+        long startNanos = System.nanoTime();
+        List<Call> calls = new CopyOnWriteArrayList<>();
+        long hedgeDelay = hedgingPolicy.onRequest();
+        LlmBackendPool.Backend primary = backendPool.acquire();
+        CompletableFuture<LlmResponseDTO> primaryFuture = sendAsk(primary, body, calls);
+        
+        CompletableFuture<LlmResponseDTO> attempt;
+        if (hedgeDelay < 0) {
+            attempt = primaryFuture;
+        } else {
+            CompletableFuture<LlmResponseDTO> hedgeFuture = new CompletableFuture<>();
+            AtomicBoolean hedgeDecided = new AtomicBoolean();
+            // 主请求在等待期内结束时不再对冲
+            primaryFuture.whenComplete((value, error) -> {
+                if (hedgeDecided.compareAndSet(false, true)) {
+                    hedgeFuture.completeExceptionally(new CancellationException("未发出对冲请求"));
+                }
+            });
+            CompletableFuture.delayedExecutor(hedgeDelay, TimeUnit.MILLISECONDS).execute(() -> {
+                if (!hedgeDecided.compareAndSet(false, true)) {
+                    return;
+                }
+                // 对冲请求同样占用准入名额，但不排队，没有空闲名额时放弃对冲
+                LlmAdmissionController.Permit hedgePermit = admissionController.tryAcquire(request.getAgentId());
+                LlmBackendPool.Backend secondary = hedgePermit != null && hedgingPolicy.tryHedge()
+                        ? backendPool.acquireExcluding(primary) : null;
+                if (secondary == null) {
+                    if (hedgePermit != null) {
+                        hedgePermit.release();
+                    }
+                    hedgeFuture.completeExceptionally(new CancellationException("未发出对冲请求"));
+                    return;
+                }
+                log.debug("LLM调用超过{}ms未返回，发出对冲请求: {} -> {}", hedgeDelay, primary.getBaseUrl(), secondary.getBaseUrl());
+                sendAsk(secondary, body, calls).whenComplete((value, error) -> {
+                    // 延迟样本由主请求的许可记录，对冲许可只归还名额
+                    hedgePermit.release();
+                    if (error == null) {
+                        hedgeFuture.complete(value);
+                    } else {
+                        hedgeFuture.completeExceptionally(error);
+                    }
+                });
+            });
+            attempt = firstSuccessful(primaryFuture, hedgeFuture).whenComplete((result, error) -> {
+                if (error == null && hedgeFuture.isDone() && !hedgeFuture.isCompletedExceptionally()
+                        && hedgeFuture.getNow(null) == result) {
+                    hedgingPolicy.onHedgeWin();
+                }
+            });
+        }
+        
+        return attempt.handle((result, error) -> {
+            // 取消仍在进行的请求（对冲中落败的一方）
+            for (Call call : calls) {
+                call.cancel();
+            }
+            if (error != null) {
+                log.error("调用LLM服务失败", error instanceof CompletionException ? error.getCause() : error);
+            }
+            if (result != null) {
+                long elapsedNanos = System.nanoTime() - startNanos;
+                hedgingPolicy.recordLatency(elapsedNanos / 1_000_000);
+                if (cacheKey != null) {
+                    answerCache.put(cacheKey, request, result, elapsedNanos);
+                }
+                permit.success(elapsedNanos);
+                breaker.onSuccess(elapsedNanos);
+            } else {
+                permit.failure();
+                breaker.onFailure();
+            }
+            return result;
+        });
+    }
+    
+    /**
+     * 向指定实例异步发送非流式请求，结束时归还实例的未完成请求计数
+     */
+    private CompletableFuture<LlmResponseDTO> sendAsk(LlmBackendPool.Backend backend, RequestBody body, List<Call> calls) {
+        Request httpRequest = new Request.Builder()
+                .url(llmApiConfig.getAskUrl(backend.getBaseUrl()))
+                .post(body)
+                .build();
+        Call call = httpClientRegistry.getAskClient().newCall(httpRequest);
+        calls.add(call);
+        
+        CompletableFuture<LlmResponseDTO> future = new CompletableFuture<>();
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                // 对冲落败被取消的请求不计为实例故障
+                backend.release(!call.isCanceled());
+                future.completeExceptionally(e);
             }
             
-            String responseBody = response.body().string();
-            return objectMapper.readValue(responseBody, LlmResponseDTO.class);
-        } catch (IOException e) {
-            log.error("调用LLM服务失败", e);
-            return null;
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (response) {
+                    if (!response.isSuccessful()) {
+                        log.error("LLM API请求失败: {}", response);
+                        backend.release(true);
+                        future.completeExceptionally(new IOException("LLM API请求失败: " + response.code()));
+                        return;
+                    }
+                    LlmResponseDTO result = objectMapper.readValue(response.body().byteStream(), LlmResponseDTO.class);
+                    backend.release(false);
+                    future.complete(result);
+                } catch (IOException e) {
+                    backend.release(!call.isCanceled());
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        return future;
+    }
+    
+    /**
+     * 返回先成功的结果，全部失败时以最后一个异常结束
+     */
+    private static <T> CompletableFuture<T> firstSuccessful(CompletableFuture<T> first, CompletableFuture<T> second) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        for (CompletableFuture<T> future : List.of(first, second)) {
+            future.whenComplete((value, error) -> {
+                if (error == null) {
+                    result.complete(value);
+                } else if (failures.incrementAndGet() == 2) {
+                    result.completeExceptionally(error);
+                }
+            });
         }
+        return result;
     }
     
     @Override
-    public void stream(LlmRequestDTO request, SseCallback callback) {
-        try {
-            String url = llmApiConfig.getStreamUrl();
-            String jsonBody = objectMapper.writeValueAsString(request);
-            
-            RequestBody body = RequestBody.create(jsonBody, JSON);
+    public StreamHandle stream(LlmRequestDTO request, SseCallback callback) {
+        // 相同请求正在输出时直接订阅其输出
+        return singleFlight.stream(fingerprint.of(request), callback, shared -> doStream(request, shared));
+    }
+    
+    private StreamHandle doStream(LlmRequestDTO request, SseCallback callback) {
+        RequestBody body = JsonRequestBody.of(objectMapper, request);
+        
+        // 熔断期间直接返回错误事件
+        CircuitBreaker breaker = circuitBreakerRegistry.get(request.getAgentId());
+        if (!breaker.tryAcquire()) {
+            log.warn("LLM后端已熔断，拒绝流式调用: agentId={}", request.getAgentId());
+            callback.onError(new LlmUnavailableException("智能问诊服务暂时不可用，请稍后再试"));
+            return StreamHandle.CLOSED;
+        }
+        
+        // 先获取调用许可，排队期间向客户端推送排队位置
+        StreamCall call = new StreamCall(breaker);
+        CompletableFuture<LlmAdmissionController.Permit> admission = admissionController.acquireAsync(
+                request.getAgentId(), position -> {
+                    SseCallback.SseEvent event = new SseCallback.SseEvent();
+                    event.setEvent(SseCallback.QUEUE_EVENT);
+                    event.setData(String.valueOf(position));
+                    callback.onEvent(event);
+                });
+        call.admission = admission;
+        admission.whenComplete((permit, error) -> {
+            if (error != null) {
+                breaker.onIgnored();
+                if (call.isCancelled()) {
+                    callback.onError(new CancellationException("上游流式请求已取消"));
+                } else {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                    log.warn("LLM流式调用被准入控制拒绝: agentId={}, reason={}", request.getAgentId(), cause.getMessage());
+                    callback.onError(cause);
+                }
+                return;
+            }
+            if (call.isCancelled()) {
+                permit.release();
+                breaker.onIgnored();
+                callback.onError(new CancellationException("上游流式请求已取消"));
+                return;
+            }
+            call.start(body, permit, callback);
+        });
+        return call;
+    }
+    
+    @Override
+    public LlmRequestDTO buildRequest(Agent agent, User user, String message, List<MessageDTO> history) {
+        // 模型、模板和检索配置来自预解析的智能体配置
+        AgentProfile profile = agentProfileCache.getProfile(agent);
+        LlmRequestDTO request = profile.newRequest();
+        
+        // 设置当前消息
+        request.setMessage(message);
+        
+        // 设置用户参数
+        request.getTemplateConfig().getParams().putAll(buildUserParams(user, message));
+        
+        // 设置历史消息，超出预算时只保留开头和最近的部分
+        List<MessageDTO> window = historyWindow.select(history, message, profile.getContextTokenBudget());
+        List<LlmRequestDTO.MessageItem> historyItems = new ArrayList<>(window.size());
+        for (MessageDTO historyMsg : window) {
+            String role = historyMsg.getType() == 0 ? "user" : "assistant";
+            historyItems.add(new LlmRequestDTO.MessageItem(role, historyMsg.getContent()));
+        }
+        request.setHistory(historyItems);
+        
+        return request;
+    }
+    
+    @Override
+    public Map<String, String> buildUserParams(User user, String message) {
+        Map<String, String> params = new HashMap<>();
+        
+        // 添加用户基本信息
+        params.put("patient_age", user.getAge() != null ? user.getAge().toString() : "未知");
+        params.put("patient_gender", user.getGender() != null ? (user.getGender() == 1 ? "男" : "女") : "未知");
+        params.put("symptoms", message);  // 假设当前消息包含症状描述
+        
+        return params;
+    }
+    
+    /**
+     * 流式调用句柄，覆盖排队和EventSource两个阶段
+     */
+    private class StreamCall implements StreamHandle {
+        
+        private final CircuitBreaker breaker;
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private volatile CompletableFuture<LlmAdmissionController.Permit> admission;
+        private volatile EventSource eventSource;
+        
+        StreamCall(CircuitBreaker breaker) {
+            this.breaker = breaker;
+        }
+        
+        /**
+         * 获得许可后发起上游请求，流结束时归还许可，以首个token的延迟作为自适应上限的样本
+         */
+        void start(RequestBody body, LlmAdmissionController.Permit permit, SseCallback callback) {
+            // 选择未完成请求最少的后端实例
+            LlmBackendPool.Backend backend = backendPool.acquire();
             Request httpRequest = new Request.Builder()
-                    .url(url)
+                    .url(llmApiConfig.getStreamUrl(backend.getBaseUrl()))
                     .post(body)
                     .build();
-            
+            long startNanos = System.nanoTime();
             EventSourceListener listener = new EventSourceListener() {
+                private long firstTokenNanos;
+                
                 @Override
                 public void onEvent(EventSource eventSource, String id, String type, String data) {
+                    if (firstTokenNanos == 0) {
+                        firstTokenNanos = System.nanoTime() - startNanos;
+                    }
                     SseCallback.SseEvent event = new SseCallback.SseEvent();
                     event.setId(id);
                     event.setEvent(type);
@@ -97,6 +429,10 @@ public class LlmServiceImpl implements LlmService {
                 
                 @Override
                 public void onClosed(EventSource eventSource) {
+                    backend.release(false);
+                    long latencyNanos = firstTokenNanos != 0 ? firstTokenNanos : System.nanoTime() - startNanos;
+                    permit.success(latencyNanos);
+                    breaker.onSuccess(latencyNanos);
                     SseCallback.SseEvent event = new SseCallback.SseEvent();
                     event.setLastEvent(true);
                     callback.onEvent(event);
@@ -105,99 +441,45 @@ public class LlmServiceImpl implements LlmService {
                 
                 @Override
                 public void onFailure(EventSource eventSource, Throwable t, Response response) {
-                    callback.onError(t);
+                    backend.release(!cancelled.get());
+                    if (cancelled.get()) {
+                        permit.release();
+                        breaker.onIgnored();
+                    } else {
+                        permit.failure();
+                        breaker.onFailure();
+                    }
+                    // 主动取消时OkHttp同样会回调onFailure，统一转换为CancellationException
+                    callback.onError(cancelled.get() ? new CancellationException("上游流式请求已取消") : t);
                 }
             };
             
-            EventSources.createFactory(getHttpClient()).newEventSource(httpRequest, listener);
-        } catch (JsonProcessingException e) {
-            log.error("序列化LLM请求失败", e);
-            callback.onError(e);
-        }
-    }
-    
-    @Override
-    public LlmRequestDTO buildRequest(Agent agent, User user, String message, List<MessageDTO> history) {
-        LlmRequestDTO request = new LlmRequestDTO();
-        
-        // 设置当前消息
-        request.setMessage(message);
-        
-        // 设置模型信息
-        LlmRequestDTO.ModelSettings modelSettings = new LlmRequestDTO.ModelSettings();
-        modelSettings.setModelName(agent.getModelName());
-        modelSettings.setApiKey(agent.getApiKey());
-        modelSettings.setBaseUrl(agent.getModelUrl());
-        request.setModelSettings(modelSettings);
-        
-        // 设置模板信息
-        LlmRequestDTO.TemplateConfig templateConfig = new LlmRequestDTO.TemplateConfig();
-        templateConfig.setTemplateId(agent.getTemplateId());
-        // 注意：虽然设置了subTemplateIds，但Python后端已修改为忽略此参数，会自动使用大模板中的所有子模板
-        // 这里仍然设置一些值只是为了保持接口兼容性
-        templateConfig.setSubTemplateIds(List.of("基础信息"));
-        
-        // 设置用户参数
-        Map<String, String> params = buildUserParams(user, message);
-        templateConfig.setParams(params);
-        
-        request.setTemplateConfig(templateConfig);
-        
-        // 设置向量搜索配置，如果有的话
-        if (agent.getVectorNamespaces() != null && !agent.getVectorNamespaces().isEmpty()) {
-            try {
-                // 解析向量命名空间，实际上这里需要根据具体的JSON结构来处理
-                @SuppressWarnings("unchecked")
-                List<String> namespaces = objectMapper.readValue(agent.getVectorNamespaces(), List.class);
-                
-                LlmRequestDTO.VectorSearchConfig vectorSearchConfig = new LlmRequestDTO.VectorSearchConfig();
-                vectorSearchConfig.setNamespaces(namespaces);
-                vectorSearchConfig.setNResults(3);  // 默认值，可以根据需要调整
-                vectorSearchConfig.setRagHistoryCount(3); // 设置默认RAG历史消息数量
-                request.setVectorSearchConfig(vectorSearchConfig);
-            } catch (JsonProcessingException e) {
-                log.error("解析向量命名空间失败", e);
+            eventSource = EventSources.createFactory(httpClientRegistry.getStreamClient())
+                    .newEventSource(httpRequest, listener);
+            if (cancelled.get()) {
+                eventSource.cancel();
             }
         }
         
-        // 设置精确查询配置，如果有的话
-        if (agent.getPreciseDbName() != null && agent.getPreciseDbUids() != null) {
-            try {
-                // 解析精确查询UIDs，实际上这里需要根据具体的JSON结构来处理
-                @SuppressWarnings("unchecked")
-                List<String> categories = objectMapper.readValue(agent.getPreciseDbUids(), List.class);
-                
-                LlmRequestDTO.PreciseSearchConfig preciseSearchConfig = new LlmRequestDTO.PreciseSearchConfig();
-                preciseSearchConfig.setCategories(categories);
-                preciseSearchConfig.setMaxResults(3);  // 默认值，可以根据需要调整
-                preciseSearchConfig.setSearchDepth(2);  // 默认值，可以根据需要调整
-                preciseSearchConfig.setRagHistoryCount(3); // 设置默认RAG历史消息数量
-                request.setPreciseSearchConfig(preciseSearchConfig);
-            } catch (JsonProcessingException e) {
-                log.error("解析精确查询UIDs失败", e);
+        @Override
+        public void cancel() {
+            if (!cancelled.compareAndSet(false, true)) {
+                return;
+            }
+            CompletableFuture<LlmAdmissionController.Permit> pending = admission;
+            if (pending != null) {
+                // 仍在排队时退出队列
+                pending.cancel(false);
+            }
+            EventSource current = eventSource;
+            if (current != null) {
+                current.cancel();
             }
         }
         
-        // 设置历史消息
-        List<LlmRequestDTO.MessageItem> historyItems = new ArrayList<>();
-        for (MessageDTO historyMsg : history) {
-            String role = historyMsg.getType() == 0 ? "user" : "assistant";
-            historyItems.add(new LlmRequestDTO.MessageItem(role, historyMsg.getContent()));
+        @Override
+        public boolean isCancelled() {
+            return cancelled.get();
         }
-        request.setHistory(historyItems);
-        
-        return request;
-    }
-    
-    @Override
-    public Map<String, String> buildUserParams(User user, String message) {
-        Map<String, String> params = new HashMap<>();
-        
-        // 添加用户基本信息
-        params.put("patient_age", user.getAge() != null ? user.getAge().toString() : "未知");
-        params.put("patient_gender", user.getGender() != null ? (user.getGender() == 1 ? "男" : "女") : "未知");
-        params.put("symptoms", message);  // 假设当前消息包含症状描述
-        
-        return params;
     }
 } 
\ No newline at end of file
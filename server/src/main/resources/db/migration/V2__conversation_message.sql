@@ -0,0 +1,33 @@
+-- 对话消息按行追加存储，替代每轮改写conversation.content整列
+USE llm_medical;
+CREATE TABLE IF NOT EXISTS `conversation_message` (
+  `id` BIGINT NOT NULL AUTO_INCREMENT,
+  `conversation_id` BIGINT NOT NULL COMMENT '对话ID',
+  `message_uid` VARCHAR(32) NOT NULL COMMENT '消息唯一标识',
+  `content` MEDIUMTEXT NOT NULL COMMENT '消息内容',
+  `type` TINYINT NOT NULL COMMENT '消息类型：0-用户消息，1-系统消息',
+  `message_time` DATETIME(3) NOT NULL COMMENT '消息时间',
+  `create_time` DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  `update_time` DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+  PRIMARY KEY (`id`),
+  UNIQUE KEY `uk_conversation_message` (`conversation_id`, `message_uid`),
+  CONSTRAINT `fk_message_conversation` FOREIGN KEY (`conversation_id`) REFERENCES `conversation` (`id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='对话消息表';
+
+-- 从旧的content JSON回填消息（需要MySQL 8.0的JSON_TABLE），已回填的对话会被跳过
+INSERT IGNORE INTO `conversation_message` (`conversation_id`, `message_uid`, `content`, `type`, `message_time`)
+SELECT c.`id`,
+       COALESCE(m.`message_uid`, REPLACE(UUID(), '-', '')),
+       COALESCE(m.`content`, ''),
+       COALESCE(m.`type`, 0),
+       COALESCE(CAST(m.`message_time` AS DATETIME(3)), c.`create_time`)
+FROM `conversation` c,
+     JSON_TABLE(c.`content`, '$[*]' COLUMNS (
+       `seq` FOR ORDINALITY,
+       `message_uid` VARCHAR(32) PATH '$.id',
+       `content` LONGTEXT PATH '$.content',
+       `type` TINYINT PATH '$.type',
+       `message_time` VARCHAR(32) PATH '$.timestamp'
+     )) m
+WHERE NOT EXISTS (SELECT 1 FROM `conversation_message` cm WHERE cm.`conversation_id` = c.`id`)
+ORDER BY c.`id`, m.`seq`;
@@ -0,0 +1,4 @@
+-- 智能体回答缓存开关，默认关闭，由管理员按智能体开启
+USE llm_medical;
+ALTER TABLE `agent`
+  ADD COLUMN `answer_cache_enabled` TINYINT NOT NULL DEFAULT 0 COMMENT '是否缓存相同问题的回答：0-否，1-是' AFTER `precise_db_uids`;
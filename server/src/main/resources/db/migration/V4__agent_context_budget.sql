@@ -0,0 +1,4 @@
+-- 智能体历史消息token预算，为空时使用全局默认值
+USE llm_medical;
+ALTER TABLE `agent`
+  ADD COLUMN `context_token_budget` INT NULL COMMENT '历史消息token预算，为空时使用全局默认值' AFTER `answer_cache_enabled`;
\ No newline at end of file
@@ -0,0 +1,15 @@
+-- 长对话的滚动摘要，较早的消息压缩为摘要后随最近的消息一起发送
+USE llm_medical;
+CREATE TABLE IF NOT EXISTS `conversation_summary` (
+  `id` BIGINT NOT NULL AUTO_INCREMENT,
+  `conversation_id` BIGINT NOT NULL COMMENT '对话ID',
+  `summary` TEXT NOT NULL COMMENT '摘要内容',
+  `last_message_id` BIGINT NOT NULL COMMENT '已摘要的最后一条消息ID',
+  `last_message_uid` VARCHAR(32) NOT NULL COMMENT '已摘要的最后一条消息唯一标识',
+  `message_count` INT NOT NULL DEFAULT 0 COMMENT '已摘要的消息数',
+  `create_time` DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  `update_time` DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+  PRIMARY KEY (`id`),
+  UNIQUE KEY `uk_summary_conversation` (`conversation_id`),
+  CONSTRAINT `fk_summary_conversation` FOREIGN KEY (`conversation_id`) REFERENCES `conversation` (`id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='对话摘要表';
\ No newline at end of file
@@ -0,0 +1,17 @@
+-- 对话列表的预览列，追加消息时维护，列表查询不再读取content和消息表
+USE llm_medical;
+ALTER TABLE `conversation`
+  ADD COLUMN `last_message_preview` VARCHAR(100) NULL COMMENT '最后一条消息的开头部分，用于对话列表预览' AFTER `prescription_id`,
+  ADD COLUMN `message_count` INT NOT NULL DEFAULT 0 COMMENT '消息数' AFTER `last_message_preview`,
+  ADD COLUMN `last_message_time` DATETIME(3) NULL COMMENT '最后一条消息时间' AFTER `message_count`,
+  ADD KEY `idx_user_update_time` (`user_id`, `update_time`);
+
+-- 从消息表回填，显式保留update_time以免打乱对话列表排序
+UPDATE `conversation` c
+JOIN (SELECT `conversation_id`, COUNT(*) AS `cnt`, MAX(`id`) AS `max_id`
+      FROM `conversation_message` GROUP BY `conversation_id`) s ON s.`conversation_id` = c.`id`
+JOIN `conversation_message` m ON m.`id` = s.`max_id`
+SET c.`message_count` = s.`cnt`,
+    c.`last_message_preview` = LEFT(m.`content`, 100),
+    c.`last_message_time` = m.`message_time`,
+    c.`update_time` = c.`update_time`;
\ No newline at end of file
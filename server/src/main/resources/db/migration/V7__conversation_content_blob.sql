@@ -0,0 +1,5 @@
+-- 旧版对话内容的压缩存储，content_format标记内容所在的列，由管理接口分批迁移
+USE llm_medical;
+ALTER TABLE `conversation`
+  ADD COLUMN `content_format` TINYINT NOT NULL DEFAULT 0 COMMENT '内容格式：0-JSON，存储在content列，1-Smile+DEFLATE，存储在content_blob列' AFTER `content`,
+  ADD COLUMN `content_blob` MEDIUMBLOB NULL COMMENT '压缩后的对话内容' AFTER `content_format`;
\ No newline at end of file
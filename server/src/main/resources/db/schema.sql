@@ -43,6 +43,8 @@ CREATE TABLE IF NOT EXISTS `agent` (
   `vector_namespaces` JSON COMMENT '使用的向量数据库命名空间，JSON格式存储',
   `precise_db_name` VARCHAR(100) COMMENT '使用的精确查找数据库名称',
   `precise_db_uids` JSON COMMENT '精确查找数据库UID列表，JSON格式存储',
+  `answer_cache_enabled` TINYINT NOT NULL DEFAULT 0 COMMENT '是否缓存相同问题的回答：0-否，1-是',
+  `context_token_budget` INT NULL COMMENT '历史消息token预算，为空时使用全局默认值',
   `create_time` DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
   `update_time` DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
   PRIMARY KEY (`id`),
@@ -55,13 +57,19 @@ CREATE TABLE IF NOT EXISTS `conversation` (
   `uid` VARCHAR(32) NOT NULL COMMENT '对话唯一标识',
   `user_id` BIGINT NOT NULL COMMENT '病人ID',
   `agent_id` BIGINT NOT NULL COMMENT '智能体ID',
-  `content` JSON NOT NULL COMMENT '对话内容，JSON格式存储',
+  `content` JSON NOT NULL COMMENT '对话内容，JSON格式存储（旧版，消息已迁移至conversation_message）',
+  `content_format` TINYINT NOT NULL DEFAULT 0 COMMENT '内容格式：0-JSON，存储在content列，1-Smile+DEFLATE，存储在content_blob列',
+  `content_blob` MEDIUMBLOB NULL COMMENT '压缩后的对话内容',
   `is_finished` TINYINT NOT NULL DEFAULT 0 COMMENT '是否结束：0-未结束，1-已结束',
   `prescription_id` BIGINT COMMENT '处方ID，若已开处方则关联',
+  `last_message_preview` VARCHAR(100) NULL COMMENT '最后一条消息的开头部分，用于对话列表预览',
+  `message_count` INT NOT NULL DEFAULT 0 COMMENT '消息数',
+  `last_message_time` DATETIME(3) NULL COMMENT '最后一条消息时间',
   `create_time` DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
   `update_time` DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
   PRIMARY KEY (`id`),
   UNIQUE KEY `uk_uid` (`uid`),
+  KEY `idx_user_update_time` (`user_id`, `update_time`),
   CONSTRAINT `fk_conversation_user` FOREIGN KEY (`user_id`) REFERENCES `user` (`id`),
   CONSTRAINT `fk_conversation_agent` FOREIGN KEY (`agent_id`) REFERENCES `agent` (`id`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='对话表';
@@ -89,6 +97,36 @@ CREATE TABLE IF NOT EXISTS `prescription` (
 ALTER TABLE `conversation` 
 ADD CONSTRAINT `fk_conversation_prescription` FOREIGN KEY (`prescription_id`) REFERENCES `prescription` (`id`);
 
+-- 创建对话消息表
+CREATE TABLE IF NOT EXISTS `conversation_message` (
+  `id` BIGINT NOT NULL AUTO_INCREMENT,
+  `conversation_id` BIGINT NOT NULL COMMENT '对话ID',
+  `message_uid` VARCHAR(32) NOT NULL COMMENT '消息唯一标识',
+  `content` MEDIUMTEXT NOT NULL COMMENT '消息内容',
+  `type` TINYINT NOT NULL COMMENT '消息类型：0-用户消息，1-系统消息',
+  `message_time` DATETIME(3) NOT NULL COMMENT '消息时间',
+  `create_time` DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  `update_time` DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+  PRIMARY KEY (`id`),
+  UNIQUE KEY `uk_conversation_message` (`conversation_id`, `message_uid`),
+  CONSTRAINT `fk_message_conversation` FOREIGN KEY (`conversation_id`) REFERENCES `conversation` (`id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='对话消息表';
+
+-- 创建对话摘要表
+CREATE TABLE IF NOT EXISTS `conversation_summary` (
+  `id` BIGINT NOT NULL AUTO_INCREMENT,
+  `conversation_id` BIGINT NOT NULL COMMENT '对话ID',
+  `summary` TEXT NOT NULL COMMENT '摘要内容',
+  `last_message_id` BIGINT NOT NULL COMMENT '已摘要的最后一条消息ID',
+  `last_message_uid` VARCHAR(32) NOT NULL COMMENT '已摘要的最后一条消息唯一标识',
+  `message_count` INT NOT NULL DEFAULT 0 COMMENT '已摘要的消息数',
+  `create_time` DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  `update_time` DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+  PRIMARY KEY (`id`),
+  UNIQUE KEY `uk_summary_conversation` (`conversation_id`),
+  CONSTRAINT `fk_summary_conversation` FOREIGN KEY (`conversation_id`) REFERENCES `conversation` (`id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='对话摘要表';
+
 -- 插入默认管理员账户
 INSERT INTO `user` (`username`, `password`, `user_type`, `real_name`) 
 VALUES ('admin', 'admin123', 2, '系统管理员'); 
\ No newline at end of file
@@ -0,0 +1,184 @@
+package edu.haut.baoxinyang.server.cache;
+
+import edu.haut.baoxinyang.server.config.CacheConfig;
+import edu.haut.baoxinyang.server.dto.MessageDTO;
+import edu.haut.baoxinyang.server.entity.Conversation;
+import edu.haut.baoxinyang.server.service.ConversationMessageService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 对话消息缓存的追加、写入和关闭时写入，消息表以内存列表代替
+ */
+class ConversationCacheTest {
+
+    private final Map<Long, List<MessageDTO>> table = new ConcurrentHashMap<>();
+    private final AtomicInteger failuresToInject = new AtomicInteger();
+    private final ConversationMessageService messageService = mock(ConversationMessageService.class);
+    private final CacheConfig cacheConfig = new CacheConfig();
+
+    @BeforeEach
+    void setUp() {
+        when(messageService.listMessages(any(Conversation.class)))
+                .thenAnswer(invocation -> new ArrayList<>(rows(invocation.<Conversation>getArgument(0).getId())));
+        doAnswer(invocation -> {
+            if (failuresToInject.getAndUpdate(count -> Math.max(count - 1, 0)) > 0) {
+                throw new IllegalStateException("数据库不可用");
+            }
+            rows(invocation.getArgument(0)).addAll(invocation.<List<MessageDTO>>getArgument(1));
+            return null;
+        }).when(messageService).appendMessages(anyLong(), anyList());
+    }
+
+    private List<MessageDTO> rows(Long conversationId) {
+        return table.computeIfAbsent(conversationId, key -> new ArrayList<>());
+    }
+
+    private ConversationCache cache() {
+        return new ConversationCache(cacheConfig, messageService, mock(PlatformTransactionManager.class));
+    }
+
+    private Conversation conversation(Long id) {
+        Conversation conversation = new Conversation();
+        conversation.setId(id);
+        conversation.setMessageCount(rows(id).size());
+        return conversation;
+    }
+
+    private static MessageDTO message(String content, int type) {
+        MessageDTO message = new MessageDTO();
+        message.setContent(content);
+        message.setType(type);
+        message.setTimestamp(LocalDateTime.now());
+        return message;
+    }
+
+    private static List<String> contents(List<MessageDTO> messages) {
+        return messages.stream().map(MessageDTO::getContent).toList();
+    }
+
+    @Test
+    void appendToCachedConversationIsVisibleBeforeFlush() {
+        rows(1L).add(message("你好", 0));
+        ConversationCache cache = cache();
+        Conversation conversation = conversation(1L);
+        cache.getMessages(conversation);
+
+        MessageDTO question = message("头痛怎么办", 0);
+        cache.append(1L, List.of(question, message("多休息", 1)));
+
+        assertNotNull(question.getId());
+        assertEquals(List.of("你好", "头痛怎么办", "多休息"), contents(cache.getMessages(conversation)));
+        assertEquals(1, rows(1L).size());
+        assertEquals(2, cache.getStats().get("pendingMessages"));
+        verify(messageService, never()).appendMessages(anyLong(), anyList());
+    }
+
+    @Test
+    void appendToUncachedConversationWritesThrough() {
+        ConversationCache cache = cache();
+        cache.append(2L, List.of(message("你好", 0)));
+
+        assertEquals(List.of("你好"), contents(rows(2L)));
+        assertEquals(1L, cache.getStats().get("writeThrough"));
+        assertEquals(0, cache.getStats().get("dirtyConversations"));
+    }
+
+    @Test
+    void flushWritesPendingMessagesInOrder() {
+        ConversationCache cache = cache();
+        cache.getMessages(conversation(1L));
+        cache.append(1L, List.of(message("问1", 0), message("答1", 1)));
+        cache.append(1L, List.of(message("问2", 0), message("答2", 1)));
+
+        assertTrue(cache.flush(1L));
+        assertEquals(List.of("问1", "答1", "问2", "答2"), contents(rows(1L)));
+        assertEquals(0, cache.getStats().get("dirtyConversations"));
+
+        // 没有待写入消息时不再访问数据库，消息数一致时不重新加载
+        assertTrue(cache.flush(1L));
+        assertEquals(4, cache.getMessages(conversation(1L)).size());
+        assertEquals(0L, cache.getStats().get("reloads"));
+        verify(messageService).listMessages(any(Conversation.class));
+    }
+
+    @Test
+    void failedFlushKeepsMessagesForRetry() {
+        ConversationCache cache = cache();
+        cache.getMessages(conversation(1L));
+        cache.append(1L, List.of(message("问1", 0), message("答1", 1)));
+
+        failuresToInject.set(1);
+        assertFalse(cache.flush(1L));
+        assertTrue(rows(1L).isEmpty());
+        assertEquals(1L, cache.getStats().get("flushFailures"));
+
+        cache.append(1L, List.of(message("问2", 0)));
+        cache.flushAll();
+        assertEquals(List.of("问1", "答1", "问2"), contents(rows(1L)));
+        assertEquals(0, cache.getStats().get("pendingMessages"));
+    }
+
+    @Test
+    void duplicateBatchOnlyWritesMissingMessages() {
+        ConversationCache cache = cache();
+        cache.getMessages(conversation(1L));
+        cache.append(1L, List.of(message("问1", 0), message("答1", 1)));
+        doAnswer(invocation -> {
+            throw new DuplicateKeyException("message_uid");
+        }).when(messageService).appendMessages(anyLong(), anyList());
+        when(messageService.appendMissingMessages(anyLong(), anyList())).thenReturn(1);
+
+        assertTrue(cache.flush(1L));
+        verify(messageService).appendMissingMessages(anyLong(), anyList());
+        assertEquals(1L, cache.getStats().get("flushedMessages"));
+        assertEquals(0, cache.getStats().get("dirtyConversations"));
+    }
+
+    @Test
+    void shutdownWritesAcknowledgedMessagesOfEvictedConversations() {
+        cacheConfig.getConversation().setMaxSize(1);
+        ConversationCache cache = cache();
+        List<String> expected = new ArrayList<>();
+        for (long id = 1; id <= 20; id++) {
+            cache.getMessages(conversation(id));
+            cache.append(id, List.of(message("问" + id, 0)));
+            // 其他对话加载后该对话可能已被淘汰，待写入的缓存项仍需接收后续消息
+            cache.getMessages(conversation(id + 100));
+            cache.append(id, List.of(message("答" + id, 1)));
+            expected.add("问" + id);
+            expected.add("答" + id);
+        }
+
+        cache.shutdown();
+
+        List<String> written = new ArrayList<>();
+        for (long id = 1; id <= 20; id++) {
+            written.addAll(contents(rows(id)));
+        }
+        assertEquals(expected, written);
+        assertEquals(0, cache.getStats().get("dirtyConversations"));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,178 @@
+package edu.haut.baoxinyang.server.service.llm;
+
+import edu.haut.baoxinyang.server.config.LlmApiConfig;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 熔断器的状态转换：按失败率和慢调用比例熔断、半开试探计数、迟到结果不计入统计
+ */
+class CircuitBreakerTest {
+
+    private static final long FAST = 1_000_000L;
+    private static final long SLOW = 200_000_000L;
+
+    private final List<String> transitions = new ArrayList<>();
+
+    private CircuitBreaker breaker(long openDuration) {
+        LlmApiConfig.CircuitBreaker config = new LlmApiConfig.CircuitBreaker();
+        config.setWindowSize(10);
+        config.setMinimumCalls(4);
+        config.setFailureRateThreshold(50);
+        config.setSlowCallThreshold(100);
+        config.setSlowCallRateThreshold(50);
+        config.setOpenDuration(openDuration);
+        config.setHalfOpenCalls(2);
+        return new CircuitBreaker("test", config, (from, to) -> transitions.add(from + "->" + to));
+    }
+
+    private static void call(CircuitBreaker breaker, boolean success, long durationNanos) {
+        assertTrue(breaker.tryAcquire());
+        if (success) {
+            breaker.onSuccess(durationNanos);
+        } else {
+            breaker.onFailure();
+        }
+    }
+
+    private static void trip(CircuitBreaker breaker) {
+        for (int i = 0; i < 4; i++) {
+            call(breaker, false, 0);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void opensWhenFailureRateReachesThreshold() {
+        CircuitBreaker breaker = breaker(60_000);
+        call(breaker, true, FAST);
+        call(breaker, false, 0);
+        call(breaker, false, 0);
+        // 未达到最小调用数时不熔断
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        call(breaker, true, FAST);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+        assertEquals(1L, breaker.snapshot().get("rejected"));
+        assertEquals(List.of("CLOSED->OPEN"), transitions);
+    }
+
+    @Test
+    void staysClosedBelowFailureRateThreshold() {
+        CircuitBreaker breaker = breaker(60_000);
+        for (int i = 0; i < 10; i++) {
+            call(breaker, i % 4 != 0, FAST);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void opensWhenSlowCallRateReachesThreshold() {
+        CircuitBreaker breaker = breaker(60_000);
+        call(breaker, true, FAST);
+        call(breaker, true, SLOW);
+        call(breaker, true, FAST);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        call(breaker, true, SLOW);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void halfOpenAdmitsLimitedProbesAndClosesAfterThemSucceed() {
+        CircuitBreaker breaker = breaker(0);
+        trip(breaker);
+
+        assertTrue(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+
+        // 被取消的试探归还名额
+        breaker.onIgnored();
+        assertTrue(breaker.tryAcquire());
+
+        breaker.onSuccess(FAST);
+        // 已成功的试探仍占用名额
+        assertFalse(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        breaker.onSuccess(FAST);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.snapshot().get("calls"));
+        assertEquals(List.of("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->CLOSED"), transitions);
+    }
+
+    @Test
+    void failedProbeReopens() {
+        CircuitBreaker breaker = breaker(0);
+        trip(breaker);
+
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void slowProbeReopens() {
+        CircuitBreaker breaker = breaker(0);
+        trip(breaker);
+
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess(SLOW);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void lateResultsAreIgnoredWhileOpen() {
+        CircuitBreaker breaker = breaker(60_000);
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire());
+        trip(breaker);
+
+        breaker.onSuccess(FAST);
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(4, breaker.snapshot().get("calls"));
+        assertEquals(List.of("CLOSED->OPEN"), transitions);
+    }
+
+    @Test
+    void lateResultsDoNotCountAsProbes() {
+        CircuitBreaker breaker = breaker(0);
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire());
+        trip(breaker);
+        assertTrue(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.onIgnored();
+
+        // 熔断前发出的调用在半开状态下返回，既不关闭也不重新熔断
+        breaker.onSuccess(FAST);
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    void disabledBreakerAlwaysAdmits() {
+        LlmApiConfig.CircuitBreaker config = new LlmApiConfig.CircuitBreaker();
+        config.setEnabled(false);
+        config.setMinimumCalls(1);
+        CircuitBreaker breaker = new CircuitBreaker("test", config, (from, to) -> transitions.add(from + "->" + to));
+        for (int i = 0; i < 30; i++) {
+            call(breaker, false, 0);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(transitions.isEmpty());
+    }
+}
\ No newline at end of file
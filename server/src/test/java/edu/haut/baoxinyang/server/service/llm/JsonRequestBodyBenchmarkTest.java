@@ -0,0 +1,131 @@
+package edu.haut.baoxinyang.server.service.llm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.haut.baoxinyang.server.dto.llm.LlmRequestDTO;
+import edu.haut.baoxinyang.server.dto.llm.LlmResponseDTO;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import okio.Okio;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 对比先生成字符串再发送与直接序列化到连接两种方式的内存分配
+ * 以长对话历史为样本，统计当前线程在每次序列化或反序列化中分配的字节数
+ */
+@Slf4j
+class JsonRequestBodyBenchmarkTest {
+
+    private static final int HISTORY_SIZE = 200;
+    private static final int MESSAGE_LENGTH = 2000;
+    private static final int WARMUP_ITERATIONS = 200;
+    private static final int MEASURE_ITERATIONS = 500;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private interface Task {
+        void run() throws IOException;
+    }
+
+    @Test
+    void streamingRequestBodyAllocatesLessThanStringBody() throws IOException {
+        LlmRequestDTO request = longConversation();
+
+        long stringBytes = measure(() -> {
+            RequestBody body = RequestBody.create(objectMapper.writeValueAsString(request), JsonRequestBody.JSON);
+            writeToBlackhole(body);
+        });
+        long streamingBytes = measure(() -> writeToBlackhole(JsonRequestBody.of(objectMapper, request)));
+
+        log.info("请求序列化每次分配: 字符串方式 {} 字节, 流式写入 {} 字节", stringBytes, streamingBytes);
+        assertTrue(streamingBytes * 2 < stringBytes,
+                "流式写入的分配量应明显少于字符串方式: " + streamingBytes + " vs " + stringBytes);
+    }
+
+    @Test
+    void streamingResponseReadAllocatesLessThanStringRead() throws IOException {
+        LlmResponseDTO response = new LlmResponseDTO();
+        response.setAnswer(text(MESSAGE_LENGTH * 20));
+        response.setVectorContent(text(MESSAGE_LENGTH * 5));
+        byte[] json = objectMapper.writeValueAsBytes(response);
+
+        long stringBytes = measure(() -> {
+            try (ResponseBody body = ResponseBody.create(json, JsonRequestBody.JSON)) {
+                objectMapper.readValue(body.string(), LlmResponseDTO.class);
+            }
+        });
+        long streamingBytes = measure(() -> {
+            try (ResponseBody body = ResponseBody.create(json, JsonRequestBody.JSON)) {
+                objectMapper.readValue(body.byteStream(), LlmResponseDTO.class);
+            }
+        });
+
+        log.info("响应反序列化每次分配: 字符串方式 {} 字节, 流式读取 {} 字节", stringBytes, streamingBytes);
+        assertTrue(streamingBytes < stringBytes,
+                "流式读取的分配量应少于字符串方式: " + streamingBytes + " vs " + stringBytes);
+    }
+
+    /**
+     * 预热后返回每次执行平均分配的字节数
+     */
+    private static long measure(Task task) throws IOException {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            task.run();
+        }
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+            task.run();
+        }
+        return (threadMXBean.getThreadAllocatedBytes(threadId) - before) / MEASURE_ITERATIONS;
+    }
+
+    /**
+     * 写入丢弃数据的sink，Okio的缓冲段会被回收，只统计序列化本身的分配
+     */
+    private static void writeToBlackhole(RequestBody body) throws IOException {
+        try (BufferedSink sink = Okio.buffer(Okio.blackhole())) {
+            body.writeTo(sink);
+        }
+    }
+
+    private static LlmRequestDTO longConversation() {
+        LlmRequestDTO request = new LlmRequestDTO();
+        request.setMessage(text(200));
+
+        LlmRequestDTO.TemplateConfig templateConfig = new LlmRequestDTO.TemplateConfig();
+        templateConfig.setTemplateId("benchmark");
+        Map<String, String> params = new HashMap<>();
+        params.put("patient_age", "30");
+        params.put("symptoms", request.getMessage());
+        templateConfig.setParams(params);
+        request.setTemplateConfig(templateConfig);
+
+        List<LlmRequestDTO.MessageItem> history = new ArrayList<>(HISTORY_SIZE);
+        for (int i = 0; i < HISTORY_SIZE; i++) {
+            history.add(new LlmRequestDTO.MessageItem(i % 2 == 0 ? "user" : "assistant", text(MESSAGE_LENGTH)));
+        }
+        request.setHistory(history);
+        return request;
+    }
+
+    private static String text(int length) {
+        String sample = "患者自述头痛三天，伴有低热和乏力，夜间症状加重。";
+        StringBuilder builder = new StringBuilder(length);
+        while (builder.length() < length) {
+            builder.append(sample);
+        }
+        return builder.substring(0, length);
+    }
+}
\ No newline at end of file
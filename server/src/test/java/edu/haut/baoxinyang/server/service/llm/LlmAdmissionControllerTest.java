@@ -0,0 +1,166 @@
+package edu.haut.baoxinyang.server.service.llm;
+
+import edu.haut.baoxinyang.server.config.LlmApiConfig;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 准入控制的排队行为：队列满时拒绝、等待超时退出队列、按先后顺序放行
+ */
+class LlmAdmissionControllerTest {
+
+    private static final Long AGENT = 1L;
+
+    private static LlmAdmissionController controller(int queueCapacity, long maxWait) {
+        LlmApiConfig llmApiConfig = new LlmApiConfig();
+        LlmApiConfig.Admission config = llmApiConfig.getAdmission();
+        config.setEnabled(true);
+        config.setAdaptive(false);
+        config.setGlobalLimit(1);
+        config.setPerAgentLimit(1);
+        config.setQueueCapacity(queueCapacity);
+        config.setMaxWait(maxWait);
+        return new LlmAdmissionController(llmApiConfig);
+    }
+
+    private static Object stat(LlmAdmissionController controller, String name) {
+        return controller.getStats().get(name);
+    }
+
+    @Test
+    void rejectsWhenQueueIsFull() throws Exception {
+        LlmAdmissionController controller = controller(1, 60_000);
+        CompletableFuture<LlmAdmissionController.Permit> running = controller.acquireAsync(AGENT, position -> {
+        });
+        CompletableFuture<LlmAdmissionController.Permit> waiting = controller.acquireAsync(AGENT, position -> {
+        });
+        CompletableFuture<LlmAdmissionController.Permit> rejected = controller.acquireAsync(AGENT, position -> {
+        });
+
+        assertTrue(running.isDone());
+        assertFalse(waiting.isDone());
+        ExecutionException error = assertThrows(ExecutionException.class, rejected::get);
+        assertInstanceOf(LlmRejectedException.class, error.getCause());
+        assertEquals(1L, stat(controller, "rejectedQueueFull"));
+        assertEquals(1, stat(controller, "queueDepth"));
+
+        running.get().success(1_000_000L);
+        assertNotNull(waiting.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void timedOutWaiterLeavesQueue() throws Exception {
+        LlmAdmissionController controller = controller(10, 50);
+        LlmAdmissionController.Permit running = controller.acquire(AGENT);
+        List<Integer> positions = new ArrayList<>();
+        CompletableFuture<LlmAdmissionController.Permit> waiting = controller.acquireAsync(AGENT, positions::add);
+
+        ExecutionException error = assertThrows(ExecutionException.class, () -> waiting.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(LlmRejectedException.class, error.getCause());
+        assertEquals(List.of(1), positions);
+        awaitStat(controller, "queueDepth", 0);
+        awaitStat(controller, "rejectedTimeout", 1L);
+
+        // 超时的等待者不再占用释放出的名额
+        running.release();
+        assertEquals(0, stat(controller, "running"));
+        assertNotNull(controller.tryAcquire(AGENT));
+    }
+
+    @Test
+    void dispatchesWaitersInArrivalOrder() throws Exception {
+        LlmAdmissionController controller = controller(10, 60_000);
+        LlmAdmissionController.Permit running = controller.acquire(AGENT);
+        List<Integer> firstPositions = new ArrayList<>();
+        List<Integer> secondPositions = new ArrayList<>();
+        List<Integer> thirdPositions = new ArrayList<>();
+        CompletableFuture<LlmAdmissionController.Permit> first = controller.acquireAsync(AGENT, firstPositions::add);
+        CompletableFuture<LlmAdmissionController.Permit> second = controller.acquireAsync(AGENT, secondPositions::add);
+        CompletableFuture<LlmAdmissionController.Permit> third = controller.acquireAsync(AGENT, thirdPositions::add);
+
+        running.success(1_000_000L);
+        assertTrue(first.isDone());
+        assertFalse(second.isDone());
+        assertFalse(third.isDone());
+        assertEquals(List.of(2, 1), secondPositions);
+        assertEquals(List.of(3, 2), thirdPositions);
+
+        first.get().failure();
+        assertTrue(second.isDone());
+        assertFalse(third.isDone());
+        assertEquals(List.of(3, 2, 1), thirdPositions);
+
+        second.get().release();
+        assertTrue(third.isDone());
+        assertEquals(List.of(1), firstPositions);
+    }
+
+    @Test
+    void cancelledWaiterIsSkipped() throws Exception {
+        LlmAdmissionController controller = controller(10, 60_000);
+        LlmAdmissionController.Permit running = controller.acquire(AGENT);
+        CompletableFuture<LlmAdmissionController.Permit> first = controller.acquireAsync(AGENT, position -> {
+        });
+        CompletableFuture<LlmAdmissionController.Permit> second = controller.acquireAsync(AGENT, position -> {
+        });
+
+        first.cancel(false);
+        assertEquals(1, stat(controller, "queueDepth"));
+        running.release();
+        assertTrue(second.isDone());
+        assertEquals(1, stat(controller, "running"));
+    }
+
+    @Test
+    void tryAcquireDoesNotOvertakeQueuedRequests() {
+        LlmAdmissionController controller = controller(10, 60_000);
+        LlmAdmissionController.Permit running = controller.acquire(AGENT);
+        assertNull(controller.tryAcquire(AGENT));
+
+        CompletableFuture<LlmAdmissionController.Permit> waiting = controller.acquireAsync(AGENT, position -> {
+        });
+        running.release();
+        assertTrue(waiting.isDone());
+        assertNull(controller.tryAcquire(AGENT));
+    }
+
+    @Test
+    void permitIsReleasedOnlyOnce() throws Exception {
+        LlmAdmissionController controller = controller(10, 60_000);
+        LlmAdmissionController.Permit running = controller.acquire(AGENT);
+        CompletableFuture<LlmAdmissionController.Permit> waiting = controller.acquireAsync(AGENT, position -> {
+        });
+
+        running.release();
+        running.release();
+        assertTrue(waiting.isDone());
+        assertEquals(1, stat(controller, "running"));
+        waiting.get().release();
+        assertEquals(0, stat(controller, "running"));
+    }
+
+    /**
+     * 超时由定时线程触发，等待统计值更新
+     */
+    private static void awaitStat(LlmAdmissionController controller, String name, Object expected)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!expected.equals(stat(controller, name)) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, stat(controller, name));
+    }
+}
\ No newline at end of file